@@ -0,0 +1,55 @@
+package org.example.cache;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page-key derivation per event: the old per-call SHA-1 + hex path against PageDictionary, both
+ * on a cache hit (the steady state for a bounded page set) and with canonicalization and
+ * MurmurHash3 run every time (the miss path).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageKeyBenchmark {
+
+    private static final String[] URLS = {
+            "/home", "/product/123", "/checkout", "/search?q=shoes", "/category/electronics",
+            "https://shop.example/product/456/?utm_source=newsletter&utm_medium=email#reviews"
+    };
+
+    private PageDictionary dictionary;
+
+    @Setup
+    public void setUp() {
+        dictionary = new PageDictionary();
+        for (String url : URLS) dictionary.lookup(url);
+    }
+
+    private static String url() {
+        return URLS[ThreadLocalRandom.current().nextInt(URLS.length)];
+    }
+
+    @Benchmark
+    public String sha1() throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        byte[] h = md.digest(url().getBytes(StandardCharsets.UTF_8));
+        return "pv:" + HexFormat.of().formatHex(h).substring(0, 20);
+    }
+
+    @Benchmark
+    public String dictionaryHit() {
+        return "pv:" + dictionary.id(url());
+    }
+
+    @Benchmark
+    public String dictionaryMiss() {
+        return "pv:" + PageDictionary.idOf(dictionary.canonicalize(url()));
+    }
+}
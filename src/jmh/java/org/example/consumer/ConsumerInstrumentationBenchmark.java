@@ -0,0 +1,88 @@
+package org.example.consumer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.config.ObjectMapperConfig;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.enums.WireFormat;
+import org.example.service.AnalyticsService;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.util.EventWireCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ns per record through KafkaEventConsumer.listen with the analytics service stubbed out, so
+ * the difference between runs is the consume path's own cost. bare is decode + process with
+ * no meters (the listener before instrumentation); listen runs the instrumented listener
+ * against a no-op registry and against a SimpleMeterRegistry, which records like the
+ * production registries do. Debug logging is off, as in production, so the sampled log line
+ * costs one isDebugEnabled check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConsumerInstrumentationBenchmark {
+
+    @Param({"noop", "simple"})
+    public String registry;
+
+    private EventWireCodec codec;
+    private AnalyticsService service;
+    private KafkaEventConsumer consumer;
+    private ConsumerRecord<String, byte[]> record;
+    private final Acknowledgment ack = () -> { };
+    // the stubbed service stores here so the decoded event is not dead code
+    private UserEventInputRequest last;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new EventWireCodec(new ObjectMapperConfig().objectMapper(), WireFormat.JSON);
+        UserEventInputRequest ev = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID())
+                .eventType(EventType.PAGE_VIEW)
+                .eventTimestamp(Instant.now())
+                .pageUrl("/category/electronics")
+                .build();
+        record = new ConsumerRecord<>("user_events", 0, 0, ev.getUserId().toString(),
+                codec.toRecord("user_events", ev).value());
+        MeterRegistry meters = registry.equals("simple") ? new SimpleMeterRegistry() : new CompositeMeterRegistry();
+        service = new AnalyticsService() {
+            @Override
+            public void process(UserEventInputRequest ev) {
+                last = ev;
+            }
+
+            @Override
+            public void processBatch(List<UserEventInputRequest> events) {
+                last = events.get(events.size() - 1);
+            }
+        };
+        // event time off, as by default: admit returns before touching Redis or Kafka
+        EventTimeWatermarks watermarks = new EventTimeWatermarks(null, null, meters, false, Duration.ofSeconds(5),
+                Duration.ofMinutes(2), Duration.ofMinutes(1), "user_events.late", Duration.ofSeconds(5));
+        consumer = new KafkaEventConsumer(service, codec, new ConsumerMetrics(meters, 1000), watermarks);
+    }
+
+    @Benchmark
+    public UserEventInputRequest bare() throws IOException {
+        service.process(codec.decode(record));
+        return last;
+    }
+
+    @Benchmark
+    public UserEventInputRequest listen() {
+        consumer.listen(record, ack);
+        return last;
+    }
+}
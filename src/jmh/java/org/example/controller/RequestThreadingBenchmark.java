@@ -0,0 +1,111 @@
+package org.example.controller;
+
+import org.example.repository.AnalyticsDataRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request work on a 200-thread platform pool (the size of Tomcat's default) against one virtual
+ * thread per task, submitted straight to the executors rather than through Tomcat. Each op is a wave of `concurrency` simultaneous requests. Half are ingests
+ * (pipelined recordEvent) and half are page-view queries. Throughput is waves/sec, so multiply
+ * by concurrency for requests/sec. SampleTime gives the wave latency distribution. The
+ * per-request p50/p99 of each iteration are printed at teardown. Needs a redis-server on
+ * localhost:6379, or REDIS_HOST / REDIS_PORT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RequestThreadingBenchmark {
+
+    private static final String[] PAGES = {"/home", "/product/123", "/checkout", "/search?q=shoes", "/category/electronics"};
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"200", "2000"})
+    public int concurrency;
+
+    private LettuceConnectionFactory factory;
+    private AnalyticsDataRepository repository;
+    private ExecutorService executor;
+    private UUID[] users;
+    private long[] latencies;
+    private int recorded;
+
+    @Setup
+    public void setUp() {
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        factory = new LettuceConnectionFactory(host, port);
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
+        factory.afterPropertiesSet();
+        repository = new AnalyticsDataRepository(new StringRedisTemplate(factory));
+        executor = "virtual".equals(threads)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(200);
+        users = new UUID[10_000];
+        for (int i = 0; i < users.length; i++) users[i] = UUID.randomUUID();
+        latencies = new long[1 << 22];
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        factory.destroy();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportLatency() {
+        int n = Math.min(recorded, latencies.length);
+        if (n == 0) return;
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.printf("%n[%s x%d] per-request p50=%.2fms p99=%.2fms (%d samples)%n", threads, concurrency,
+                sorted[n / 2] / 1e6, sorted[(int) (n * 0.99)] / 1e6, n);
+        recorded = 0;
+    }
+
+    @Benchmark
+    public void wave() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long[] waveLatencies = new long[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            int slot = i;
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    handle(slot);
+                } finally {
+                    waveLatencies[slot] = System.nanoTime() - submitted;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        // only this thread touches latencies/recorded, after the latch has published waveLatencies
+        int room = Math.min(concurrency, latencies.length - recorded);
+        if (room > 0) System.arraycopy(waveLatencies, 0, latencies, recorded, room);
+        recorded += Math.max(room, 0);
+    }
+
+    private void handle(int slot) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String page = PAGES[rnd.nextInt(PAGES.length)];
+        if ((slot & 1) == 0) {
+            repository.recordEvent(users[rnd.nextInt(users.length)], page, "bench-session", Instant.now());
+        } else {
+            repository.countPageViews(page, System.currentTimeMillis());
+        }
+    }
+}
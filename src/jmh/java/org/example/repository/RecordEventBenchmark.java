@@ -0,0 +1,64 @@
+package org.example.repository;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events/sec of the per-call write path (six round trips) against the pipelined
+ * recordEvent path (one round trip). Needs a redis-server on localhost:6379,
+ * or REDIS_HOST / REDIS_PORT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RecordEventBenchmark {
+
+    private static final String[] PAGES = {"/home", "/product/123", "/checkout", "/search?q=shoes", "/category/electronics"};
+
+    private LettuceConnectionFactory factory;
+    private AnalyticsDataRepository repository;
+    private UUID[] users;
+
+    @Setup
+    public void setUp() {
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        factory = new LettuceConnectionFactory(host, port);
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
+        factory.afterPropertiesSet();
+        repository = new AnalyticsDataRepository(new StringRedisTemplate(factory));
+        users = new UUID[10_000];
+        for (int i = 0; i < users.length; i++) users[i] = UUID.randomUUID();
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.destroy();
+    }
+
+    @Benchmark
+    public void perCall() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        UUID user = users[rnd.nextInt(users.length)];
+        String page = PAGES[rnd.nextInt(PAGES.length)];
+        Instant now = Instant.now();
+        repository.markActiveUser(user, now);
+        repository.addPageView(page, now);
+        repository.addSessionForUser(user.toString(), "bench-session");
+    }
+
+    @Benchmark
+    public void pipelined() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        UUID user = users[rnd.nextInt(users.length)];
+        String page = PAGES[rnd.nextInt(PAGES.length)];
+        repository.recordEvent(user, page, "bench-session", Instant.now());
+    }
+}
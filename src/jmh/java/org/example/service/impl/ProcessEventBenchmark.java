@@ -0,0 +1,85 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.cache.PageDictionary;
+import org.example.config.ObjectMapperConfig;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.mapper.UserEventMapper;
+import org.example.repository.AnalyticsDataRepository;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events/sec through AnalyticsServiceImpl.process end to end: canonicalization, session id,
+ * trending sketch, rollup and funnel counters (in memory only; nothing flushes them here) and the
+ * Redis write, either one pipelined recordEvent per event or folded into the pre-aggregator.
+ * Needs a redis-server on localhost:6379, or REDIS_HOST / REDIS_PORT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProcessEventBenchmark {
+
+    private static final String[] PAGES = {"/home", "/product/123?utm_source=mail", "/checkout/", "/search?q=shoes", "/category/electronics"};
+
+    @Param({"false", "true"})
+    public boolean preAggregation;
+
+    private LettuceConnectionFactory factory;
+    private EventPreAggregator preAggregator;
+    private AnalyticsServiceImpl service;
+    private UUID[] users;
+
+    @Setup
+    public void setUp() {
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        factory = new LettuceConnectionFactory(host, port);
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
+        factory.afterPropertiesSet();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AnalyticsDataRepository repository = new AnalyticsDataRepository(new StringRedisTemplate(factory));
+        preAggregator = new EventPreAggregator(repository, registry, preAggregation, 250, 10_000, 500_000);
+        preAggregator.start();
+        SessionWindowEngine sessions = new SessionWindowEngine(repository, null, new ObjectMapperConfig().objectMapper(),
+                registry, false, Duration.ofMinutes(30), 12, 10_000, 50, "user_sessions");
+        // archive off: it only enqueues on this path, and MongoDB writes happen on its own thread
+        EventArchiver archiver = new EventArchiver(null, Mappers.getMapper(UserEventMapper.class), new PageDictionary(),
+                registry, false, "user_event_buckets", Duration.ofHours(1), 65_536, 1000, 1000, 3, 1000);
+        service = new AnalyticsServiceImpl(repository, preAggregator,
+                new TrendingPagesTracker(repository, 200, 60), sessions, new PageDictionary(), archiver,
+                new EventRollups(repository, new PageDictionary(), registry, true, Duration.ofHours(48),
+                        Duration.ofDays(90), Duration.ofDays(1825), Duration.ofMinutes(2), 500),
+                new FunnelTracker(repository, registry, true, "checkout=PAGE_VIEW>ADD_TO_CART>CHECKOUT>PURCHASE",
+                        Duration.ofHours(1), 1_000_000, 24),
+                // events here carry no eventId, so dedup passes them all
+                new EventDeduplicator(repository, registry, true, Duration.ofMinutes(10), 4, 1_000_000, 0.001, 0, false));
+        users = new UUID[10_000];
+        for (int i = 0; i < users.length; i++) users[i] = UUID.randomUUID();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        preAggregator.stop();
+        factory.destroy();
+    }
+
+    @Benchmark
+    public void process() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        service.process(UserEventInputRequest.builder()
+                .userId(users[rnd.nextInt(users.length)])
+                .eventType(EventType.PAGE_VIEW)
+                .pageUrl(PAGES[rnd.nextInt(PAGES.length)])
+                .build());
+    }
+}
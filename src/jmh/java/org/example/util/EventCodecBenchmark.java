@@ -0,0 +1,86 @@
+package org.example.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.example.config.ObjectMapperConfig;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode ns per event for the JSON wire format (the ObjectMapper bean from ObjectMapperConfig) and
+ * the binary one. Bytes per event for each format are printed at setup. JSON decoding is
+ * measured four ways: String + ObjectMapper (the old consumer path), bytes + ObjectMapper,
+ * bytes + cached ObjectReader, and bytes + JsonEventDecoder. The gc profiler configured in
+ * build.gradle adds gc.alloc.rate.norm (bytes allocated per event).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventCodecBenchmark {
+
+    private ObjectMapper mapper;
+    private ObjectReader reader;
+    private JsonEventDecoder streamingDecoder;
+    private UserEventInputRequest event;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new ObjectMapperConfig().objectMapper();
+        event = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID())
+                .eventType(EventType.PAGE_VIEW)
+                .eventTimestamp(Instant.now())
+                .pageUrl("/category/electronics")
+                .sessionId("5f2b9c1e0d3a4b6c8e7f9a0b1c2d3e4f")
+                .build();
+        reader = mapper.readerFor(UserEventInputRequest.class);
+        streamingDecoder = new JsonEventDecoder(mapper);
+        json = mapper.writeValueAsBytes(event);
+        binary = BinaryEventSerializer.encode(event);
+        System.out.printf("%nbytes/event: json=%d binary=%d%n", json.length, binary.length);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryEventSerializer.encode(event);
+    }
+
+    @Benchmark
+    public UserEventInputRequest decodeJsonString() throws IOException {
+        return mapper.readValue(new String(json, StandardCharsets.UTF_8), UserEventInputRequest.class);
+    }
+
+    @Benchmark
+    public UserEventInputRequest decodeJsonMapper() throws IOException {
+        return mapper.readValue(json, UserEventInputRequest.class);
+    }
+
+    @Benchmark
+    public UserEventInputRequest decodeJsonReader() throws IOException {
+        return reader.readValue(json);
+    }
+
+    @Benchmark
+    public UserEventInputRequest decodeJsonStreaming() throws IOException {
+        return streamingDecoder.decode(json);
+    }
+
+    @Benchmark
+    public UserEventInputRequest decodeBinary() {
+        return BinaryEventDeserializer.decode(binary);
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ns per SessionIdGenerator.generate call, the fallback id computed for every event that
+ * arrives without a session id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionIdGeneratorBenchmark {
+
+    private String[] users;
+    private Instant now;
+
+    @Setup
+    public void setUp() {
+        users = new String[1024];
+        for (int i = 0; i < users.length; i++) users[i] = UUID.randomUUID().toString();
+        now = Instant.now();
+    }
+
+    @Benchmark
+    public String generate() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return SessionIdGenerator.generate(users[rnd.nextInt(users.length)], now, Duration.ofMinutes(30));
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.util;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * tryConsume throughput on one shared bucket under 1, 8 and 64 threads: the lock-free
+ * CAS bucket against the previous synchronized, currentTimeMillis-driven implementation.
+ * The rate is set high enough that the benchmark measures contention, not rejections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenBucketContentionBenchmark {
+
+    private AnalyticsRateLimiter.TokenBucket casBucket;
+    private SynchronizedTokenBucket syncBucket;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        casBucket = new AnalyticsRateLimiter.TokenBucket(1e9, Integer.MAX_VALUE / 2, Ticker.systemTicker());
+        syncBucket = new SynchronizedTokenBucket(1e9, Integer.MAX_VALUE / 2);
+    }
+
+    @Benchmark @Threads(1)
+    public boolean cas_1() { return casBucket.tryConsume(); }
+
+    @Benchmark @Threads(8)
+    public boolean cas_8() { return casBucket.tryConsume(); }
+
+    @Benchmark @Threads(64)
+    public boolean cas_64() { return casBucket.tryConsume(); }
+
+    @Benchmark @Threads(1)
+    public boolean synchronized_1() { return syncBucket.tryConsume(); }
+
+    @Benchmark @Threads(8)
+    public boolean synchronized_8() { return syncBucket.tryConsume(); }
+
+    @Benchmark @Threads(64)
+    public boolean synchronized_64() { return syncBucket.tryConsume(); }
+
+    /** The bucket as it was before the lock-free rewrite, kept here as the baseline. */
+    static class SynchronizedTokenBucket {
+        private final double refillPerMillis;
+        private final int capacity;
+        private double tokens;
+        private long lastRefill;
+
+        SynchronizedTokenBucket(double tokensPerSecond, int capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+            this.refillPerMillis = tokensPerSecond / 1000.0;
+        }
+
+        synchronized boolean tryConsume() {
+            long now = System.currentTimeMillis();
+            long delta = now - lastRefill;
+            if (delta > 0) {
+                tokens = Math.min(capacity, tokens + delta * refillPerMillis);
+                lastRefill = now;
+            }
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded read-through cache for the /metrics endpoints. Each metric has its own TTL, and
+ * concurrent requests for the same metric and argument share a single Redis call: the first
+ * caller loads on its own thread while the others wait on the same future. Per-url and per-user
+ * entries are evicted by size. Hit, miss and load-time statistics are published through
+ * actuator as cache.* meters tagged cache=metrics-query.
+ */
+@Component
+public class MetricsQueryCache {
+
+    public enum Metric {
+        ACTIVE_USERS,
+        PAGE_VIEWS,
+        ACTIVE_SESSIONS
+    }
+
+    private record Key(Metric metric, String arg) {}
+
+    private final boolean enabled;
+    private final Map<Metric, Long> ttlNanos = new EnumMap<>(Metric.class);
+    private final AsyncCache<Key, Long> cache;
+
+    @Autowired
+    public MetricsQueryCache(MeterRegistry registry,
+                             @Value("${analytics.metrics-cache.enabled:true}") boolean enabled,
+                             @Value("${analytics.metrics-cache.max-size:10000}") long maxSize,
+                             @Value("${analytics.metrics-cache.ttl-ms.active-users:1000}") long activeUsersTtlMs,
+                             @Value("${analytics.metrics-cache.ttl-ms.page-views:1000}") long pageViewsTtlMs,
+                             @Value("${analytics.metrics-cache.ttl-ms.active-sessions:1000}") long activeSessionsTtlMs) {
+        this(enabled, maxSize, activeUsersTtlMs, pageViewsTtlMs, activeSessionsTtlMs, Ticker.systemTicker());
+        CaffeineCacheMetrics.monitor(registry, cache, "metrics-query");
+    }
+
+    MetricsQueryCache(boolean enabled, long maxSize, long activeUsersTtlMs, long pageViewsTtlMs,
+                      long activeSessionsTtlMs, Ticker ticker) {
+        this.enabled = enabled;
+        ttlNanos.put(Metric.ACTIVE_USERS, Duration.ofMillis(activeUsersTtlMs).toNanos());
+        ttlNanos.put(Metric.PAGE_VIEWS, Duration.ofMillis(pageViewsTtlMs).toNanos());
+        ttlNanos.put(Metric.ACTIVE_SESSIONS, Duration.ofMillis(activeSessionsTtlMs).toNanos());
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Key, Long>() {
+                    @Override
+                    public long expireAfterCreate(Key key, Long value, long currentTime) {
+                        return ttlNanos.get(key.metric());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Key key, Long value, long currentTime, long currentDuration) {
+                        return ttlNanos.get(key.metric());
+                    }
+
+                    @Override
+                    public long expireAfterRead(Key key, Long value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .recordStats()
+                .buildAsync();
+    }
+
+    public long get(Metric metric, String arg, LongSupplier loader) {
+        if (!enabled) return loader.getAsLong();
+        CompletableFuture<Long> mine = new CompletableFuture<>();
+        boolean[] owner = {false};
+        CompletableFuture<Long> shared = cache.get(new Key(metric, arg == null ? "" : arg), (k, executor) -> {
+            owner[0] = true;
+            return mine;
+        });
+        if (owner[0]) {
+            // we won the race: load outside the cache's internal locks; failed loads are not cached
+            try {
+                mine.complete(loader.getAsLong());
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+            }
+        }
+        return shared.join();
+    }
+}
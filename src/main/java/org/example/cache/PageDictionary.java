@@ -0,0 +1,126 @@
+package org.example.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Maps raw page URLs to a canonical form and a stable 64-bit id (the first half of
+ * MurmurHash3 x64/128 over the canonical UTF-8 bytes, as 16 hex chars). Canonicalization drops
+ * the fragment and the scheme. Unless keep-host is set it also drops the host; otherwise the
+ * host is lowercased and kept as "//host/path". It keeps only the query
+ * params on the allowlist, sorted by name. It can also strip a trailing slash and lowercase
+ * the path. Results are cached per raw URL in a bounded cache, so hot pages skip both steps.
+ * Canonicalizing a canonical URL returns it unchanged.
+ */
+@Component
+public class PageDictionary {
+
+    public record Page(String canonicalUrl, String id) {}
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Set<String> keptQueryParams;
+    private final boolean stripTrailingSlash;
+    private final boolean lowercasePath;
+    private final boolean keepHost;
+    private final Cache<String, Page> cache;
+
+    /** Defaults: drop every query param, strip trailing slashes, keep path case, drop the host. */
+    public PageDictionary() {
+        this(List.of(), true, false, false, 100_000);
+    }
+
+    public PageDictionary(List<String> keptQueryParams, boolean stripTrailingSlash, boolean lowercasePath,
+                          boolean keepHost, long maxSize) {
+        this.keptQueryParams = Set.copyOf(keptQueryParams);
+        this.stripTrailingSlash = stripTrailingSlash;
+        this.lowercasePath = lowercasePath;
+        this.keepHost = keepHost;
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    @Autowired
+    public PageDictionary(MeterRegistry registry,
+                          @Value("${analytics.pages.keep-query-params:}") List<String> keptQueryParams,
+                          @Value("${analytics.pages.strip-trailing-slash:true}") boolean stripTrailingSlash,
+                          @Value("${analytics.pages.lowercase-path:false}") boolean lowercasePath,
+                          @Value("${analytics.pages.keep-host:false}") boolean keepHost,
+                          @Value("${analytics.pages.cache-size:100000}") long maxSize) {
+        this(keptQueryParams, stripTrailingSlash, lowercasePath, keepHost, maxSize);
+        CaffeineCacheMetrics.monitor(registry, cache, "page-dictionary");
+    }
+
+    public Page lookup(String rawUrl) {
+        return cache.get(rawUrl, raw -> {
+            String canonical = canonicalize(raw);
+            return new Page(canonical, idOf(canonical));
+        });
+    }
+
+    public String canonical(String rawUrl) {
+        return rawUrl == null ? null : lookup(rawUrl).canonicalUrl();
+    }
+
+    public String id(String rawUrl) {
+        return lookup(rawUrl).id();
+    }
+
+    static String idOf(String canonicalUrl) {
+        byte[] bytes = canonicalUrl.getBytes(StandardCharsets.UTF_8);
+        long[] h = MurmurHash3.hash128x64(bytes, 0, bytes.length, 0);
+        return HEX.toHexDigits(h[0]);
+    }
+
+    String canonicalize(String raw) {
+        String url = raw.trim();
+        int hash = url.indexOf('#');
+        if (hash >= 0) url = url.substring(0, hash);
+        int q = url.indexOf('?');
+        String path = q >= 0 ? url.substring(0, q) : url;
+        String query = q >= 0 ? url.substring(q + 1) : "";
+
+        // "scheme://host/path" and the canonical "//host/path" both carry an authority
+        String prefix = "";
+        int scheme = path.indexOf("://");
+        int authStart = scheme >= 0 ? scheme + 3 : path.startsWith("//") ? 2 : -1;
+        if (authStart >= 0) {
+            int slash = path.indexOf('/', authStart);
+            String authority = slash >= 0 ? path.substring(authStart, slash) : path.substring(authStart);
+            path = slash >= 0 ? path.substring(slash) : "/";
+            if (keepHost) prefix = "//" + authority.toLowerCase(Locale.ROOT);
+        }
+        if (path.isEmpty() || path.charAt(0) != '/') path = "/" + path;
+        if (stripTrailingSlash) {
+            int end = path.length();
+            while (end > 1 && path.charAt(end - 1) == '/') end--;
+            path = path.substring(0, end);
+        }
+        if (lowercasePath) path = path.toLowerCase(Locale.ROOT);
+
+        StringBuilder out = new StringBuilder(prefix.length() + path.length() + query.length() + 1).append(prefix).append(path);
+        if (!keptQueryParams.isEmpty() && !query.isEmpty()) {
+            List<String> kept = new ArrayList<>();
+            for (String param : query.split("&")) {
+                if (param.isEmpty()) continue;
+                int eq = param.indexOf('=');
+                if (keptQueryParams.contains(eq >= 0 ? param.substring(0, eq) : param)) kept.add(param);
+            }
+            kept.sort(null);
+            for (int i = 0; i < kept.size(); i++) out.append(i == 0 ? '?' : '&').append(kept.get(i));
+        }
+        return out.toString();
+    }
+}
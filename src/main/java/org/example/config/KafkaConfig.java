@@ -1,16 +1,23 @@
 package org.example.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.service.impl.SessionWindowEngine;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.*;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.*;
@@ -20,7 +27,9 @@ import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.listener.ContainerProperties.AckMode;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.nio.charset.StandardCharsets;
@@ -44,6 +53,23 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.concurrency:3}")
     private int consumerConcurrency;
 
+    // batch listener mode: one Redis pipeline and one offset commit per poll
+    @Value("${spring.kafka.consumer.batch-listener:false}")
+    private boolean batchListener;
+
+    @Value("${spring.kafka.consumer.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${spring.kafka.consumer.fetch-max-wait-ms:500}")
+    private int fetchMaxWaitMs;
+
+    @Value("${spring.kafka.consumer.fetch-min-bytes:1}")
+    private int fetchMinBytes;
+
+    // same switch as Tomcat; our own container factory doesn't pick it up from Boot
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
     // retry/backoff props
     @Value("${kafka.consumer.retry.max-attempts:5}")
     private int maxAttempts;
@@ -70,34 +96,46 @@ public class KafkaConfig {
     @Value("${spring.kafka.producer.batch-size:16384}")
     private int producerBatchSize;
 
+    // how long send() may block on metadata or a full buffer before throwing; request threads call it
+    @Value("${spring.kafka.producer.max-block-ms:1000}")
+    private long producerMaxBlockMs;
+
     // --- Consumer factory ---
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    // values stay raw bytes; EventWireCodec picks JSON or binary per record from the x-event-format header
+    public ConsumerFactory<String, byte[]> consumerFactory(MeterRegistry meterRegistry) {
         Map<String,Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, consumerGroupId);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, consumerAutoOffset);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        // add other tuning if needed
-        return new DefaultKafkaConsumerFactory<>(props);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        // batch size and maximum wait per poll
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        DefaultKafkaConsumerFactory<String, byte[]> factory = new DefaultKafkaConsumerFactory<>(props);
+        // client metrics as kafka.consumer.* meters, including records-lag per topic/partition
+        factory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return factory;
     }
 
     // --- Producer factory & template ---
     @Bean
-    public ProducerFactory<String, String> producerFactory() {
+    public ProducerFactory<String, byte[]> producerFactory() {
         Map<String,Object> props = new HashMap<>();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.ACKS_CONFIG, producerAcks);
         props.put(ProducerConfig.LINGER_MS_CONFIG, producerLingerMs);
         props.put(ProducerConfig.BATCH_SIZE_CONFIG, producerBatchSize);
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, producerMaxBlockMs);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
         return new DefaultKafkaProducerFactory<>(props);
     }
 
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate(ProducerFactory<String, String> pf) {
+    public KafkaTemplate<String, byte[]> kafkaTemplate(ProducerFactory<String, byte[]> pf) {
         return new KafkaTemplate<>(pf);
     }
 
@@ -139,7 +177,7 @@ public class KafkaConfig {
 //    }
 
     @Bean
-    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(KafkaOperations<String, String> kafkaTemplate) {
+    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(KafkaOperations<String, byte[]> kafkaTemplate) {
         // Example: publish to topic: original-topic.DLT
         return new DeadLetterPublishingRecoverer(kafkaTemplate,
                 (record, ex) -> new TopicPartition(record.topic() + ".DLT", record.partition()));
@@ -175,18 +213,43 @@ public class KafkaConfig {
     }
 
     // --- Container factory with manual immediate ack and error handler wired ---
+    // spring.kafka.consumer.batch-listener=true switches it to List<ConsumerRecord> delivery (KafkaBatchEventConsumer)
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(
-            DefaultErrorHandler errorHandler) {
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(
+            ConsumerFactory<String, byte[]> consumerFactory, DefaultErrorHandler errorHandler,
+            SessionWindowEngine sessions, EventTimeWatermarks watermarks) {
 
-        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
+        factory.setConsumerFactory(consumerFactory);
         factory.setConcurrency(consumerConcurrency);
+        factory.setBatchListener(batchListener);
+        if (virtualThreads) {
+            // one virtual thread per consumer; the poll loop parks on network I/O instead of holding a carrier
+            SimpleAsyncTaskExecutor listenerExecutor = new SimpleAsyncTaskExecutor("kafka-listener-");
+            listenerExecutor.setVirtualThreads(true);
+            factory.getContainerProperties().setListenerTaskExecutor(listenerExecutor);
+        }
 
         // Manual immediate ack - call ack.acknowledge() in consumer after success
         factory.getContainerProperties().setAckMode(AckMode.MANUAL_IMMEDIATE);
 
+        // session-window state and event-time watermarks are kept per partition; close out the
+        // partitions this consumer loses and resume the ones it gains from their published watermarks
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                List<Integer> revoked = partitions.stream().map(TopicPartition::partition).toList();
+                sessions.closePartitions(revoked);
+                watermarks.revoke(revoked);
+            }
+
+            @Override
+            public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                watermarks.assign(partitions.stream().map(TopicPartition::partition).toList());
+            }
+        });
+
         // Wire the DefaultErrorHandler (retries + DLQ)
         factory.setCommonErrorHandler(errorHandler);
 
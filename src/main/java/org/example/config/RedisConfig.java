@@ -1,7 +1,10 @@
 package org.example.config;
 
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,8 +17,14 @@ public class RedisConfig {
     private int port;
 
     @Bean
-    public LettuceConnectionFactory redisConnectionFactory() {
-        return new LettuceConnectionFactory(host, port);
+    public LettuceConnectionFactory redisConnectionFactory(ObjectProvider<ClientResources> clientResources) {
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder();
+        // Boot's shared ClientResources carry the Micrometer command-latency recorder (lettuce.command.* per command type)
+        clientResources.ifAvailable(client::clientResources);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port), client.build());
+        // Buffer pipelined commands and flush once, so a pipelined event write is a single round trip
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
+        return factory;
     }
 
     @Bean
@@ -0,0 +1,82 @@
+package org.example.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.dto.UserEventInputRequest;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters for the user_events consume path, shared by the record and batch listeners:
+ * analytics.consumer.deserialize and analytics.consumer.process (per record, or per batch for
+ * the batch listener), analytics.consumer.batch.size, analytics.consumer.failures{stage} and
+ * analytics.event.age (consume time minus eventTimestamp). Meters are created once, so the hot
+ * path is a couple of nanoTime reads and lock-free adds. Per-partition lag comes from the Kafka
+ * client metrics bound in KafkaConfig.
+ */
+@Component
+public class ConsumerMetrics {
+    private final Timer deserialize;
+    private final Timer process;
+    private final Timer eventAge;
+    private final DistributionSummary batchSize;
+    private final Counter decodeFailures;
+    private final Counter processFailures;
+    private final long logSampleRate;
+    private final AtomicLong logTicks = new AtomicLong();
+
+    public ConsumerMetrics(MeterRegistry registry,
+                           @Value("${analytics.consumer.log-sample-rate:1000}") long logSampleRate) {
+        this.deserialize = Timer.builder("analytics.consumer.deserialize")
+                .description("Time to decode a user_events record").register(registry);
+        this.process = Timer.builder("analytics.consumer.process")
+                .description("Time to apply decoded events to the analytics store").register(registry);
+        this.eventAge = Timer.builder("analytics.event.age")
+                .description("Consume time minus eventTimestamp").register(registry);
+        this.batchSize = DistributionSummary.builder("analytics.consumer.batch.size")
+                .description("Records per poll in batch mode").register(registry);
+        this.decodeFailures = Counter.builder("analytics.consumer.failures").tag("stage", "decode").register(registry);
+        this.processFailures = Counter.builder("analytics.consumer.failures").tag("stage", "process").register(registry);
+        this.logSampleRate = Math.max(1, logSampleRate);
+    }
+
+    public void deserialized(long nanos) {
+        deserialize.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void processed(long nanos) {
+        process.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records now minus the event's timestamp; events without one, or dated in the future, count as age 0. */
+    public void eventAge(UserEventInputRequest ev, long nowMs) {
+        long age = ev.getEventTimestamp() == null ? 0 : nowMs - ev.getEventTimestamp().toEpochMilli();
+        eventAge.record(Math.max(0, age), TimeUnit.MILLISECONDS);
+    }
+
+    public void batch(int records) {
+        batchSize.record(records);
+    }
+
+    public void decodeFailed() {
+        decodeFailures.increment();
+    }
+
+    public void processFailed() {
+        processFailures.increment();
+    }
+
+    /**
+     * True for one call in analytics.consumer.log-sample-rate while log has debug enabled, so
+     * per-message detail can be logged without paying for it on every message.
+     */
+    public boolean sampleLog(Logger log) {
+        return log.isDebugEnabled() && logTicks.getAndIncrement() % logSampleRate == 0;
+    }
+}
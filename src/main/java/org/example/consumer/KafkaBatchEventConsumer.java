@@ -0,0 +1,92 @@
+package org.example.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.dto.UserEventInputRequest;
+import org.example.service.AnalyticsService;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.util.EventWireCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batch-mode listener, active when spring.kafka.consumer.batch-listener=true.
+ * Decodes a whole poll, applies it to Redis in one pipelined write and commits offsets once.
+ * Records that cannot be decoded go straight to the dead-letter topic so the rest of the
+ * batch is never replayed because of them; records too late for their partition's watermark go
+ * to the late topic (see EventTimeWatermarks).
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "spring.kafka.consumer.batch-listener", havingValue = "true")
+public class KafkaBatchEventConsumer {
+    private final AnalyticsService analyticsService;
+    private final EventWireCodec codec;
+    private final DeadLetterPublishingRecoverer dltRecoverer;
+    private final ConsumerMetrics metrics;
+    private final EventTimeWatermarks watermarks;
+
+    public KafkaBatchEventConsumer(AnalyticsService analyticsService, EventWireCodec codec,
+                                   DeadLetterPublishingRecoverer dltRecoverer, ConsumerMetrics metrics,
+                                   EventTimeWatermarks watermarks) {
+        this.analyticsService = analyticsService;
+        this.codec = codec;
+        this.dltRecoverer = dltRecoverer;
+        this.metrics = metrics;
+        this.watermarks = watermarks;
+    }
+
+    @KafkaListener(topics = "user_events", containerFactory = "kafkaListenerContainerFactory")
+    public void listen(List<ConsumerRecord<String, byte[]>> records, Acknowledgment ack) {
+        metrics.batch(records.size());
+        List<UserEventInputRequest> events = new ArrayList<>(records.size());
+        long start = System.nanoTime();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            UserEventInputRequest ev;
+            try {
+                ev = decode(record);
+            } catch (Exception e) {
+                metrics.decodeFailed();
+                log.warn("Routing record to DLT topic={} partition={} offset={}: {}",
+                        record.topic(), record.partition(), record.offset(), e.getMessage());
+                dltRecoverer.accept(record, e);
+                continue;
+            }
+            if (watermarks.admit(record, ev)) events.add(ev);
+        }
+        long decoded = System.nanoTime();
+        metrics.deserialized(decoded - start);
+        long nowMs = System.currentTimeMillis();
+        for (UserEventInputRequest ev : events) metrics.eventAge(ev, nowMs);
+        // a Redis failure propagates, so the un-acknowledged batch is retried by the error handler
+        if (!events.isEmpty()) {
+            try {
+                analyticsService.processBatch(events);
+            } catch (RuntimeException e) {
+                metrics.processFailed();
+                throw e;
+            }
+            metrics.processed(System.nanoTime() - decoded);
+        }
+        ack.acknowledge();
+        if (metrics.sampleLog(log)) {
+            log.debug("Processed batch records={} applied={}", records.size(), events.size());
+        }
+    }
+
+    private UserEventInputRequest decode(ConsumerRecord<String, byte[]> record) throws IOException {
+        UserEventInputRequest ev = codec.decode(record);
+        ev.setPartition(record.partition());
+        if (ev.getUserId() == null || ev.getPageUrl() == null || ev.getPageUrl().isEmpty()) {
+            throw new IllegalArgumentException("userId and pageUrl are required");
+        }
+        return ev;
+    }
+}
@@ -1,35 +1,64 @@
 package org.example.consumer;
 
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.extern.slf4j.Slf4j;
-import org.example.config.ObjectMapperConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.example.dto.UserEventInputRequest;
 import org.example.service.AnalyticsService;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.util.EventWireCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 @Component
 @Slf4j
+@ConditionalOnProperty(name = "spring.kafka.consumer.batch-listener", havingValue = "false", matchIfMissing = true)
 public class KafkaEventConsumer {
     private final AnalyticsService analyticsService;
-    private final ObjectMapper mapper;
+    private final EventWireCodec codec;
+    private final ConsumerMetrics metrics;
+    private final EventTimeWatermarks watermarks;
 
-    public KafkaEventConsumer(AnalyticsService analyticsService, ObjectMapper mapper) { this.analyticsService = analyticsService;
-        this.mapper = mapper;
+    public KafkaEventConsumer(AnalyticsService analyticsService, EventWireCodec codec, ConsumerMetrics metrics,
+                              EventTimeWatermarks watermarks) {
+        this.analyticsService = analyticsService;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.watermarks = watermarks;
     }
 
     @KafkaListener(topics = "user_events", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(String message) {
+    public void listen(ConsumerRecord<String, byte[]> record, Acknowledgment ack) {
+        long start = System.nanoTime();
+        UserEventInputRequest ev = null;
         try {
-            UserEventInputRequest ev = mapper.readValue(message, UserEventInputRequest.class);
-            log.info("Message consumed");
-            analyticsService.process(ev);
-            log.info("Message processed");
+            ev = codec.decode(record);
+            ev.setPartition(record.partition());
         } catch (Exception e) {
-            log.error("Failed to process message", e);
+            metrics.decodeFailed();
+            log.error("Failed to decode message partition={} offset={}", record.partition(), record.offset(), e);
         }
+        if (ev != null) {
+            long decoded = System.nanoTime();
+            metrics.deserialized(decoded - start);
+            metrics.eventAge(ev, System.currentTimeMillis());
+            // too-late events have already been forwarded to the late topic
+            if (watermarks.admit(record, ev)) {
+                try {
+                    analyticsService.process(ev);
+                    metrics.processed(System.nanoTime() - decoded);
+                } catch (Exception e) {
+                    metrics.processFailed();
+                    log.error("Failed to process message", e);
+                }
+            }
+            if (metrics.sampleLog(log)) {
+                log.debug("Processed partition={} offset={} user={} page={}",
+                        record.partition(), record.offset(), ev.getUserId(), ev.getPageUrl());
+            }
+        }
+        ack.acknowledge();
     }
 }
@@ -3,14 +3,41 @@ package org.example.controller;
 
 import io.micrometer.core.annotation.Timed;
 import jakarta.validation.Valid;
+import org.example.cache.MetricsQueryCache;
+import org.example.cache.PageDictionary;
+import org.example.cache.MetricsQueryCache.Metric;
+import jakarta.servlet.http.HttpServletRequest;
+import org.example.dto.BatchIngestResponse;
+import org.example.dto.FunnelResponse;
+import org.example.dto.SessionStatsResponse;
+import org.example.dto.TimeSeriesResponse;
 import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
 import org.example.repository.AnalyticsDataRepository;
 import org.example.service.AnalyticsService;
+import org.example.service.impl.BatchIngestionService;
+import org.example.service.impl.EventRollups;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.service.impl.FunnelTracker;
+import org.example.service.impl.IngestionDispatcher;
+import org.example.service.impl.SessionWindowEngine;
+import org.example.service.impl.TrendingPagesTracker;
+import org.example.util.EventValidator;
 import org.example.util.MockEventGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 @RestController
 @RequestMapping("/apis/v1")
@@ -19,41 +46,239 @@ public class AnalyticsController {
     private final AnalyticsService analyticsService;
     private final AnalyticsDataRepository repository;
     private final MockEventGenerator mockEventGenerator;
+    private final MetricsQueryCache metricsCache;
+    private final TrendingPagesTracker trendingPages;
+    private final BatchIngestionService batchIngestion;
+    private final IngestionDispatcher ingestion;
+    private final SessionWindowEngine sessions;
+    private final EventRollups rollups;
+    private final FunnelTracker funnels;
+    private final EventTimeWatermarks watermarks;
+    private final PageDictionary pages;
+    private final String retryAfterSeconds;
 
-    public AnalyticsController(AnalyticsService analyticsService, AnalyticsDataRepository repository, MockEventGenerator mockEventGenerator) {
+    public AnalyticsController(AnalyticsService analyticsService, AnalyticsDataRepository repository,
+                               MockEventGenerator mockEventGenerator, MetricsQueryCache metricsCache,
+                               TrendingPagesTracker trendingPages, BatchIngestionService batchIngestion,
+                               IngestionDispatcher ingestion, SessionWindowEngine sessions,
+                               EventRollups rollups, FunnelTracker funnels, EventTimeWatermarks watermarks,
+                               PageDictionary pages,
+                               @Value("${analytics.ingest.retry-after-seconds:1}") long retryAfterSeconds) {
         this.analyticsService = analyticsService;
         this.repository = repository;
         this.mockEventGenerator = mockEventGenerator;
+        this.metricsCache = metricsCache;
+        this.trendingPages = trendingPages;
+        this.batchIngestion = batchIngestion;
+        this.ingestion = ingestion;
+        this.sessions = sessions;
+        this.rollups = rollups;
+        this.funnels = funnels;
+        this.watermarks = watermarks;
+        this.pages = pages;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
     }
 
     @PostMapping("/events")
     public ResponseEntity<?> ingest(@Valid @RequestBody UserEventInputRequest ev) {
-        long now = Instant.now().toEpochMilli();
-        if (ev.getEventTimestamp() != null && ev.getEventTimestamp().toEpochMilli() - now > 120_000) {
-            return ResponseEntity.badRequest().body(Map.of("error", "timestamp_too_future"));
+        String error = EventValidator.rejectReason(ev, Instant.now().toEpochMilli());
+        if (error != null) {
+            return ResponseEntity.badRequest().body(Map.of("error", error));
+        }
+        if (!ingestion.submit(ev)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                    .body(Map.of("error", "ingest_queue_full"));
         }
-        analyticsService.process(ev);
         return ResponseEntity.accepted().body(Map.of("status", "accepted"));
     }
 
+    // body is read as a stream so large batches are never buffered whole
+    @PostMapping(value = "/events/batch", consumes = {"application/x-ndjson", MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<BatchIngestResponse> ingestBatch(HttpServletRequest request) throws IOException {
+        BatchIngestResponse res = batchIngestion.ingest(request.getInputStream());
+        if (res.getFailedFrom() != null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                    .body(res);
+        }
+        return ResponseEntity.accepted().body(res);
+    }
+
     @GetMapping("/metrics/active-users")
     public ResponseEntity<?> activeUsers() {
-        long now = Instant.now().toEpochMilli();
-        long count = repository.countActiveUsers(now);
+        long count = metricsCache.get(Metric.ACTIVE_USERS, "",
+                () -> repository.countActiveUsers(Instant.now().toEpochMilli()));
         return ResponseEntity.ok(Map.of("activeUsersLast5m", count));
     }
 
     @GetMapping("/metrics/pageviews")
     public ResponseEntity<?> pageviews(@RequestParam("url") String url) {
-        long now = Instant.now().toEpochMilli();
-        long c = repository.countPageViews(url, now);
-        return ResponseEntity.ok(Map.of("url", url, "pageViewsLast15m", c));
+        // spellings of one page share a cache entry, as they share a counter
+        String page = pages.canonical(url);
+        long c = metricsCache.get(Metric.PAGE_VIEWS, page,
+                () -> repository.countPageViews(page, Instant.now().toEpochMilli()));
+        return ResponseEntity.ok(Map.of("url", page, "pageViewsLast15m", c));
     }
 
     @GetMapping("/metrics/active-sessions")
     public ResponseEntity<?> activeSessions(@RequestParam("userId") String userId) {
-        long c = repository.countSessionsForUser(userId);
+        long c = metricsCache.get(Metric.ACTIVE_SESSIONS, userId, () -> repository.countSessionsForUser(userId));
         return ResponseEntity.ok(Map.of("userId", userId, "activeSessionsLast5m", c));
     }
-}
 
+    @GetMapping("/metrics/top-pages")
+    public ResponseEntity<?> topPages(@RequestParam(value = "window", defaultValue = "15m") String window,
+                                      @RequestParam(value = "n", defaultValue = "20") int n) {
+        Duration w;
+        try {
+            w = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        if (n <= 0 || w.isNegative() || w.isZero() || w.compareTo(trendingPages.maxWindow()) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window_or_n"));
+        }
+        List<Map<String, Object>> pages = trendingPages.topPages(w, n).stream()
+                .map(i -> Map.<String, Object>of("url", i.key(), "views", i.count()))
+                .toList();
+        return ResponseEntity.ok(Map.of("window", window, "pages", pages));
+    }
+
+    @GetMapping("/metrics/sessions")
+    public ResponseEntity<?> sessionStats(@RequestParam(value = "window", defaultValue = "1h") String window) {
+        if (!sessions.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "session_windows_disabled"));
+        }
+        Duration w;
+        try {
+            w = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        if (w.isNegative() || w.isZero() || w.compareTo(Duration.ofHours(24)) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        long now = Instant.now().toEpochMilli();
+        SessionStatsResponse stats = repository.sessionStats(now, w);
+        stats.setWindow(window);
+        // instances republish their open count every sweep; older counts are from instances that are gone
+        stats.setActiveSessions(repository.countOpenSessions(now, sessions.staleAfterMs()));
+        return ResponseEntity.ok(stats);
+    }
+
+    // eventType and url each narrow the count; leaving one out counts all event types or all pages
+    @GetMapping("/metrics/counts")
+    public ResponseEntity<?> counts(@RequestParam(value = "eventType", required = false) String eventType,
+                                    @RequestParam(value = "url", required = false) String url,
+                                    @RequestParam(value = "window", defaultValue = "15m") String window) {
+        EventType type;
+        try {
+            type = eventType == null || eventType.isBlank() ? null : EventType.fromString(eventType);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_event_type"));
+        }
+        Duration w;
+        try {
+            w = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        if (w.isNegative() || w.isZero() || w.compareTo(repository.eventCountsMaxWindow()) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        boolean anyPage = url == null || url.isBlank();
+        long count = repository.countEvents(type, anyPage ? null : url, Instant.now().toEpochMilli(), w);
+        return ResponseEntity.ok(Map.of("eventType", type == null ? "*" : type.name(),
+                "url", anyPage ? "*" : pages.canonical(url), "window", window, "count", count));
+    }
+
+    // metric=events (optionally one eventType) or metric=pageviews&url=...; from/to are ISO-8601 instants
+    @GetMapping("/metrics/series")
+    public ResponseEntity<?> series(@RequestParam("metric") String metric,
+                                    @RequestParam(value = "url", required = false) String url,
+                                    @RequestParam(value = "eventType", required = false) String eventType,
+                                    @RequestParam("from") String from,
+                                    @RequestParam(value = "to", required = false) String to,
+                                    @RequestParam(value = "step", required = false) String step) {
+        if (!rollups.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "rollups_disabled"));
+        }
+        String field;
+        EventType type = null;
+        try {
+            if ("pageviews".equals(metric)) {
+                if (url == null || url.isBlank()) return ResponseEntity.badRequest().body(Map.of("error", "url_required"));
+                field = EventRollups.pageField(pages.id(url));
+            } else if ("events".equals(metric)) {
+                type = EventType.fromString(eventType);
+                field = type == null ? EventRollups.EVENTS_FIELD : EventRollups.eventTypeField(type);
+            } else {
+                return ResponseEntity.badRequest().body(Map.of("error", "unknown_metric"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_event_type"));
+        }
+        Instant fromTs, toTs;
+        Duration stepDuration;
+        try {
+            fromTs = Instant.parse(from);
+            toTs = to == null ? Instant.now() : Instant.parse(to);
+            stepDuration = step == null ? null : DurationStyle.detectAndParse(step);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_from_to_or_step"));
+        }
+        try {
+            TimeSeriesResponse series = rollups.series(field, fromTs.toEpochMilli(), toTs.toEpochMilli(), stepDuration);
+            series.setMetric(metric);
+            series.setUrl("pageviews".equals(metric) ? pages.canonical(url) : null);
+            series.setEventType(type == null ? null : type.name());
+            Long finalized = watermarks.finalizedThrough();
+            series.setFinalizedThrough(finalized == null ? null : Instant.ofEpochMilli(finalized));
+            return ResponseEntity.ok(series);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/metrics/funnel")
+    public ResponseEntity<?> funnel(@RequestParam(value = "name", defaultValue = "checkout") String name,
+                                    @RequestParam(value = "window", defaultValue = "24h") String window) {
+        if (!funnels.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "funnels_disabled"));
+        }
+        Duration w;
+        try {
+            w = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        // counters are hourly and kept for 8 days
+        if (w.compareTo(Duration.ofHours(1)) < 0 || w.compareTo(Duration.ofDays(7)) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "invalid_window"));
+        }
+        try {
+            FunnelResponse funnel = funnels.query(name, w);
+            funnel.setWindow(window);
+            return ResponseEntity.ok(funnel);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/metrics/watermarks")
+    public ResponseEntity<?> watermarkStatus() {
+        if (!watermarks.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "event_time_disabled"));
+        }
+        Map<Integer, Long> published = watermarks.publishedWatermarks();
+        Map<Integer, Instant> byPartition = new TreeMap<>();
+        published.forEach((p, wm) -> byPartition.put(p, Instant.ofEpochMilli(wm)));
+        Long finalized = watermarks.finalizedThrough(published);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("partitions", byPartition);
+        body.put("allowedLateness", watermarks.allowedLateness().toString());
+        body.put("finalizedThrough", finalized == null ? null : Instant.ofEpochMilli(finalized));
+        return ResponseEntity.ok(body);
+    }
+}
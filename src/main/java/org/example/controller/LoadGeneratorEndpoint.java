@@ -0,0 +1,41 @@
+package org.example.controller;
+
+import org.example.dto.LoadGeneratorStats;
+import org.example.util.MockEventGenerator;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/loadgen: GET reports rate and latency percentiles of the mock load generator,
+ * POST {"qps": n} (re)starts it and resets the histograms, DELETE stops it.
+ */
+@Component
+@Endpoint(id = "loadgen")
+public class LoadGeneratorEndpoint {
+    private final MockEventGenerator generator;
+
+    public LoadGeneratorEndpoint(MockEventGenerator generator) {
+        this.generator = generator;
+    }
+
+    @ReadOperation
+    public LoadGeneratorStats stats() {
+        return generator.stats();
+    }
+
+    @WriteOperation
+    public LoadGeneratorStats start(@Nullable Integer qps) {
+        generator.start(qps == null ? generator.targetQps() : qps);
+        return generator.stats();
+    }
+
+    @DeleteOperation
+    public LoadGeneratorStats stop() {
+        generator.stop();
+        return generator.stats();
+    }
+}
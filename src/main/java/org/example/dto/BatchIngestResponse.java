@@ -0,0 +1,33 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchIngestResponse {
+    private long accepted;
+    private long rejected;
+    // true when parsing stopped early (malformed JSON or the per-request event limit)
+    private boolean truncated;
+    // first few rejections; index is the 1-based position of the event in the body
+    private List<Rejection> errors;
+    // set when a chunk could not be written: the positions of its first and last event. Nothing
+    // from failedFrom on was written, so the client resends the body from there
+    private Long failedFrom;
+    private Long failedTo;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Rejection {
+        private long index;
+        private String error;
+    }
+}
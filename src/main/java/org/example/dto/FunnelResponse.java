@@ -0,0 +1,36 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.example.enums.EventType;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class FunnelResponse {
+    private String name;
+    private String window;
+    private List<Step> steps;
+    // users reaching the last step / users entering the funnel
+    private double overallConversion;
+    // in-progress funnel state held by this instance
+    private long trackedUsers;
+    private long stateBytesPerUser;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Step {
+        private EventType eventType;
+        // users who reached this step in the window
+        private long users;
+        private double conversionFromPrevious;
+        private double conversionFromStart;
+    }
+}
@@ -0,0 +1,39 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoadGeneratorStats {
+    private boolean running;
+    private int targetQps;
+    // events handed to the producer per second since the last start
+    private double achievedQps;
+    private long sent;
+    private long failed;
+    // how far the pacer is behind its schedule; grows when sends can't keep up with targetQps
+    private double scheduleLagMs;
+    // intended send time -> broker ack
+    private Latency produceLatency;
+    // probe send -> page view readable in Redis
+    private Latency endToEndLatency;
+    private long probesTimedOut;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Latency {
+        private long count;
+        private double p50Ms;
+        private double p90Ms;
+        private double p99Ms;
+        private double p999Ms;
+        private double maxMs;
+    }
+}
@@ -0,0 +1,24 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SessionStatsResponse {
+    private String window;
+    private long activeSessions;
+    // sessions whose last event falls in the window
+    private long closedSessions;
+    private double avgDurationSeconds;
+    private double avgEventsPerSession;
+    private double avgPagesPerSession;
+    // closed sessions per length bucket, keyed by upper bound ("<=1m" ... ">1h")
+    private Map<String, Long> lengthDistribution;
+}
@@ -0,0 +1,31 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/** A user session as tracked by the session-window engine; emitted to the sessions topic when it closes. */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SessionWindow {
+    private String sessionId;
+    private UUID userId;
+    private Instant start;
+    // timestamp of the last event; the session closed after the inactivity gap following it
+    private Instant end;
+    private long eventCount;
+    private int distinctPages;
+    // first distinct pages in visit order, capped at analytics.sessions.max-pages
+    private List<String> pages;
+
+    public long durationMs() {
+        return end.toEpochMilli() - start.toEpochMilli();
+    }
+}
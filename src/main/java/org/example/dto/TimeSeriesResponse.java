@@ -0,0 +1,37 @@
+package org.example.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.example.enums.RollupResolution;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TimeSeriesResponse {
+    private String metric;
+    private String url;
+    private String eventType;
+    // step-aligned start of the first point; to is exclusive
+    private Instant from;
+    private Instant to;
+    private long stepSeconds;
+    // rollup level the points were summed from
+    private RollupResolution resolution;
+    private List<Point> points;
+    // with event-time watermarks on, points ending at or before this no longer change
+    private Instant finalizedThrough;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Point {
+        private Instant ts;
+        private long value;
+    }
+}
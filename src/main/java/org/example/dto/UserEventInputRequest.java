@@ -1,5 +1,6 @@
 package org.example.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -14,9 +15,14 @@ import java.util.UUID;
 @AllArgsConstructor
 @NoArgsConstructor
 public class UserEventInputRequest {
+    // client- or producer-assigned, used to recognise replays; events without one are never deduplicated
+    private String eventId;
     private UUID userId;
     private EventType eventType;
     private Instant eventTimestamp;
     private String pageUrl;
     private String sessionId;
+    // user_events partition the event was consumed from; null for events that did not come through Kafka
+    @JsonIgnore
+    private Integer partition;
 }
@@ -22,7 +22,10 @@ import java.util.UUID;
 @Data
 @Builder
 public class UserEvent {
+    // keyed by event, not user, so a user's events don't overwrite each other
     @Id
+    @org.springframework.data.annotation.Id
+    private String eventId;
     private UUID userId;
     private EventType eventType;
     private Instant eventTimestamp;
@@ -0,0 +1,11 @@
+package org.example.enums;
+
+/**
+ * How active users are counted.
+ * EXACT keeps one sorted-set member per user; APPROXIMATE writes users into per-minute
+ * HyperLogLog keys (constant memory, ~0.81% standard error).
+ */
+public enum ActiveUserMode {
+    EXACT,
+    APPROXIMATE
+}
@@ -0,0 +1,12 @@
+package org.example.enums;
+
+/**
+ * How POST /events hands an accepted event on.
+ * SYNC writes to Redis on the request thread; RING enqueues into a bounded in-memory ring
+ * drained by writer threads; KAFKA publishes to the consumer topic.
+ */
+public enum IngestMode {
+    SYNC,
+    RING,
+    KAFKA
+}
@@ -0,0 +1,21 @@
+package org.example.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Bucket widths of the pre-computed rollups, finest first. Buckets are epoch-aligned, so days
+ * run midnight to midnight UTC.
+ */
+@Getter
+@AllArgsConstructor
+public enum RollupResolution {
+    MINUTE("m", Duration.ofMinutes(1)),
+    HOUR("h", Duration.ofHours(1)),
+    DAY("d", Duration.ofDays(1));
+
+    private final String keyPrefix;
+    private final Duration width;
+}
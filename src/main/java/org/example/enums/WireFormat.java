@@ -0,0 +1,10 @@
+package org.example.enums;
+
+/**
+ * Encoding of user_events record values, carried in the x-event-format header.
+ * Records without the header are JSON, so older producers keep working.
+ */
+public enum WireFormat {
+    JSON,
+    BINARY
+}
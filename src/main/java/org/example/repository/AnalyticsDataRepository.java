@@ -1,52 +1,167 @@
 package org.example.repository;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.example.cache.PageDictionary;
+import org.example.dto.SessionStatsResponse;
+import org.example.dto.SessionWindow;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.ActiveUserMode;
+import org.example.enums.EventType;
+import org.example.enums.RollupResolution;
+import org.example.util.SpaceSavingSketch;
+import org.example.util.TimeBuckets;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.security.MessageDigest;
-import java.nio.charset.StandardCharsets;
-import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Repository
 public class AnalyticsDataRepository {
     private final StringRedisTemplate redis;
     private static final long FIVE_MIN_MS = Duration.ofMinutes(5).toMillis();
-    private static final long FIFTEEN_MIN_MS = Duration.ofMinutes(15).toMillis();
+    private static final Duration ACTIVE_USER_WINDOW = Duration.ofMinutes(5);
+    private static final Duration PAGE_VIEW_WINDOW = Duration.ofMinutes(15);
+    private static final Duration COUNTS_MAX_WINDOW = Duration.ofHours(1);
+    private final SlidingWindowCounter pageViews;
+    // event type x page counts per page-view bucket, queried over windows of up to an hour
+    private final DimensionalCounter eventCounts;
+    private final ActiveUserMode activeUserMode;
+    private final TimeBuckets activeUserBuckets = new TimeBuckets(Duration.ofMinutes(1));
+    // when the session-window engine owns sessions:<user>, event writes leave it alone
+    private final boolean sessionWindows;
+    private final PageDictionary pages;
+    private final MeterRegistry registry;
+    private final Map<String, Timer> opTimers = new ConcurrentHashMap<>();
 
-    public AnalyticsDataRepository(StringRedisTemplate redis) { this.redis = redis; }
+    public AnalyticsDataRepository(StringRedisTemplate redis) { this(redis, 60, ActiveUserMode.EXACT); }
+
+    public AnalyticsDataRepository(StringRedisTemplate redis, long pageViewBucketSeconds, ActiveUserMode activeUserMode) {
+        this(redis, new PageDictionary(), new CompositeMeterRegistry(), pageViewBucketSeconds, activeUserMode, false);
+    }
+
+    public AnalyticsDataRepository(StringRedisTemplate redis, long pageViewBucketSeconds, ActiveUserMode activeUserMode,
+                                   boolean sessionWindows) {
+        this(redis, new PageDictionary(), new CompositeMeterRegistry(), pageViewBucketSeconds, activeUserMode, sessionWindows);
+    }
+
+    @Autowired
+    public AnalyticsDataRepository(StringRedisTemplate redis, PageDictionary pages, MeterRegistry registry,
+                                   @Value("${analytics.page-views.bucket-seconds:60}") long pageViewBucketSeconds,
+                                   @Value("${analytics.active-users.mode:EXACT}") ActiveUserMode activeUserMode,
+                                   @Value("${analytics.sessions.enabled:false}") boolean sessionWindows) {
+        this.redis = redis;
+        this.pages = pages;
+        this.registry = registry;
+        this.pageViews = new SlidingWindowCounter(Duration.ofSeconds(pageViewBucketSeconds), PAGE_VIEW_WINDOW);
+        this.eventCounts = new DimensionalCounter(Duration.ofSeconds(pageViewBucketSeconds), COUNTS_MAX_WINDOW);
+        this.activeUserMode = activeUserMode;
+        this.sessionWindows = sessionWindows;
+    }
+
+    // analytics.redis.op{op}: wall time of one repository call, i.e. one command or one pipelined round trip
+    private <T> T timed(String op, Supplier<T> call) {
+        Timer timer = opTimers.computeIfAbsent(op, k -> Timer.builder("analytics.redis.op").tag("op", k)
+                .description("Latency of one AnalyticsDataRepository Redis operation").register(registry));
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private List<Object> pipelined(String op, RedisCallback<Object> callback) {
+        return timed(op, () -> redis.executePipelined(callback));
+    }
 
     private final String ACTIVE_USERS_KEY = "active_users";
+    private static final String ACTIVE_USERS_HLL_PREFIX = "au:";
 
     public void markActiveUser(UUID userId, Instant timestampMs) {
         if (userId == null || timestampMs == null) {
             throw new IllegalArgumentException("userId and timestampMs must not be null");
         }
-        redis.opsForZSet().add(ACTIVE_USERS_KEY, userId.toString(), timestampMs.toEpochMilli());
-        long max = timestampMs.getEpochSecond() - FIVE_MIN_MS - 1000;
-        if (max > 0) redis.opsForZSet().removeRangeByScore(ACTIVE_USERS_KEY, 0, max);
+        pipelined("markActiveUser", connection -> {
+            writeActiveUser((StringRedisConnection) connection, userId, timestampMs);
+            return null;
+        });
     }
 
+    /**
+     * Distinct users seen in the 5 minutes ending at nowMs. In APPROXIMATE mode this is one
+     * PFCOUNT over the last five per-minute HyperLogLog keys: standard error ~0.81%, and the
+     * window is minute-aligned (between 4 and 5 minutes of history).
+     */
     public long countActiveUsers(long nowMs) {
         if (nowMs < 0) return 0;
+        if (activeUserMode == ActiveUserMode.APPROXIMATE) {
+            long[] starts = activeUserBuckets.windowStarts(nowMs, ACTIVE_USER_WINDOW);
+            String[] keys = new String[starts.length];
+            for (int i = 0; i < starts.length; i++) keys[i] = activeUserKey(starts[i]);
+            Long c = timed("countActiveUsers", () -> redis.opsForHyperLogLog().size(keys));
+            return c == null ? 0 : c;
+        }
         long minScore = nowMs - FIVE_MIN_MS;
-        Long c = redis.opsForZSet().count(ACTIVE_USERS_KEY, minScore, Double.POSITIVE_INFINITY);
+        Long c = timed("countActiveUsers", () -> redis.opsForZSet().count(ACTIVE_USERS_KEY, minScore, Double.POSITIVE_INFINITY));
         return c == null ? 0 : c;
     }
 
+    private String activeUserKey(long bucketStartMs) {
+        return ACTIVE_USERS_HLL_PREFIX + (bucketStartMs / 1000);
+    }
+
+    private void writeActiveUser(StringRedisConnection conn, UUID userId, Instant timestampMs) {
+        addActiveUser(conn, userId, timestampMs.toEpochMilli());
+        trimActiveUsers(conn, timestampMs.toEpochMilli());
+    }
+
+    private void addActiveUser(StringRedisConnection conn, UUID userId, long tsMs) {
+        if (activeUserMode == ActiveUserMode.APPROXIMATE) {
+            long start = activeUserBuckets.bucketStart(tsMs);
+            String key = activeUserKey(start);
+            conn.pfAdd(key, userId.toString());
+            long expireAtMs = start + (long) activeUserBuckets.bucketCount(ACTIVE_USER_WINDOW) * activeUserBuckets.bucketMs();
+            conn.expireAt(key, expireAtMs / 1000);
+            return;
+        }
+        conn.zAdd(ACTIVE_USERS_KEY, tsMs, userId.toString());
+    }
+
+    private void trimActiveUsers(StringRedisConnection conn, long tsMs) {
+        if (activeUserMode == ActiveUserMode.APPROXIMATE) return;
+        // trim relative to the older of event time and wall clock, so future-dated events never trim live members
+        long max = Math.min(tsMs, System.currentTimeMillis()) - FIVE_MIN_MS;
+        if (max > 0) conn.zRemRangeByScore(ACTIVE_USERS_KEY, 0, max);
+    }
+
+    // pv:{page id}; raw and canonical spellings of a page share one id
     private String pageKey(String url) {
         if (url == null || url.isEmpty()) {
             return "pv:invalid";
         }
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] h = md.digest(url.getBytes(StandardCharsets.UTF_8));
-            return "pv:" + HexFormat.of().formatHex(h).substring(0, 20);
-        } catch (Exception e) {
-            return "pv:" + Math.abs(url.hashCode());
-        }
+        return "pv:" + pages.id(url);
     }
 
     public void addPageView(String url, Instant timestampMs) {
@@ -54,16 +169,51 @@ public class AnalyticsDataRepository {
             throw new IllegalArgumentException("url and timestampMs must not be null or empty");
         }
         String key = pageKey(url);
-        redis.opsForZSet().add(key, UUID.randomUUID().toString(), timestampMs.getEpochSecond());
-        redis.expire(key, Duration.ofMinutes(20));
+        pipelined("addPageView", connection -> {
+            pageViews.increment((StringRedisConnection) connection, key, timestampMs.toEpochMilli(), 1);
+            return null;
+        });
     }
 
+    /**
+     * Page views in the 15 minutes ending at nowMs, summed over the per-bucket counters.
+     * The window is bucket-aligned (see {@link org.example.util.TimeBuckets}).
+     */
     public long countPageViews(String url, long nowMs) {
         if (url == null || url.isEmpty() || nowMs < 0) return 0;
         String key = pageKey(url);
-        long min = nowMs - FIFTEEN_MIN_MS;
-        Long c = redis.opsForZSet().count(key, min, Double.POSITIVE_INFINITY);
-        return c == null ? 0 : c;
+        return timed("countPageViews", () -> pageViews.sum(redis, key, nowMs));
+    }
+
+    /** Page views recorded in the bucket holding epochMs alone; used to detect when a write became visible. */
+    public long countPageViewsInBucket(String url, long epochMs) {
+        if (url == null || url.isEmpty() || epochMs < 0) return 0;
+        String key = pageKey(url);
+        return timed("countPageViewsInBucket", () -> pageViews.get(redis, key, epochMs));
+    }
+
+    /** Longest window {@link #countEvents} can answer; older buckets have expired. */
+    public Duration eventCountsMaxWindow() {
+        return eventCounts.maxWindow();
+    }
+
+    /**
+     * Events of one type on one page in the bucket-aligned window ending at nowMs; a null type or
+     * url counts all of them. Reads one hash field per bucket with pipelined HGETs, one round trip.
+     */
+    public long countEvents(EventType eventType, String url, long nowMs, Duration window) {
+        String field = DimensionalCounter.field(eventType, url == null || url.isEmpty() ? null : pages.id(url));
+        long[] starts = eventCounts.buckets().windowStarts(nowMs, window);
+        List<Object> values = pipelined("countEvents", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long start : starts) conn.hGet(DimensionalCounter.bucketKey(start), field);
+            return null;
+        });
+        long total = 0;
+        for (Object v : values) {
+            if (v != null) total += Long.parseLong(v.toString());
+        }
+        return total;
     }
 
     public void addSessionForUser(String userId, String sessionId) {
@@ -71,14 +221,548 @@ public class AnalyticsDataRepository {
             throw new IllegalArgumentException("userId and sessionId must not be null or empty");
         }
         String key = "sessions:" + userId;
-        redis.opsForSet().add(key, sessionId);
-        redis.expire(key, Duration.ofMinutes(5));
+        timed("addSessionForUser", () -> {
+            redis.opsForSet().add(key, sessionId);
+            return redis.expire(key, Duration.ofMinutes(5));
+        });
+    }
+
+    /**
+     * Applies all of an event's mutations (active user, page view, session, event counts) in one
+     * pipelined round trip. Equivalent to calling markActiveUser, addPageView and addSessionForUser
+     * in turn; an event without a type is counted under every type only.
+     */
+    public void recordEvent(UUID userId, EventType eventType, String url, String sessionId, Instant timestampMs) {
+        requireWritable(userId, url, sessionId, timestampMs);
+        pipelined("recordEvent", connection -> {
+            writeEvent((StringRedisConnection) connection, userId, eventType, url, sessionId, timestampMs);
+            return null;
+        });
+    }
+
+    public void recordEvent(UUID userId, String url, String sessionId, Instant timestampMs) {
+        recordEvent(userId, null, url, sessionId, timestampMs);
+    }
+
+    /**
+     * Applies a whole batch of events in one pipelined round trip. Events must already carry
+     * their timestamp and session id; nothing is written if any of them is incomplete.
+     */
+    public void recordEvents(Collection<UserEventInputRequest> events) {
+        if (events == null || events.isEmpty()) return;
+        for (UserEventInputRequest ev : events) {
+            requireWritable(ev.getUserId(), ev.getPageUrl(), ev.getSessionId(), ev.getEventTimestamp());
+        }
+        pipelined("recordEvents", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (UserEventInputRequest ev : events) {
+                writeEvent(conn, ev.getUserId(), ev.getEventType(), ev.getPageUrl(), ev.getSessionId(), ev.getEventTimestamp());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Applies pre-aggregated deltas in one pipelined round trip: events per url, bucket start and
+     * type (indexed by {@link DimensionalCounter#slot(EventType)}), which feed both the page-view
+     * and the event-count buckets, the latest timestamp per active user, and the session ids seen
+     * per user.
+     */
+    public void applyDeltas(Map<String, Map<Long, long[]>> eventsByUrl, Map<UUID, Long> lastSeenMs,
+                            Map<String, Set<String>> sessionsByUser) {
+        if (eventsByUrl.isEmpty() && lastSeenMs.isEmpty() && sessionsByUser.isEmpty()) return;
+        pipelined("applyDeltas", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            Map<Long, Map<String, Long>> countsByBucket = new HashMap<>();
+            eventsByUrl.forEach((url, buckets) -> {
+                String key = pageKey(url);
+                String pageId = pages.id(url);
+                buckets.forEach((bucketStartMs, bySlot) -> {
+                    long total = DimensionalCounter.rollUp(
+                            countsByBucket.computeIfAbsent(bucketStartMs, b -> new HashMap<>()), pageId, bySlot);
+                    pageViews.increment(conn, key, bucketStartMs, total);
+                });
+            });
+            countsByBucket.forEach((bucketStartMs, fields) -> eventCounts.incrementAll(conn, bucketStartMs, fields));
+            long newest = 0;
+            for (Map.Entry<UUID, Long> e : lastSeenMs.entrySet()) {
+                addActiveUser(conn, e.getKey(), e.getValue());
+                newest = Math.max(newest, e.getValue());
+            }
+            if (newest > 0) trimActiveUsers(conn, newest);
+            if (!sessionWindows) sessionsByUser.forEach((userId, sessionIds) -> {
+                String key = "sessions:" + userId;
+                conn.sAdd(key, sessionIds.toArray(new String[0]));
+                conn.expire(key, Duration.ofMinutes(5).toSeconds());
+            });
+            return null;
+        });
+    }
+
+    private static final String TRENDING_PREFIX = "topk:";
+    private final TimeBuckets trendingBuckets = new TimeBuckets(Duration.ofMinutes(1));
+
+    public TimeBuckets trendingBuckets() {
+        return trendingBuckets;
+    }
+
+    /**
+     * Merges per-instance heavy-hitter counts into the shared per-minute sorted sets
+     * (topk:{minuteEpochSeconds}), trimming each to its {@code keep} highest members and
+     * expiring it once it is older than {@code retention}.
+     */
+    public void addTrendingCounts(Map<Long, List<SpaceSavingSketch.Item>> itemsByBucket, int keep, Duration retention) {
+        if (itemsByBucket.isEmpty()) return;
+        pipelined("addTrendingCounts", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            itemsByBucket.forEach((bucketStartMs, items) -> {
+                String key = TRENDING_PREFIX + (bucketStartMs / 1000);
+                for (SpaceSavingSketch.Item item : items) {
+                    conn.zIncrBy(key, item.count(), item.key());
+                }
+                conn.zRemRange(key, 0, -(keep + 1));
+                conn.expireAt(key, (bucketStartMs + trendingBuckets.bucketMs() + retention.toMillis()) / 1000);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * The n most viewed pages over the window ending at nowMs: one ZUNION over the window's
+     * per-minute sets, each bounded by the sketch capacity, so cost does not depend on the
+     * number of distinct pages.
+     */
+    public List<SpaceSavingSketch.Item> topPages(long nowMs, Duration window, int n) {
+        long[] starts = trendingBuckets.windowStarts(nowMs, window);
+        List<String> keys = new ArrayList<>(starts.length);
+        for (long start : starts) keys.add(TRENDING_PREFIX + (start / 1000));
+        Set<ZSetOperations.TypedTuple<String>> union =
+                timed("topPages", () -> redis.opsForZSet().unionWithScores(keys.get(0), keys.subList(1, keys.size())));
+        if (union == null) return List.of();
+        return union.stream()
+                .filter(t -> t.getValue() != null && t.getScore() != null)
+                .sorted(Comparator.comparingDouble((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed())
+                .limit(n)
+                .map(t -> new SpaceSavingSketch.Item(t.getValue(), t.getScore().longValue(), 0))
+                .toList();
+    }
+
+    public TimeBuckets pageViewBuckets() {
+        return pageViews.buckets();
+    }
+
+    private void requireWritable(UUID userId, String url, String sessionId, Instant timestampMs) {
+        if (userId == null || timestampMs == null || url == null || url.isEmpty()
+                || sessionId == null || sessionId.isEmpty()) {
+            throw new IllegalArgumentException("userId, url, sessionId and timestampMs must not be null or empty");
+        }
+    }
+
+    private void writeEvent(StringRedisConnection conn, UUID userId, EventType eventType, String url, String sessionId,
+                            Instant timestampMs) {
+        writeActiveUser(conn, userId, timestampMs);
+        pageViews.increment(conn, pageKey(url), timestampMs.toEpochMilli(), 1);
+        eventCounts.increment(conn, eventType, pages.id(url), timestampMs.toEpochMilli(), 1);
+        if (sessionWindows) return;
+
+        String sessionKey = "sessions:" + userId;
+        conn.sAdd(sessionKey, sessionId);
+        conn.expire(sessionKey, Duration.ofMinutes(5).toSeconds());
+    }
+
+    private static final String OPEN_SESSIONS_KEY = "sessions:open";
+    private static final String OPEN_SESSIONS_SEEN_KEY = "sessions:open:seen";
+    private static final String SESSION_STATS_PREFIX = "sess:";
+    private final TimeBuckets sessionStatsBuckets = new TimeBuckets(Duration.ofMinutes(1));
+    // session length histogram bounds, seconds; the last bucket is open-ended
+    private static final long[] SESSION_LENGTH_BOUNDS = {60, 300, 900, 1800, 3600};
+    private static final String[] SESSION_LENGTH_LABELS = {"<=1m", "<=5m", "<=15m", "<=30m", "<=1h", ">1h"};
+
+    /**
+     * Applies the session-window engine's transitions in one pipelined round trip: opened
+     * sessions join sessions:{user}, long-running ones get their key TTL extended, and closed ones
+     * leave the set and are added to the per-minute stats hash (sess:{minuteEpochSeconds}) of
+     * their last event.
+     */
+    public void applySessionTransitions(Collection<SessionWindow> opened, Collection<UUID> refreshed,
+                                        Collection<SessionWindow> closed, Duration keyTtl, Duration statsRetention) {
+        if (opened.isEmpty() && refreshed.isEmpty() && closed.isEmpty()) return;
+        pipelined("applySessionTransitions", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SessionWindow s : opened) {
+                String key = "sessions:" + s.getUserId();
+                conn.sAdd(key, s.getSessionId());
+                conn.expire(key, keyTtl.toSeconds());
+            }
+            for (UUID userId : refreshed) {
+                conn.expire("sessions:" + userId, keyTtl.toSeconds());
+            }
+            for (SessionWindow s : closed) {
+                conn.sRem("sessions:" + s.getUserId(), s.getSessionId());
+                long bucket = sessionStatsBuckets.bucketStart(s.getEnd().toEpochMilli());
+                String key = SESSION_STATS_PREFIX + (bucket / 1000);
+                conn.hIncrBy(key, "n", 1);
+                conn.hIncrBy(key, "dur_ms", s.durationMs());
+                conn.hIncrBy(key, "events", s.getEventCount());
+                conn.hIncrBy(key, "pages", s.getDistinctPages());
+                conn.hIncrBy(key, "len" + sessionLengthBucket(s.durationMs()), 1);
+                conn.expireAt(key, (bucket + sessionStatsBuckets.bucketMs() + statsRetention.toMillis()) / 1000);
+            }
+            return null;
+        });
+    }
+
+    private static int sessionLengthBucket(long durationMs) {
+        long seconds = durationMs / 1000;
+        int i = 0;
+        while (i < SESSION_LENGTH_BOUNDS.length && seconds > SESSION_LENGTH_BOUNDS[i]) i++;
+        return i;
+    }
+
+    /** Publishes this instance's open-session count; counts not refreshed within staleMs are ignored by readers. */
+    public void publishOpenSessions(String instanceId, long count, long nowMs) {
+        pipelined("publishOpenSessions", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hSet(OPEN_SESSIONS_KEY, instanceId, Long.toString(count));
+            conn.hSet(OPEN_SESSIONS_SEEN_KEY, instanceId, Long.toString(nowMs));
+            return null;
+        });
+    }
+
+    /** Open sessions summed over instances that published within staleMs of nowMs. */
+    public long countOpenSessions(long nowMs, long staleMs) {
+        Map<Object, Object> counts = timed("countOpenSessions", () -> redis.opsForHash().entries(OPEN_SESSIONS_KEY));
+        Map<Object, Object> seen = timed("countOpenSessions", () -> redis.opsForHash().entries(OPEN_SESSIONS_SEEN_KEY));
+        long total = 0;
+        for (Map.Entry<Object, Object> e : counts.entrySet()) {
+            Object at = seen.get(e.getKey());
+            if (at != null && nowMs - Long.parseLong(at.toString()) <= staleMs) total += Long.parseLong(e.getValue().toString());
+        }
+        return total;
+    }
+
+    /**
+     * Stats of sessions whose last event falls in the minute-aligned window ending at nowMs,
+     * read with one pipelined HGETALL per minute.
+     */
+    public SessionStatsResponse sessionStats(long nowMs, Duration window) {
+        long[] starts = sessionStatsBuckets.windowStarts(nowMs, window);
+        List<Object> hashes = pipelined("sessionStats", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long start : starts) conn.hGetAll(SESSION_STATS_PREFIX + (start / 1000));
+            return null;
+        });
+        long n = 0, durMs = 0, events = 0, pages = 0;
+        long[] lengths = new long[SESSION_LENGTH_LABELS.length];
+        for (Object o : hashes) {
+            if (!(o instanceof Map<?, ?> h) || h.isEmpty()) continue;
+            n += field(h, "n");
+            durMs += field(h, "dur_ms");
+            events += field(h, "events");
+            pages += field(h, "pages");
+            for (int i = 0; i < lengths.length; i++) lengths[i] += field(h, "len" + i);
+        }
+        Map<String, Long> distribution = new LinkedHashMap<>();
+        for (int i = 0; i < lengths.length; i++) distribution.put(SESSION_LENGTH_LABELS[i], lengths[i]);
+        return SessionStatsResponse.builder()
+                .closedSessions(n)
+                .avgDurationSeconds(n == 0 ? 0 : durMs / 1000.0 / n)
+                .avgEventsPerSession(n == 0 ? 0 : (double) events / n)
+                .avgPagesPerSession(n == 0 ? 0 : (double) pages / n)
+                .lengthDistribution(distribution)
+                .build();
+    }
+
+    private static long field(Map<?, ?> hash, String name) {
+        Object v = hash.get(name);
+        return v == null ? 0 : Long.parseLong(v.toString());
     }
 
     public long countSessionsForUser(String userId) {
         if (userId == null || userId.isEmpty()) return 0;
         String key = "sessions:" + userId;
-        Long c = redis.opsForSet().size(key);
+        Long c = timed("countSessionsForUser", () -> redis.opsForSet().size(key));
         return c == null ? 0 : c;
     }
+
+    // wm:user_events: partition -> event-time watermark (epoch ms); a field is only ever raised
+    private static final String WATERMARKS_KEY = "wm:user_events";
+    private static final String RAISE_WATERMARK_SCRIPT = """
+            local cur = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '-1')
+            if tonumber(ARGV[2]) > cur then
+              redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+              return 1
+            end
+            return 0
+            """;
+
+    /** Raises each partition's published watermark to the given value, never lowering it, in one round trip. */
+    public void publishWatermarks(Map<Integer, Long> watermarkByPartition) {
+        if (watermarkByPartition.isEmpty()) return;
+        pipelined("publishWatermarks", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            watermarkByPartition.forEach((partition, watermarkMs) -> conn.eval(RAISE_WATERMARK_SCRIPT,
+                    ReturnType.INTEGER, 1, WATERMARKS_KEY, partition.toString(), watermarkMs.toString()));
+            return null;
+        });
+    }
+
+    /** Published watermark of every partition that has reported one. */
+    public Map<Integer, Long> watermarks() {
+        Map<Object, Object> raw = timed("watermarks", () -> redis.opsForHash().entries(WATERMARKS_KEY));
+        Map<Integer, Long> watermarks = new HashMap<>(raw.size());
+        raw.forEach((p, wm) -> watermarks.put(Integer.parseInt(p.toString()), Long.parseLong(wm.toString())));
+        return watermarks;
+    }
+
+    // dd:{generationStartSeconds}: one bitmap per dedup Bloom filter generation
+    private static final String DEDUP_PREFIX = "dd:";
+    // KEYS = live generations; ARGV = bit positions. 1 when every position is set in one of them.
+    private static final String BLOOM_CONTAINS_SCRIPT = """
+            for i = 1, #KEYS do
+              local all = 1
+              for j = 1, #ARGV do
+                if redis.call('GETBIT', KEYS[i], ARGV[j]) == 0 then all = 0 break end
+              end
+              if all == 1 then return 1 end
+            end
+            return 0
+            """;
+
+    /**
+     * For each id's bit positions, whether every position is set in one of the given generations'
+     * bitmaps (generation starts in epoch ms), in one pipelined round trip.
+     */
+    public boolean[] bloomContains(List<long[]> positionsPerId, long[] generationStarts) {
+        if (positionsPerId.isEmpty()) return new boolean[0];
+        String[] keys = new String[generationStarts.length];
+        for (int i = 0; i < keys.length; i++) keys[i] = DEDUP_PREFIX + (generationStarts[i] / 1000);
+        List<Object> results = pipelined("bloomContains", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long[] positions : positionsPerId) {
+                String[] keysAndArgs = new String[keys.length + positions.length];
+                System.arraycopy(keys, 0, keysAndArgs, 0, keys.length);
+                for (int j = 0; j < positions.length; j++) keysAndArgs[keys.length + j] = Long.toString(positions[j]);
+                conn.eval(BLOOM_CONTAINS_SCRIPT, ReturnType.INTEGER, keys.length, keysAndArgs);
+            }
+            return null;
+        });
+        boolean[] contained = new boolean[positionsPerId.size()];
+        for (int i = 0; i < contained.length; i++) {
+            contained[i] = results.get(i) instanceof Number n && n.longValue() == 1;
+        }
+        return contained;
+    }
+
+    /** Sets every id's bit positions in the bitmap of the generation starting at generationStartMs, in one round trip. */
+    public void bloomAdd(List<long[]> positionsPerId, long generationStartMs, long expireAtMs) {
+        if (positionsPerId.isEmpty()) return;
+        String key = DEDUP_PREFIX + (generationStartMs / 1000);
+        pipelined("bloomAdd", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long[] positions : positionsPerId) {
+                for (long p : positions) conn.setBit(key, p, true);
+            }
+            conn.expireAt(key, Math.ceilDiv(expireAtMs, 1000L));
+            return null;
+        });
+    }
+
+    private static final String FUNNEL_PREFIX = "fn:";
+    private final TimeBuckets funnelBuckets = new TimeBuckets(Duration.ofHours(1));
+
+    public TimeBuckets funnelBuckets() {
+        return funnelBuckets;
+    }
+
+    /**
+     * Adds per-step funnel counts (funnel -> hour start -> users reaching each step) to the
+     * hourly hashes fn:{funnel}:{hourEpochSeconds}, field = step index, in one pipelined round trip.
+     */
+    public void addFunnelCounts(Map<String, Map<Long, long[]>> countsByFunnel, Duration retention) {
+        if (countsByFunnel.isEmpty()) return;
+        pipelined("addFunnelCounts", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            countsByFunnel.forEach((funnel, hours) -> hours.forEach((hourStartMs, steps) -> {
+                String key = FUNNEL_PREFIX + funnel + ":" + (hourStartMs / 1000);
+                for (int i = 0; i < steps.length; i++) {
+                    if (steps[i] != 0) conn.hIncrBy(key, Integer.toString(i), steps[i]);
+                }
+                conn.expireAt(key, (hourStartMs + funnelBuckets.bucketMs() + retention.toMillis()) / 1000);
+            }));
+            return null;
+        });
+    }
+
+    /** Users reaching each of a funnel's steps in the hour-aligned window ending at nowMs. */
+    public long[] funnelCounts(String funnel, int steps, long nowMs, Duration window) {
+        long[] starts = funnelBuckets.windowStarts(nowMs, window);
+        String[] fields = new String[steps];
+        for (int i = 0; i < steps; i++) fields[i] = Integer.toString(i);
+        List<Object> hours = pipelined("funnelCounts", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long start : starts) conn.hMGet(FUNNEL_PREFIX + funnel + ":" + (start / 1000), fields);
+            return null;
+        });
+        long[] totals = new long[steps];
+        for (Object o : hours) {
+            if (!(o instanceof List<?> values)) continue;
+            for (int i = 0; i < steps && i < values.size(); i++) {
+                if (values.get(i) != null) totals[i] += Long.parseLong(values.get(i).toString());
+            }
+        }
+        return totals;
+    }
+
+    // rollup hashes: ru:{m|h|d}:{bucketEpochSeconds}, one counter field per metric; "_c" marks a folded minute
+    private static final String ROLLUP_CURSOR_KEY = "ru:compacted";
+
+    // KEYS = minute, hour, day; ARGV[1..3] = their expire-at (epoch s), then field/delta pairs.
+    // Deltas for a minute that has already been folded go into its hour and day as well.
+    private static final String ROLLUP_ADD_SCRIPT = """
+            local folded = redis.call('HEXISTS', KEYS[1], '_c') == 1
+            for i = 4, #ARGV, 2 do
+              redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+              if folded then
+                redis.call('HINCRBY', KEYS[2], ARGV[i], ARGV[i + 1])
+                redis.call('HINCRBY', KEYS[3], ARGV[i], ARGV[i + 1])
+              end
+            end
+            redis.call('EXPIREAT', KEYS[1], ARGV[1])
+            if folded then
+              redis.call('EXPIREAT', KEYS[2], ARGV[2])
+              redis.call('EXPIREAT', KEYS[3], ARGV[3])
+            end
+            return 0
+            """;
+
+    // KEYS = minute, hour, day; ARGV = their expire-at. Folds the minute into its hour and day once:
+    // the _c marker is set in the same script, so instances can compact the same minute concurrently.
+    private static final String ROLLUP_COMPACT_SCRIPT = """
+            if redis.call('HSETNX', KEYS[1], '_c', '1') == 0 then return 0 end
+            redis.call('EXPIREAT', KEYS[1], ARGV[1])
+            local kv = redis.call('HGETALL', KEYS[1])
+            if #kv <= 2 then return 0 end
+            for i = 1, #kv, 2 do
+              if kv[i] ~= '_c' then
+                redis.call('HINCRBY', KEYS[2], kv[i], kv[i + 1])
+                redis.call('HINCRBY', KEYS[3], kv[i], kv[i + 1])
+              end
+            end
+            redis.call('EXPIREAT', KEYS[2], ARGV[2])
+            redis.call('EXPIREAT', KEYS[3], ARGV[3])
+            return 1
+            """;
+
+    // KEYS = ARGV[2] buckets read as-is, then minutes read only if not yet folded; ARGV[1] = field.
+    // One script so a concurrent compaction can't make a minute count twice or not at all.
+    private static final String ROLLUP_READ_SCRIPT = """
+            local out = {}
+            local n = tonumber(ARGV[2])
+            for i = 1, #KEYS do
+              if i <= n then
+                out[i] = tonumber(redis.call('HGET', KEYS[i], ARGV[1]) or '0')
+              else
+                local v = redis.call('HMGET', KEYS[i], ARGV[1], '_c')
+                out[i] = v[2] and 0 or tonumber(v[1] or '0')
+              end
+            end
+            return out
+            """;
+
+    @SuppressWarnings("rawtypes")
+    private final DefaultRedisScript<List> rollupRead = new DefaultRedisScript<>(ROLLUP_READ_SCRIPT, List.class);
+
+    private static String rollupKey(RollupResolution res, long bucketStartMs) {
+        return "ru:" + res.getKeyPrefix() + ":" + (bucketStartMs / 1000);
+    }
+
+    // minute, hour and day keys of the minute starting at minuteStartMs, followed by their expire-at
+    private static String[] rollupKeys(long minuteStartMs, Map<RollupResolution, Duration> retention, int extraArgs) {
+        String[] keysAndArgs = new String[6 + extraArgs];
+        RollupResolution[] levels = RollupResolution.values();
+        for (int i = 0; i < levels.length; i++) {
+            long width = levels[i].getWidth().toMillis();
+            long start = Math.floorDiv(minuteStartMs, width) * width;
+            keysAndArgs[i] = rollupKey(levels[i], start);
+            keysAndArgs[3 + i] = Long.toString((start + width + retention.get(levels[i]).toMillis()) / 1000);
+        }
+        return keysAndArgs;
+    }
+
+    /**
+     * Adds per-minute counter deltas (minute start -> field -> delta) to the minute rollups in
+     * one pipelined round trip. Minutes that were already compacted also get the delta in their
+     * hour and day, so late events are never lost from the coarser levels.
+     */
+    public void addRollupDeltas(Map<Long, Map<String, Long>> deltasByMinute, Map<RollupResolution, Duration> retention) {
+        if (deltasByMinute.isEmpty()) return;
+        pipelined("addRollupDeltas", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            deltasByMinute.forEach((minuteStartMs, fields) -> {
+                String[] keysAndArgs = rollupKeys(minuteStartMs, retention, fields.size() * 2);
+                int i = 6;
+                for (Map.Entry<String, Long> f : fields.entrySet()) {
+                    keysAndArgs[i++] = f.getKey();
+                    keysAndArgs[i++] = Long.toString(f.getValue());
+                }
+                conn.eval(ROLLUP_ADD_SCRIPT, ReturnType.INTEGER, 3, keysAndArgs);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Folds the minute rollups in [fromMs, toMs) into their hours and days in one pipelined round
+     * trip and returns how many non-empty minutes this call folded. Minutes folded before
+     * (by any instance) are skipped.
+     */
+    public int compactRollups(long fromMs, long toMs, Map<RollupResolution, Duration> retention) {
+        long minuteMs = RollupResolution.MINUTE.getWidth().toMillis();
+        if (toMs <= fromMs) return 0;
+        List<Object> results = pipelined("compactRollups", connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long m = fromMs; m < toMs; m += minuteMs) {
+                conn.eval(ROLLUP_COMPACT_SCRIPT, ReturnType.INTEGER, 3, rollupKeys(m, retention, 0));
+            }
+            return null;
+        });
+        int folded = 0;
+        for (Object r : results) {
+            if (r instanceof Number n) folded += n.intValue();
+        }
+        return folded;
+    }
+
+    /** Every minute before the returned epoch millis has been compacted; null before the first compaction. */
+    public Long rollupsCompactedThrough() {
+        String v = timed("rollupsCompactedThrough", () -> redis.opsForValue().get(ROLLUP_CURSOR_KEY));
+        return v == null ? null : Long.parseLong(v);
+    }
+
+    public void setRollupsCompactedThrough(long epochMs) {
+        timed("setRollupsCompactedThrough", () -> {
+            redis.opsForValue().set(ROLLUP_CURSOR_KEY, Long.toString(epochMs));
+            return null;
+        });
+    }
+
+    /**
+     * One rollup field for each bucket in bucketStarts at resolution res, followed by the same
+     * field for each minute in unfoldedMinutes, counted only if that minute has not been folded
+     * into the coarser buckets yet. Read atomically by one script.
+     */
+    public long[] readRollups(String field, RollupResolution res, long[] bucketStarts, long[] unfoldedMinutes) {
+        List<String> keys = new ArrayList<>(bucketStarts.length + unfoldedMinutes.length);
+        for (long start : bucketStarts) keys.add(rollupKey(res, start));
+        for (long minute : unfoldedMinutes) keys.add(rollupKey(RollupResolution.MINUTE, minute));
+        if (keys.isEmpty()) return new long[0];
+        List<?> values = timed("readRollups", () -> redis.execute(rollupRead, keys, field, Integer.toString(bucketStarts.length)));
+        long[] out = new long[keys.size()];
+        if (values == null) return out;
+        for (int i = 0; i < out.length && i < values.size(); i++) {
+            if (values.get(i) instanceof Number n) out[i] = n.longValue();
+        }
+        return out;
+    }
 }
@@ -0,0 +1,104 @@
+package org.example.repository;
+
+import org.example.enums.EventType;
+import org.example.util.TimeBuckets;
+import org.springframework.data.redis.connection.StringRedisConnection;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Event counts by event type x page x time bucket, kept as one Redis hash per bucket
+ * (dc:{bucketStartSeconds}) holding a field per combination: TYPE|pageId, TYPE|*, *|pageId and *|*.
+ * An event bumps all four with HINCRBY, so any of the four query shapes reads one field per bucket.
+ *
+ * <p>Memory: a combination costs one hash field in each live bucket, and every bucket expires once
+ * it can no longer fall inside {@code maxWindow}, so a combination never holds more than
+ * {@link TimeBuckets#bucketCount(Duration)} fields however many events it counts. A bucket holds at
+ * most (event types + 1) x (pages seen in it + 1) fields.
+ */
+public class DimensionalCounter {
+    static final String ANY = "*";
+    private static final String PREFIX = "dc:";
+    private static final EventType[] TYPES = EventType.values();
+    /** Length of a per-type count array: one slot per event type plus one for events without a type. */
+    public static final int SLOTS = TYPES.length + 1;
+
+    private final TimeBuckets buckets;
+    private final Duration maxWindow;
+
+    public DimensionalCounter(Duration bucket, Duration maxWindow) {
+        this.buckets = new TimeBuckets(bucket);
+        this.maxWindow = maxWindow;
+    }
+
+    public TimeBuckets buckets() {
+        return buckets;
+    }
+
+    public Duration maxWindow() {
+        return maxWindow;
+    }
+
+    static String bucketKey(long bucketStartMs) {
+        return PREFIX + (bucketStartMs / 1000);
+    }
+
+    /** Field for a type and page id; null stands for all of them. */
+    static String field(EventType type, String pageId) {
+        return (type == null ? ANY : type.name()) + "|" + (pageId == null ? ANY : pageId);
+    }
+
+    /** Slot of a per-type count array that counts the given type. */
+    public static int slot(EventType type) {
+        return type == null ? TYPES.length : type.ordinal();
+    }
+
+    /**
+     * Folds a page's per-type counts (indexed by {@link #slot(EventType)}) into the bucket's field
+     * deltas and returns the page's total.
+     */
+    public static long rollUp(Map<String, Long> deltasByField, String pageId, long[] countsBySlot) {
+        long total = 0;
+        for (int i = 0; i < countsBySlot.length; i++) {
+            long c = countsBySlot[i];
+            if (c == 0) continue;
+            total += c;
+            if (i < TYPES.length) {
+                deltasByField.merge(field(TYPES[i], pageId), c, Long::sum);
+                deltasByField.merge(field(TYPES[i], null), c, Long::sum);
+            }
+        }
+        if (total != 0) {
+            deltasByField.merge(field(null, pageId), total, Long::sum);
+            deltasByField.merge(field(null, null), total, Long::sum);
+        }
+        return total;
+    }
+
+    /** Adds delta to every roll-up of (type, pageId) in the bucket holding epochMs; meant to be called inside a pipeline. */
+    public void increment(StringRedisConnection conn, EventType type, String pageId, long epochMs, long delta) {
+        long start = buckets.bucketStart(epochMs);
+        String key = bucketKey(start);
+        if (type != null) {
+            conn.hIncrBy(key, field(type, pageId), delta);
+            conn.hIncrBy(key, field(type, null), delta);
+        }
+        conn.hIncrBy(key, field(null, pageId), delta);
+        conn.hIncrBy(key, field(null, null), delta);
+        expire(conn, key, start);
+    }
+
+    /** Adds already rolled-up field deltas to the bucket starting at bucketStartMs; meant to be called inside a pipeline. */
+    public void incrementAll(StringRedisConnection conn, long bucketStartMs, Map<String, Long> deltasByField) {
+        String key = bucketKey(bucketStartMs);
+        deltasByField.forEach((field, delta) -> conn.hIncrBy(key, field, delta));
+        expire(conn, key, bucketStartMs);
+    }
+
+    private void expire(StringRedisConnection conn, String key, long start) {
+        // last window that still contains this bucket ends at start + bucketCount * bucket
+        long expireAtMs = start + (long) buckets.bucketCount(maxWindow) * buckets.bucketMs();
+        conn.expireAt(key, Math.ceilDiv(expireAtMs, 1000L));
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.repository;
+
+import org.example.util.TimeBuckets;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sliding-window counter kept as one Redis string per time bucket ({baseKey}:{bucketStartSeconds}).
+ * Each bucket expires on its own once it can no longer fall inside a window, so memory is
+ * O(buckets) per base key however many increments it receives. Reads sum at most
+ * {@link TimeBuckets#bucketCount(Duration)} buckets with one MGET.
+ */
+public class SlidingWindowCounter {
+    private final TimeBuckets buckets;
+    private final Duration window;
+
+    public SlidingWindowCounter(Duration bucket, Duration window) {
+        this.buckets = new TimeBuckets(bucket);
+        this.window = window;
+    }
+
+    public TimeBuckets buckets() {
+        return buckets;
+    }
+
+    String bucketKey(String baseKey, long bucketStartMs) {
+        return baseKey + ":" + (bucketStartMs / 1000);
+    }
+
+    /** Adds delta to the bucket holding epochMs; meant to be called inside a pipeline. */
+    public void increment(StringRedisConnection conn, String baseKey, long epochMs, long delta) {
+        long start = buckets.bucketStart(epochMs);
+        String key = bucketKey(baseKey, start);
+        conn.incrBy(key, delta);
+        // last window that still contains this bucket ends at start + bucketCount * bucket
+        long expireAtMs = start + (long) buckets.bucketCount(window) * buckets.bucketMs();
+        conn.expireAt(key, Math.ceilDiv(expireAtMs, 1000L));
+    }
+
+    List<String> windowKeys(String baseKey, long nowMs) {
+        long[] starts = buckets.windowStarts(nowMs, window);
+        List<String> keys = new ArrayList<>(starts.length);
+        for (long start : starts) keys.add(bucketKey(baseKey, start));
+        return keys;
+    }
+
+    /** Value of the single bucket holding epochMs. */
+    public long get(StringRedisTemplate redis, String baseKey, long epochMs) {
+        String v = redis.opsForValue().get(bucketKey(baseKey, buckets.bucketStart(epochMs)));
+        return v == null ? 0 : Long.parseLong(v);
+    }
+
+    public long sum(StringRedisTemplate redis, String baseKey, long nowMs) {
+        List<String> values = redis.opsForValue().multiGet(windowKeys(baseKey, nowMs));
+        if (values == null) return 0;
+        long total = 0;
+        for (String v : values) {
+            if (v != null) total += Long.parseLong(v);
+        }
+        return total;
+    }
+}
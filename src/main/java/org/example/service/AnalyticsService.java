@@ -2,6 +2,11 @@ package org.example.service;
 
 import org.example.dto.UserEventInputRequest;
 
+import java.util.List;
+
 public interface AnalyticsService {
     void process(UserEventInputRequest ev);
+
+    /** Processes a batch of events with a single Redis write. */
+    void processBatch(List<UserEventInputRequest> events);
 }
@@ -1,5 +1,6 @@
 package org.example.service.impl;
 
+import org.example.cache.PageDictionary;
 import org.example.dto.UserEventInputRequest;
 import org.example.repository.AnalyticsDataRepository;
 import org.example.service.AnalyticsService;
@@ -7,20 +8,96 @@ import org.example.util.SessionIdGenerator;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class AnalyticsServiceImpl implements AnalyticsService {
     private final AnalyticsDataRepository repository;
+    private final EventPreAggregator preAggregator;
+    private final TrendingPagesTracker trendingPages;
+    private final SessionWindowEngine sessions;
+    private final PageDictionary pages;
+    private final EventArchiver archiver;
+    private final EventRollups rollups;
+    private final FunnelTracker funnels;
+    private final EventDeduplicator dedup;
 
-    public AnalyticsServiceImpl(AnalyticsDataRepository repository) { this.repository = repository; }
+    public AnalyticsServiceImpl(AnalyticsDataRepository repository, EventPreAggregator preAggregator,
+                                TrendingPagesTracker trendingPages, SessionWindowEngine sessions, PageDictionary pages,
+                                EventArchiver archiver, EventRollups rollups, FunnelTracker funnels,
+                                EventDeduplicator dedup) {
+        this.repository = repository;
+        this.preAggregator = preAggregator;
+        this.trendingPages = trendingPages;
+        this.sessions = sessions;
+        this.pages = pages;
+        this.archiver = archiver;
+        this.rollups = rollups;
+        this.funnels = funnels;
+        this.dedup = dedup;
+    }
 
     public void process(UserEventInputRequest ev) {
-        Instant ts = ev.getEventTimestamp() == null ? Instant.now() : ev.getEventTimestamp();
-        repository.markActiveUser(ev.getUserId(), ts);
-        repository.addPageView(ev.getPageUrl(), ts);
-        String sid = ev.getSessionId();
-        if (sid == null || sid.isBlank()) sid = SessionIdGenerator.generate(ev.getUserId().toString(), ev.getPageUrl(), ts);
-        repository.addSessionForUser(ev.getUserId().toString(), sid);
+        // a redelivered event is dropped before anything counts it
+        if (dedup.isDuplicate(ev)) return;
+        UserEventInputRequest n = normalize(List.of(ev)).get(0);
+        if (preAggregator.isEnabled()) {
+            preAggregator.add(n);
+        } else {
+            repository.recordEvent(n.getUserId(), n.getEventType(), n.getPageUrl(), n.getSessionId(), n.getEventTimestamp());
+        }
+        applied(n);
+        // only enqueues; the archive is written behind the Redis path
+        archiver.offer(n);
+        // remembered once applied, so a retry after a failed write is not taken for a duplicate
+        dedup.remember(List.of(ev));
+    }
+
+    public void processBatch(List<UserEventInputRequest> events) {
+        List<UserEventInputRequest> unseen = dedup.unseen(events);
+        List<UserEventInputRequest> normalized = normalize(unseen);
+        if (preAggregator.isEnabled()) {
+            normalized.forEach(preAggregator::add);
+        } else {
+            repository.recordEvents(normalized);
+        }
+        normalized.forEach(this::applied);
+        normalized.forEach(archiver::offer);
+        dedup.remember(unseen);
     }
-}
 
+    // in-memory aggregates are only fed once the write went through, so a retried write counts once
+    private void applied(UserEventInputRequest n) {
+        long tsMs = n.getEventTimestamp().toEpochMilli();
+        trendingPages.offer(n.getPageUrl(), tsMs);
+        rollups.add(n);
+        funnels.track(n.getUserId(), n.getEventType(), tsMs);
+        if (sessions.isEnabled()) sessions.track(n.getUserId(), n.getPageUrl(), tsMs, n.getPartition());
+    }
+
+    private List<UserEventInputRequest> normalize(List<UserEventInputRequest> events) {
+        List<UserEventInputRequest> normalized = new ArrayList<>(events.size());
+        for (UserEventInputRequest ev : events) {
+            normalized.add(UserEventInputRequest.builder()
+                    .eventId(ev.getEventId())
+                    .userId(ev.getUserId())
+                    .eventType(ev.getEventType())
+                    .eventTimestamp(ev.getEventTimestamp() == null ? Instant.now() : ev.getEventTimestamp())
+                    // page views, trending and sessions all count the canonical page
+                    .pageUrl(pages.canonical(ev.getPageUrl()))
+                    .sessionId(ev.getSessionId())
+                    .partition(ev.getPartition())
+                    .build());
+        }
+        // the session engine's id is used when the client didn't send one; read without tracking
+        List<String> tracked = sessions.isEnabled() ? sessions.sessionIds(normalized) : null;
+        for (int i = 0; i < normalized.size(); i++) {
+            UserEventInputRequest n = normalized.get(i);
+            if (n.getSessionId() != null && !n.getSessionId().isBlank()) continue;
+            n.setSessionId(tracked != null ? tracked.get(i)
+                    : SessionIdGenerator.generate(n.getUserId().toString(), n.getEventTimestamp(), sessions.inactivityGap()));
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.BatchIngestResponse;
+import org.example.dto.UserEventInputRequest;
+import org.example.service.AnalyticsService;
+import org.example.util.EventValidator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams a batch body (NDJSON or a JSON array of events) through Jackson's incremental parser.
+ * Only one event and one chunk of validated events are held at a time; each chunk is written
+ * with a single pipelined Redis call via {@link AnalyticsService#processBatch}. A chunk whose
+ * write fails stops the batch: earlier chunks stay written and the response names the failed
+ * range, so the client resends from {@code failedFrom} instead of the whole body.
+ */
+@Slf4j
+@Service
+public class BatchIngestionService {
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final AnalyticsService analyticsService;
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+    private final long maxEvents;
+
+    public BatchIngestionService(AnalyticsService analyticsService, ObjectMapper mapper,
+                                 @Value("${analytics.ingest.batch-chunk-size:500}") int chunkSize,
+                                 @Value("${analytics.ingest.batch-max-events:100000}") long maxEvents) {
+        this.analyticsService = analyticsService;
+        this.mapper = mapper;
+        this.chunkSize = chunkSize;
+        this.maxEvents = maxEvents;
+    }
+
+    public BatchIngestResponse ingest(InputStream body) throws IOException {
+        long now = System.currentTimeMillis();
+        long index = 0, accepted = 0, rejected = 0;
+        long chunkFrom = 0, chunkTo = 0;
+        Long failedFrom = null, failedTo = null;
+        boolean truncated = false;
+        List<BatchIngestResponse.Rejection> errors = new ArrayList<>();
+        List<UserEventInputRequest> chunk = new ArrayList<>(chunkSize);
+
+        try (JsonParser p = mapper.getFactory().createParser(body)) {
+            JsonToken token = p.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) token = p.nextToken();
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                if (index == maxEvents) {
+                    truncated = true;
+                    break;
+                }
+                index++;
+                String error;
+                try {
+                    // one event as a tree: binding errors stay local to this event
+                    JsonNode node = mapper.readTree(p);
+                    UserEventInputRequest ev = mapper.treeToValue(node, UserEventInputRequest.class);
+                    error = EventValidator.rejectReason(ev, now);
+                    if (error == null) {
+                        if (chunk.isEmpty()) chunkFrom = index;
+                        chunkTo = index;
+                        chunk.add(ev);
+                    }
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    if (e instanceof JsonParseException) {
+                        // the parser cannot resynchronise after malformed JSON
+                        rejected++;
+                        if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new BatchIngestResponse.Rejection(index, "malformed_json"));
+                        truncated = true;
+                        break;
+                    }
+                    error = "invalid_event";
+                }
+                if (error != null) {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new BatchIngestResponse.Rejection(index, error));
+                }
+                if (chunk.size() == chunkSize) {
+                    if (!write(chunk)) {
+                        failedFrom = chunkFrom;
+                        failedTo = chunkTo;
+                        truncated = true;
+                        break;
+                    }
+                    accepted += chunk.size();
+                    chunk = new ArrayList<>(chunkSize);
+                }
+                token = p.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            // malformed JSON between events
+            rejected++;
+            truncated = true;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new BatchIngestResponse.Rejection(index + 1, "malformed_json"));
+        }
+        if (failedFrom == null && !chunk.isEmpty()) {
+            if (write(chunk)) {
+                accepted += chunk.size();
+            } else {
+                failedFrom = chunkFrom;
+                failedTo = chunkTo;
+            }
+        }
+        return BatchIngestResponse.builder()
+                .accepted(accepted)
+                .rejected(rejected)
+                .truncated(truncated)
+                .errors(errors)
+                .failedFrom(failedFrom)
+                .failedTo(failedTo)
+                .build();
+    }
+
+    private boolean write(List<UserEventInputRequest> chunk) {
+        try {
+            analyticsService.processBatch(chunk);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to write a batch chunk of {} events", chunk.size(), e);
+            return false;
+        }
+    }
+}
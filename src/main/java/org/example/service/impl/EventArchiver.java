@@ -0,0 +1,363 @@
+package org.example.service.impl;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.example.cache.PageDictionary;
+import org.example.dto.UserEventInputRequest;
+import org.example.entity.UserEvent;
+import org.example.mapper.UserEventMapper;
+import org.example.util.MpmcRingBuffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind archive of raw events in MongoDB (analytics.archive.enabled), so history outlives
+ * the Redis TTLs. Events are stored with the bucket pattern: one document per user, page and
+ * bucket (1h by default), _id "{userId}:{pageId}:{bucketEpochSeconds}", holding an events array
+ * plus count and first/last timestamps. A bucket is capped at max-bucket-events so a hot user/page
+ * never grows a document toward MongoDB's 16MB limit: the upsert only matches while count is below
+ * the cap, and further events go to overflow buckets "{bucketId}:1", "{bucketId}:2" and so on.
+ *
+ * <p>{@link #offer} only enqueues into a bounded {@link MpmcRingBuffer}; when the ring is full the
+ * event is dropped and counted (analytics.archive.dropped), so a slow or unavailable MongoDB never
+ * slows the Redis path. One writer thread sends up to batch-size events, or whatever arrived
+ * within flush-interval-ms, as one unordered bulk write of per-event upserts. The upsert filter
+ * skips buckets that already hold the eventId or are full, so either case collides on _id; the
+ * colliding bucket is then read back to tell a replay (counted as a duplicate, not archived twice)
+ * from a full bucket (retried in the next overflow bucket). Retries after a failed flush are therefore safe.
+ * An event that arrives without an eventId gets a random one, so it is always archived.
+ * Kafka keys user_events by user, so one instance normally owns all of a user's buckets.
+ */
+@Component
+@Slf4j
+public class EventArchiver {
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_WRITE_ROUNDS = 8;
+    private static final int MAX_TRACKED_OVERFLOWS = 10_000;
+
+    private final MongoTemplate mongo;
+    private final UserEventMapper mapper;
+    private final PageDictionary pages;
+    private final String collection;
+    private final long bucketMs;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int maxRetries;
+    private final int maxBucketEvents;
+    // overflow level of buckets that have filled up; only hot user/page pairs, and rediscovered after a reset
+    private final Map<String, Integer> overflow = new ConcurrentHashMap<>();
+    private final MpmcRingBuffer<UserEvent> ring;
+    private Thread writer;
+    private volatile boolean running;
+
+    private final Counter archived;
+    private final Counter duplicates;
+    private final Counter dropped;
+    private final Counter failed;
+    private final Timer flushTimer;
+    private final DistributionSummary flushSize;
+    private final Timer archiveLag;
+
+    public EventArchiver(MongoTemplate mongo, UserEventMapper mapper, PageDictionary pages, MeterRegistry registry,
+                         @Value("${analytics.archive.enabled:false}") boolean enabled,
+                         @Value("${analytics.archive.collection:user_event_buckets}") String collection,
+                         @Value("${analytics.archive.bucket:1h}") Duration bucket,
+                         @Value("${analytics.archive.buffer-capacity:65536}") int capacity,
+                         @Value("${analytics.archive.batch-size:1000}") int batchSize,
+                         @Value("${analytics.archive.flush-interval-ms:1000}") long flushIntervalMs,
+                         @Value("${analytics.archive.max-retries:3}") int maxRetries,
+                         @Value("${analytics.archive.max-bucket-events:1000}") int maxBucketEvents) {
+        this.mongo = mongo;
+        this.mapper = mapper;
+        this.pages = pages;
+        this.collection = collection;
+        this.bucketMs = bucket.toMillis();
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.maxRetries = maxRetries;
+        this.maxBucketEvents = maxBucketEvents;
+        this.ring = enabled ? new MpmcRingBuffer<>(capacity) : null;
+
+        this.archived = Counter.builder("analytics.archive.archived")
+                .description("Events written to the MongoDB archive").register(registry);
+        this.duplicates = Counter.builder("analytics.archive.duplicates")
+                .description("Events already present in their bucket (replays)").register(registry);
+        this.dropped = Counter.builder("analytics.archive.dropped")
+                .description("Events not archived because the write-behind buffer was full").register(registry);
+        this.failed = Counter.builder("analytics.archive.failed")
+                .description("Events lost to MongoDB write errors after retries").register(registry);
+        this.flushTimer = Timer.builder("analytics.archive.flush.duration").register(registry);
+        this.flushSize = DistributionSummary.builder("analytics.archive.flush.size")
+                .description("Events per bulk write").register(registry);
+        this.archiveLag = Timer.builder("analytics.archive.lag")
+                .description("Time from enqueue until the event's bulk write completed").register(registry);
+        Gauge.builder("analytics.archive.queue.depth", this, a -> a.ring == null ? 0 : a.ring.size())
+                .description("Events waiting in the write-behind buffer").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (ring == null) return;
+        try {
+            mongo.indexOps(collection).ensureIndex(new Index().on("userId", Sort.Direction.ASC).on("bucketStart", Sort.Direction.ASC));
+        } catch (RuntimeException e) {
+            log.warn("Could not ensure archive index on {}: {}", collection, e.getMessage());
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "event-archiver");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (ring == null) return;
+        running = false;
+        if (writer != null) writer.join(5_000);
+        flushPending();
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /** Queues a normalized event for archiving; never blocks. */
+    public void offer(UserEventInputRequest ev) {
+        if (ring == null) return;
+        UserEvent e = mapper.toEntity(ev);
+        // without a producer id nothing tells a replay from a genuine repeat, so keep both
+        if (e.getEventId() == null || e.getEventId().isBlank()) e.setEventId(UUID.randomUUID().toString());
+        if (!ring.offer(e, System.nanoTime())) dropped.increment();
+    }
+
+    private void writeLoop() {
+        List<UserEvent> batch = new ArrayList<>(batchSize);
+        long[] oldest = new long[1];
+        while (running) {
+            drainInto(batch, oldest);
+            // hold a partial batch until it fills or its oldest event has waited a full interval
+            if (batch.size() >= batchSize || (!batch.isEmpty() && System.nanoTime() - oldest[0] >= flushIntervalNanos)) {
+                writeWithRetries(batch, oldest[0]);
+                batch.clear();
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // already drained from the ring, so flushPending would not see it
+        if (!batch.isEmpty()) writeWithRetries(batch, oldest[0]);
+    }
+
+    /** Drains and writes everything queued so far; called on shutdown. */
+    void flushPending() {
+        List<UserEvent> batch = new ArrayList<>(batchSize);
+        long[] oldest = new long[1];
+        while (drainInto(batch, oldest) > 0) {
+            writeWithRetries(batch, oldest[0]);
+            batch.clear();
+        }
+    }
+
+    private int drainInto(List<UserEvent> batch, long[] oldest) {
+        return ring.drain((e, enqueuedAt) -> {
+            // drained in ring order, so the first event is the oldest
+            if (batch.isEmpty()) oldest[0] = enqueuedAt;
+            batch.add(e);
+        }, batchSize - batch.size());
+    }
+
+    private void writeWithRetries(List<UserEvent> batch, long oldestEnqueuedAt) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(batch);
+                archiveLag.record(System.nanoTime() - oldestEnqueuedAt, TimeUnit.NANOSECONDS);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    failed.increment(batch.size());
+                    log.error("Dropping {} events after {} failed archive attempts", batch.size(), attempt + 1, e);
+                    return;
+                }
+                log.warn("Archive write failed (attempt {}), retrying: {}", attempt + 1, e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100L << attempt));
+            }
+        }
+    }
+
+    void write(List<UserEvent> batch) {
+        long start = System.nanoTime();
+        if (overflow.size() > MAX_TRACKED_OVERFLOWS) overflow.clear();
+        List<UserEvent> pending = skipArchivedInFullBuckets(batch);
+        for (int round = 0; !pending.isEmpty(); round++) {
+            if (round == MAX_WRITE_ROUNDS) {
+                failed.increment(pending.size());
+                log.error("Gave up on {} events still colliding after {} archive rounds", pending.size(), round);
+                break;
+            }
+            pending = upsert(pending);
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        flushSize.record(batch.size());
+    }
+
+    // one unordered bulk write; returns the events to write again in the next round
+    private List<UserEvent> upsert(List<UserEvent> events) {
+        BulkOperations ops = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+        List<String> docIds = new ArrayList<>(events.size());
+        for (UserEvent e : events) {
+            String docId = docId(e);
+            docIds.add(docId);
+            ops.upsert(bucketQuery(docId, e), bucketUpdate(e));
+        }
+        try {
+            ops.execute();
+            archived.increment(events.size());
+            return List.of();
+        } catch (BulkOperationException e) {
+            // unordered: every other operation was applied; sort the per-operation errors
+            List<Integer> collided = new ArrayList<>();
+            int errors = 0;
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() == DUPLICATE_KEY) collided.add(error.getIndex());
+                else errors++;
+            }
+            failed.increment(errors);
+            archived.increment(events.size() - collided.size() - errors);
+            if (errors > 0) log.error("{} of {} events rejected by the archive: {}", errors, events.size(), e.getMessage());
+            return resolveCollisions(events, docIds, collided);
+        }
+    }
+
+    // The bucket exists but the filter did not match it: the event is already in it (a replay), the
+    // bucket is full (move on to the next overflow bucket), or a concurrent upsert just created it (retry).
+    private List<UserEvent> resolveCollisions(List<UserEvent> events, List<String> docIds, List<Integer> collided) {
+        if (collided.isEmpty()) return List.of();
+        Query query = new Query(Criteria.where("_id").in(collided.stream().map(docIds::get).distinct().toList()));
+        query.fields().include("count").include("events._id");
+        Map<String, Document> docs = new HashMap<>();
+        for (Document doc : mongo.find(query, Document.class, collection)) docs.put(doc.getString("_id"), doc);
+
+        List<UserEvent> retry = new ArrayList<>();
+        int dups = 0;
+        for (int i : collided) {
+            UserEvent e = events.get(i);
+            Document doc = docs.get(docIds.get(i));
+            if (doc != null && eventIds(doc).contains(e.getEventId())) {
+                dups++;
+                continue;
+            }
+            if (doc != null && doc.getInteger("count", 0) >= maxBucketEvents) {
+                overflow.merge(bucketId(e), level(docIds.get(i)) + 1, Math::max);
+            }
+            retry.add(e);
+        }
+        duplicates.increment(dups);
+        return retry;
+    }
+
+    // a replay of an event that sits in an earlier, full bucket of its chain would not collide; drop it here
+    private List<UserEvent> skipArchivedInFullBuckets(List<UserEvent> batch) {
+        Map<String, String> baseByFullId = new HashMap<>();
+        List<String> eventIds = new ArrayList<>();
+        for (UserEvent e : batch) {
+            String base = bucketId(e);
+            int level = overflow.getOrDefault(base, 0);
+            if (level == 0) continue;
+            for (int l = 0; l < level; l++) baseByFullId.put(docId(base, l), base);
+            eventIds.add(e.getEventId());
+        }
+        if (eventIds.isEmpty()) return batch;
+        Query query = new Query(Criteria.where("_id").in(baseByFullId.keySet()).and("events._id").in(eventIds));
+        query.fields().include("events._id");
+        Set<String> archivedIds = new HashSet<>();
+        for (Document doc : mongo.find(query, Document.class, collection)) {
+            String base = baseByFullId.get(doc.getString("_id"));
+            for (String id : eventIds(doc)) archivedIds.add(base + "|" + id);
+        }
+        if (archivedIds.isEmpty()) return batch;
+        List<UserEvent> pending = new ArrayList<>(batch.size());
+        for (UserEvent e : batch) {
+            if (!archivedIds.contains(bucketId(e) + "|" + e.getEventId())) pending.add(e);
+        }
+        duplicates.increment(batch.size() - pending.size());
+        return pending;
+    }
+
+    private static List<String> eventIds(Document bucket) {
+        List<Document> events = bucket.getList("events", Document.class, List.of());
+        return events.stream().map(ev -> ev.getString("_id")).toList();
+    }
+
+    String bucketId(UserEvent e) {
+        long bucket = Math.floorDiv(e.getEventTimestamp().toEpochMilli(), bucketMs) * bucketMs;
+        return e.getUserId() + ":" + pages.id(e.getPageUrl()) + ":" + bucket / 1000;
+    }
+
+    /** _id of the bucket document the event goes to now: its bucket, or that bucket's current overflow. */
+    String docId(UserEvent e) {
+        String base = bucketId(e);
+        return docId(base, overflow.getOrDefault(base, 0));
+    }
+
+    private static String docId(String base, int level) {
+        return level == 0 ? base : base + ":" + level;
+    }
+
+    // base ids end in ":{bucketEpochSeconds}", overflow ids in ":{bucketEpochSeconds}:{level}"
+    private static int level(String docId) {
+        String[] parts = docId.split(":");
+        return parts.length > 3 ? Integer.parseInt(parts[3]) : 0;
+    }
+
+    private Query bucketQuery(String docId, UserEvent e) {
+        // the cap bounds both the document size and the events._id scan this filter does
+        return new Query(Criteria.where("_id").is(docId).and("count").lt(maxBucketEvents)
+                .and("events._id").ne(e.getEventId()));
+    }
+
+    private Update bucketUpdate(UserEvent e) {
+        long ts = e.getEventTimestamp().toEpochMilli();
+        Date at = new Date(ts);
+        Document event = new Document("_id", e.getEventId())
+                .append("eventType", e.getEventType() == null ? null : e.getEventType().name())
+                .append("eventTimestamp", at)
+                .append("sessionId", e.getSessionId());
+        return new Update()
+                .setOnInsert("userId", e.getUserId().toString())
+                .setOnInsert("pageUrl", e.getPageUrl())
+                .setOnInsert("bucketStart", new Date(Math.floorDiv(ts, bucketMs) * bucketMs))
+                .push("events", event)
+                .inc("count", 1)
+                .min("first", at)
+                .max("last", at);
+    }
+}
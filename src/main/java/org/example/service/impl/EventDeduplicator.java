@@ -0,0 +1,181 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.UserEventInputRequest;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.RollingBloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Drops redelivered events (analytics.dedup.enabled=true) before they are counted a second time,
+ * e.g. after a rebalance or a DefaultErrorHandler retry. Only events carrying a client-assigned
+ * eventId are checked. An identity derived from user, type, timestamp and page would also collapse
+ * genuine repeats, such as two clicks on the same page within one second, so events without an
+ * eventId always pass.
+ *
+ * <p>Identities are remembered for {@code window} of wall-clock time in a {@link RollingBloomFilter}
+ * sized from expected-events per window and false-positive-rate (or capped at memory-bytes), so a
+ * check is O(1) and a million ids cost a few MB instead of an exact set. A false positive drops a
+ * genuine event, at the configured rate. Callers check first and {@link #remember} once an event
+ * has been applied, so a batch that failed and is redelivered is not mistaken for a duplicate.
+ *
+ * <p>The in-process filters only see this instance's events; with redis-backed=true the same
+ * generations are kept as Redis bitmaps (one pipelined round trip to check a batch and one to
+ * remember it) so a partition's new owner recognises what its previous owner applied. If Redis
+ * fails the local filters decide.
+ */
+@Component
+@Slf4j
+public class EventDeduplicator {
+    private final AnalyticsDataRepository repository;
+    private final boolean enabled;
+    private final boolean redisBacked;
+    private final long windowMs;
+    private final RollingBloomFilter filter;
+
+    private final Counter checked;
+    private final Counter duplicates;
+    private final Counter redisFailures;
+
+    public EventDeduplicator(AnalyticsDataRepository repository, MeterRegistry registry,
+                             @Value("${analytics.dedup.enabled:true}") boolean enabled,
+                             @Value("${analytics.dedup.window:10m}") Duration window,
+                             @Value("${analytics.dedup.generations:4}") int generations,
+                             @Value("${analytics.dedup.expected-events:1000000}") long expectedEvents,
+                             @Value("${analytics.dedup.false-positive-rate:0.001}") double falsePositiveRate,
+                             @Value("${analytics.dedup.memory-bytes:0}") long memoryBytes,
+                             @Value("${analytics.dedup.redis-backed:false}") boolean redisBacked) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.redisBacked = redisBacked;
+        this.windowMs = window.toMillis();
+        // each id lands in one generation but a lookup probes all of them, so each gets a share of the rate
+        long perGeneration = Math.max(1, expectedEvents / generations);
+        long bits = memoryBytes > 0
+                ? memoryBytes * 8 / generations
+                : RollingBloomFilter.optimalBits(perGeneration, falsePositiveRate / generations);
+        // a disabled filter keeps nothing worth allocating
+        this.filter = new RollingBloomFilter(window, generations, enabled ? bits : 64,
+                RollingBloomFilter.optimalHashes(bits, perGeneration));
+        double expectedRate = generations * RollingBloomFilter.falsePositiveRate(bits, filter.hashes(), perGeneration);
+
+        this.checked = Counter.builder("analytics.dedup.checked")
+                .description("Events checked against the dedup filters").register(registry);
+        this.duplicates = Counter.builder("analytics.dedup.duplicates")
+                .description("Events dropped as already processed").register(registry);
+        this.redisFailures = Counter.builder("analytics.dedup.redis.failures")
+                .description("Dedup checks or inserts that fell back to the local filters after a Redis error")
+                .register(registry);
+        Gauge.builder("analytics.dedup.memory", filter, f -> enabled ? f.memoryBytes() : 0)
+                .description("Bytes held by the in-process dedup filters").baseUnit("bytes").register(registry);
+        Gauge.builder("analytics.dedup.expected.fpp", () -> expectedRate)
+                .description("False-positive rate of a dedup check at expected-events per window").register(registry);
+        if (enabled) {
+            log.info("Event dedup: {} generations x {} bits, {} hashes, {} bytes, expected false-positive rate {}",
+                    generations, bits, filter.hashes(), filter.memoryBytes(), expectedRate);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** True when the event was probably applied already and should be dropped. */
+    public boolean isDuplicate(UserEventInputRequest ev) {
+        if (!enabled) return false;
+        return unseen(List.of(ev)).isEmpty();
+    }
+
+    /**
+     * The events not applied before, in order. A second copy of an id within the batch is dropped
+     * as well, so the batch can be applied as a whole.
+     */
+    public List<UserEventInputRequest> unseen(List<UserEventInputRequest> events) {
+        if (!enabled) return events;
+        long nowMs = System.currentTimeMillis();
+        List<UserEventInputRequest> candidates = new ArrayList<>(events.size());
+        List<long[]> positions = new ArrayList<>(events.size());
+        Set<String> inBatch = new HashSet<>();
+        int dropped = 0;
+        for (UserEventInputRequest ev : events) {
+            String id = identity(ev);
+            if (id == null) {
+                candidates.add(ev);
+                positions.add(null);
+                continue;
+            }
+            long[] p = filter.positions(id);
+            if (!inBatch.add(id) || filter.mightContain(p, nowMs)) {
+                dropped++;
+                continue;
+            }
+            candidates.add(ev);
+            positions.add(p);
+        }
+        List<UserEventInputRequest> unseen = redisBacked ? checkRedis(candidates, positions, nowMs) : candidates;
+        dropped += candidates.size() - unseen.size();
+        checked.increment(events.size());
+        if (dropped > 0) duplicates.increment(dropped);
+        return unseen;
+    }
+
+    /** Records applied events so that later deliveries of them are dropped. */
+    public void remember(Collection<UserEventInputRequest> events) {
+        if (!enabled || events.isEmpty()) return;
+        long nowMs = System.currentTimeMillis();
+        List<long[]> positions = new ArrayList<>(events.size());
+        for (UserEventInputRequest ev : events) {
+            String id = identity(ev);
+            if (id == null) continue;
+            long[] p = filter.positions(id);
+            filter.put(p, nowMs);
+            positions.add(p);
+        }
+        if (!redisBacked || positions.isEmpty()) return;
+        long start = filter.generationStarts(nowMs)[0];
+        try {
+            // the generation is kept until the last window that can still probe it has passed
+            repository.bloomAdd(positions, start, start + filter.sliceMs() + windowMs);
+        } catch (Exception e) {
+            redisFailures.increment();
+            log.warn("Failed to remember {} events in Redis dedup filters: {}", positions.size(), e.getMessage());
+        }
+    }
+
+    private List<UserEventInputRequest> checkRedis(List<UserEventInputRequest> candidates, List<long[]> positions,
+                                                   long nowMs) {
+        List<long[]> probes = positions.stream().filter(Objects::nonNull).toList();
+        if (probes.isEmpty()) return candidates;
+        boolean[] seen;
+        try {
+            seen = repository.bloomContains(probes, filter.generationStarts(nowMs));
+        } catch (Exception e) {
+            redisFailures.increment();
+            log.warn("Redis dedup check failed for {} events, using local filters only: {}", probes.size(), e.getMessage());
+            return candidates;
+        }
+        List<UserEventInputRequest> unseen = new ArrayList<>(candidates.size());
+        int probe = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (positions.get(i) != null && seen[probe++]) continue;
+            unseen.add(candidates.get(i));
+        }
+        return unseen;
+    }
+
+    private static String identity(UserEventInputRequest ev) {
+        return ev.getEventId() == null || ev.getEventId().isBlank() ? null : ev.getEventId();
+    }
+}
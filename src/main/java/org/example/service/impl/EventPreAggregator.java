@@ -0,0 +1,213 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.repository.DimensionalCounter;
+import org.example.util.StripedDeltas;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-coalescing stage between AnalyticsService and AnalyticsDataRepository, enabled with
+ * analytics.pre-aggregation.enabled=true. Events are folded into striped in-memory deltas
+ * (event counts per url, bucket and type, latest timestamp per user, distinct sessions per user)
+ * and flushed to Redis in one pipeline every flush-interval-ms, or sooner once a stripe holds
+ * flush-threshold / stripes events. Reads can therefore lag writes by up to the flush interval
+ * plus one flush; analytics.preagg.staleness reports the current lag.
+ *
+ * <p>Delivery is at-most-once for pending deltas: the Kafka listeners acknowledge a record once it
+ * is handed over here, so a crash before the next flush loses up to one flush interval of
+ * acknowledged events. A failed flush keeps its deltas for the next attempt, but only up to
+ * max-retained-events; beyond that they are discarded and counted (analytics.preagg.dropped) so an
+ * outage cannot grow memory without bound.
+ */
+@Component
+@Slf4j
+public class EventPreAggregator {
+    private final AnalyticsDataRepository repository;
+    private final boolean enabled;
+    private final long flushIntervalMs;
+    private final int stripeThreshold;
+    private final int maxRetainedEvents;
+    private final StripedDeltas<Deltas> stripes = new StripedDeltas<>(Deltas::new, d -> d.events == 0);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private ScheduledExecutorService flusher;
+
+    private volatile long lastFlushMs = System.currentTimeMillis();
+    private volatile double lastCoalescingRatio = 1.0;
+    private final Counter eventsIn;
+    private final Counter redisWrites;
+    private final Counter dropped;
+    private final DistributionSummary flushSize;
+    private final Timer flushTimer;
+
+    public EventPreAggregator(AnalyticsDataRepository repository, MeterRegistry registry,
+                              @Value("${analytics.pre-aggregation.enabled:false}") boolean enabled,
+                              @Value("${analytics.pre-aggregation.flush-interval-ms:250}") long flushIntervalMs,
+                              @Value("${analytics.pre-aggregation.flush-threshold:10000}") int flushThreshold,
+                              @Value("${analytics.pre-aggregation.max-retained-events:500000}") int maxRetainedEvents) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.flushIntervalMs = flushIntervalMs;
+        this.stripeThreshold = Math.max(1, flushThreshold / stripes.stripes());
+        this.maxRetainedEvents = maxRetainedEvents;
+
+        this.eventsIn = Counter.builder("analytics.preagg.events")
+                .description("Events accepted by the pre-aggregator").register(registry);
+        this.redisWrites = Counter.builder("analytics.preagg.writes")
+                .description("Redis mutations issued by pre-aggregator flushes").register(registry);
+        this.dropped = Counter.builder("analytics.preagg.dropped")
+                .description("Events whose deltas were discarded after failed flushes exceeded max-retained-events")
+                .register(registry);
+        this.flushSize = DistributionSummary.builder("analytics.preagg.flush.size")
+                .description("Redis mutations per flush").register(registry);
+        this.flushTimer = Timer.builder("analytics.preagg.flush.duration").register(registry);
+        Gauge.builder("analytics.preagg.coalescing.ratio", this, a -> a.lastCoalescingRatio)
+                .description("Events per Redis mutation in the last flush").register(registry);
+        Gauge.builder("analytics.preagg.staleness", this, a -> System.currentTimeMillis() - a.lastFlushMs)
+                .description("Milliseconds since the last completed flush").baseUnit("milliseconds").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pre-aggregator-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) return;
+        flusher.shutdown();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Upper bound on how far reads can lag accepted events, excluding the flush itself. */
+    public long maxStalenessMs() {
+        return flushIntervalMs;
+    }
+
+    /** Folds an event into the pending deltas; it must already carry a timestamp and session id. */
+    public void add(UserEventInputRequest ev) {
+        long tsMs = ev.getEventTimestamp().toEpochMilli();
+        long bucket = repository.pageViewBuckets().bucketStart(tsMs);
+        int pending = stripes.apply(d -> d.add(ev.getPageUrl(), bucket, ev.getEventType(), ev.getUserId(), tsMs, ev.getSessionId()));
+        eventsIn.increment();
+        if (pending >= stripeThreshold && flusher != null && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Pre-aggregator flush failed, deltas kept for the next attempt", e);
+        }
+    }
+
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            Deltas merged = new Deltas();
+            for (Deltas drained : stripes.drain()) merged.mergeFrom(drained);
+            if (merged.events == 0) {
+                lastFlushMs = System.currentTimeMillis();
+                return;
+            }
+            int writes = merged.mutations();
+            long start = System.nanoTime();
+            try {
+                repository.applyDeltas(merged.pageViews, merged.lastSeen, merged.sessions);
+            } catch (RuntimeException e) {
+                if (merged.events > maxRetainedEvents) {
+                    dropped.increment(merged.events);
+                    log.error("Discarding deltas of {} events after a failed flush; more than {} are pending",
+                            merged.events, maxRetainedEvents);
+                    throw e;
+                }
+                // put the deltas back so the next flush retries them
+                stripes.restore(d -> d.mergeFrom(merged));
+                throw e;
+            }
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            flushSize.record(writes);
+            redisWrites.increment(writes);
+            lastCoalescingRatio = (double) merged.events / writes;
+            lastFlushMs = System.currentTimeMillis();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private static final class Deltas {
+        // url -> bucket start -> events per DimensionalCounter slot
+        final Map<String, Map<Long, long[]>> pageViews = new HashMap<>();
+        final Map<UUID, Long> lastSeen = new HashMap<>();
+        final Map<String, Set<String>> sessions = new HashMap<>();
+        int events;
+
+        int add(String url, long bucket, EventType type, UUID userId, long tsMs, String sessionId) {
+            pageViews.computeIfAbsent(url, k -> new HashMap<>())
+                    .computeIfAbsent(bucket, k -> new long[DimensionalCounter.SLOTS])[DimensionalCounter.slot(type)]++;
+            lastSeen.merge(userId, tsMs, Math::max);
+            sessions.computeIfAbsent(userId.toString(), k -> new HashSet<>()).add(sessionId);
+            return ++events;
+        }
+
+        void mergeFrom(Deltas other) {
+            other.pageViews.forEach((url, buckets) -> {
+                Map<Long, long[]> mine = pageViews.computeIfAbsent(url, k -> new HashMap<>());
+                buckets.forEach((bucket, counts) -> {
+                    long[] into = mine.computeIfAbsent(bucket, k -> new long[DimensionalCounter.SLOTS]);
+                    for (int i = 0; i < counts.length; i++) into[i] += counts[i];
+                });
+            });
+            other.lastSeen.forEach((user, ts) -> lastSeen.merge(user, ts, Math::max));
+            other.sessions.forEach((user, ids) -> sessions.computeIfAbsent(user, k -> new HashSet<>()).addAll(ids));
+            events += other.events;
+        }
+
+        // one page-view increment per url and bucket, plus one event-count field per combination and bucket
+        int mutations() {
+            int n = lastSeen.size() + sessions.size();
+            Map<Long, Map<String, Long>> fields = new HashMap<>();
+            pageViews.forEach((url, buckets) -> buckets.forEach((bucket, counts) ->
+                    DimensionalCounter.rollUp(fields.computeIfAbsent(bucket, k -> new HashMap<>()), url, counts)));
+            for (Map<Long, long[]> buckets : pageViews.values()) n += buckets.size();
+            for (Map<String, Long> bucket : fields.values()) n += bucket.size();
+            return n;
+        }
+    }
+}
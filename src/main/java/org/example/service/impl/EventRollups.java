@@ -0,0 +1,242 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.cache.PageDictionary;
+import org.example.dto.TimeSeriesResponse;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.enums.RollupResolution;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.StripedDeltas;
+import org.example.util.TimeBuckets;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minute, hour and day rollups behind /metrics/series (analytics.rollups.enabled). Each event
+ * bumps three counters of its minute: all events ("e"), its event type ("t:{TYPE}") and its
+ * page ("p:{pageId}"). Counts are kept in striped in-memory deltas and added to the Redis
+ * minute hashes every flush-interval-ms. A background compaction folds each closed minute into
+ * its hour and day hash exactly once, so hours and days are never rebuilt from raw events.
+ *
+ * <p>A query picks the coarsest level whose bucket width divides the step and whose retention
+ * still covers the range, and reads at most max-points buckets plus the few minutes not yet
+ * compacted. Without a step it uses the finest level that fits in max-points.
+ */
+@Component
+@Slf4j
+public class EventRollups {
+    public static final String EVENTS_FIELD = "e";
+    private static final RollupResolution[] COARSEST_FIRST = {RollupResolution.DAY, RollupResolution.HOUR, RollupResolution.MINUTE};
+    // bounds one compaction round trip when catching up after downtime
+    private static final int MAX_MINUTES_PER_COMPACTION = 1440;
+
+    private final AnalyticsDataRepository repository;
+    private final PageDictionary pages;
+    private final boolean enabled;
+    private final Map<RollupResolution, Duration> retention = new EnumMap<>(RollupResolution.class);
+    private final long compactionDelayMs;
+    private final int maxPoints;
+    private final TimeBuckets minutes = new TimeBuckets(RollupResolution.MINUTE.getWidth());
+    // per stripe: minute start -> field -> count
+    private final StripedDeltas<Map<Long, Map<String, long[]>>> deltas = new StripedDeltas<>(HashMap::new, Map::isEmpty);
+
+    private volatile long compactedThroughMs = System.currentTimeMillis();
+    private final Counter compacted;
+    private final Timer flushTimer;
+
+    public EventRollups(AnalyticsDataRepository repository, PageDictionary pages, MeterRegistry registry,
+                        @Value("${analytics.rollups.enabled:true}") boolean enabled,
+                        @Value("${analytics.rollups.retention.minute:48h}") Duration minuteRetention,
+                        @Value("${analytics.rollups.retention.hour:90d}") Duration hourRetention,
+                        @Value("${analytics.rollups.retention.day:1825d}") Duration dayRetention,
+                        @Value("${analytics.rollups.compaction-delay:2m}") Duration compactionDelay,
+                        @Value("${analytics.rollups.max-points:500}") int maxPoints) {
+        this.repository = repository;
+        this.pages = pages;
+        this.enabled = enabled;
+        retention.put(RollupResolution.MINUTE, minuteRetention);
+        retention.put(RollupResolution.HOUR, hourRetention);
+        retention.put(RollupResolution.DAY, dayRetention);
+        this.compactionDelayMs = compactionDelay.toMillis();
+        this.maxPoints = maxPoints;
+
+        this.compacted = Counter.builder("analytics.rollups.compacted")
+                .description("Minute rollups folded into their hour and day").register(registry);
+        this.flushTimer = Timer.builder("analytics.rollups.flush.duration").register(registry);
+        Gauge.builder("analytics.rollups.compaction.lag", this, r -> System.currentTimeMillis() - r.compactedThroughMs)
+                .description("Milliseconds between now and the oldest minute not yet compacted")
+                .baseUnit("milliseconds").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String eventTypeField(EventType type) {
+        return "t:" + type.name();
+    }
+
+    public static String pageField(String pageId) {
+        return "p:" + pageId;
+    }
+
+    /** Counts a normalized event (canonical url, timestamp set) into its minute. */
+    public void add(UserEventInputRequest ev) {
+        if (!enabled) return;
+        long minute = minutes.bucketStart(ev.getEventTimestamp().toEpochMilli());
+        String page = pageField(pages.id(ev.getPageUrl()));
+        String type = ev.getEventType() == null ? null : eventTypeField(ev.getEventType());
+        deltas.update(d -> {
+            Map<String, long[]> fields = d.computeIfAbsent(minute, m -> new HashMap<>());
+            fields.computeIfAbsent(EVENTS_FIELD, f -> new long[1])[0]++;
+            fields.computeIfAbsent(page, f -> new long[1])[0]++;
+            if (type != null) fields.computeIfAbsent(type, f -> new long[1])[0]++;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.rollups.flush-interval-ms:1000}")
+    public void flush() {
+        if (!enabled) return;
+        Map<Long, Map<String, Long>> merged = new HashMap<>();
+        for (Map<Long, Map<String, long[]>> drained : deltas.drain()) {
+            drained.forEach((minute, fields) -> {
+                Map<String, Long> into = merged.computeIfAbsent(minute, m -> new HashMap<>());
+                fields.forEach((field, count) -> into.merge(field, count[0], Long::sum));
+            });
+        }
+        if (merged.isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            repository.addRollupDeltas(merged, retention);
+        } catch (RuntimeException e) {
+            // keep the counts for the next flush
+            deltas.restore(first -> merged.forEach((minute, fields) -> {
+                Map<String, long[]> into = first.computeIfAbsent(minute, m -> new HashMap<>());
+                fields.forEach((field, count) -> into.computeIfAbsent(field, f -> new long[1])[0] += count);
+            }));
+            log.error("Rollup flush failed for {} minutes, deltas kept for the next attempt", merged.size(), e);
+            return;
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Folds every minute that closed at least compaction-delay ago into its hour and day. Late
+     * events for a folded minute are added to the hour and day directly, so the delay only saves
+     * those extra writes.
+     */
+    @Scheduled(fixedDelayString = "${analytics.rollups.compaction-interval-ms:60000}")
+    public void compact() {
+        if (!enabled) return;
+        long minuteMs = minutes.bucketMs();
+        long nowMs = System.currentTimeMillis();
+        long through = minutes.bucketStart(nowMs - compactionDelayMs);
+        // minutes older than their retention have expired; nothing left to fold
+        long oldest = minutes.bucketStart(nowMs - retention.get(RollupResolution.MINUTE).toMillis());
+        try {
+            Long cursor = repository.rollupsCompactedThrough();
+            long from = cursor == null ? oldest : Math.max(cursor, oldest);
+            if (from >= through) return;
+            long to = Math.min(through, from + MAX_MINUTES_PER_COMPACTION * minuteMs);
+            compacted.increment(repository.compactRollups(from, to, retention));
+            repository.setRollupsCompactedThrough(to);
+            compactedThroughMs = to;
+        } catch (Exception e) {
+            log.error("Rollup compaction failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    /**
+     * One counter field over [fromMs, toMs) in step-aligned points. A null step means the finest
+     * level that fits in max-points. Throws IllegalArgumentException with an error code when the
+     * step is not a whole number of minutes, or no retained level serves the range in max-points.
+     */
+    public TimeSeriesResponse series(String field, long fromMs, long toMs, Duration step) {
+        long nowMs = System.currentTimeMillis();
+        if (toMs <= fromMs) throw new IllegalArgumentException("invalid_range");
+        RollupResolution res = resolve(fromMs, toMs, step, nowMs);
+        long stepMs = step == null ? res.getWidth().toMillis() : step.toMillis();
+        long widthMs = res.getWidth().toMillis();
+        long first = Math.floorDiv(fromMs, stepMs) * stepMs;
+        int points = (int) Math.ceilDiv(toMs - first, stepMs);
+
+        int buckets = (int) Math.ceilDiv(toMs - first, widthMs);
+        long[] bucketStarts = new long[buckets];
+        for (int i = 0; i < buckets; i++) bucketStarts[i] = first + i * widthMs;
+        long[] unfolded = res == RollupResolution.MINUTE ? new long[0] : unfoldedMinutes(first, Math.min(toMs, nowMs), nowMs);
+        long[] values = repository.readRollups(field, res, bucketStarts, unfolded);
+
+        long[] sums = new long[points];
+        for (int i = 0; i < buckets; i++) sums[(int) ((bucketStarts[i] - first) / stepMs)] += values[i];
+        for (int i = 0; i < unfolded.length; i++) sums[(int) ((unfolded[i] - first) / stepMs)] += values[buckets + i];
+
+        List<TimeSeriesResponse.Point> series = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) series.add(new TimeSeriesResponse.Point(Instant.ofEpochMilli(first + i * stepMs), sums[i]));
+        return TimeSeriesResponse.builder()
+                .from(Instant.ofEpochMilli(first))
+                .to(Instant.ofEpochMilli(first + points * stepMs))
+                .stepSeconds(stepMs / 1000)
+                .resolution(res)
+                .points(series)
+                .build();
+    }
+
+    RollupResolution resolve(long fromMs, long toMs, Duration step, long nowMs) {
+        long minuteMs = minutes.bucketMs();
+        if (step == null) {
+            for (int i = COARSEST_FIRST.length - 1; i >= 0; i--) {
+                RollupResolution res = COARSEST_FIRST[i];
+                if (retained(res, fromMs, nowMs) && Math.ceilDiv(toMs - fromMs, res.getWidth().toMillis()) <= maxPoints) return res;
+            }
+            throw new IllegalArgumentException("range_too_long");
+        }
+        long stepMs = step.toMillis();
+        if (stepMs <= 0 || stepMs % minuteMs != 0) throw new IllegalArgumentException("invalid_step");
+        for (RollupResolution res : COARSEST_FIRST) {
+            long widthMs = res.getWidth().toMillis();
+            if (stepMs % widthMs != 0 || !retained(res, fromMs, nowMs)) continue;
+            if (Math.ceilDiv(toMs - Math.floorDiv(fromMs, stepMs) * stepMs, widthMs) > maxPoints) {
+                throw new IllegalArgumentException("too_many_points");
+            }
+            return res;
+        }
+        throw new IllegalArgumentException("step_finer_than_retained_resolution");
+    }
+
+    private boolean retained(RollupResolution res, long fromMs, long nowMs) {
+        return fromMs >= nowMs - retention.get(res).toMillis();
+    }
+
+    // minutes in [fromMs, toMs) that compaction may not have folded yet
+    private long[] unfoldedMinutes(long fromMs, long toMs, long nowMs) {
+        Long cursor = repository.rollupsCompactedThrough();
+        long start = Math.max(fromMs, cursor != null ? cursor : nowMs - retention.get(RollupResolution.MINUTE).toMillis());
+        start = minutes.bucketStart(start);
+        if (start >= toMs) return new long[0];
+        int n = (int) Math.ceilDiv(toMs - start, minutes.bucketMs());
+        long[] out = new long[n];
+        for (int i = 0; i < n; i++) out[i] = start + i * minutes.bucketMs();
+        return out;
+    }
+}
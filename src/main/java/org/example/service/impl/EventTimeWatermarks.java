@@ -0,0 +1,226 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.example.dto.UserEventInputRequest;
+import org.example.repository.AnalyticsDataRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event-time watermarks for the user_events consumers (analytics.event-time.enabled=true). A
+ * partition's watermark is the highest eventTimestamp seen on it minus max-out-of-orderness, and
+ * an event behind it is late. Up to allowed-lateness behind it the event is still applied: every
+ * store is a per-bucket counter, so a late event is one increment to an older bucket and never a
+ * rescan. Later than that it is forwarded unapplied to the late topic, so a window is final once
+ * the slowest partition's watermark minus allowed-lateness has passed its end ({@link #finalizedThrough()}).
+ * The forward is waited for, up to late-send-timeout, and a failure fails the delivery so the record
+ * is retried instead of being acknowledged without reaching the late topic.
+ *
+ * <p>Watermarks are published to Redis every publish-interval-ms and only move forward; a
+ * partition's new owner resumes from the published value after a rebalance. A partition with no
+ * events for idle-timeout advances with the wall clock so it does not hold finalization back.
+ */
+@Component
+@Slf4j
+public class EventTimeWatermarks {
+    private static final long NONE = Long.MIN_VALUE / 2;
+
+    private final AnalyticsDataRepository repository;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final boolean enabled;
+    private final long outOfOrdernessMs;
+    private final long allowedLatenessMs;
+    private final long idleTimeoutMs;
+    private final String lateTopic;
+    private final long lateSendTimeoutMs;
+    private final ConcurrentHashMap<Integer, PartitionClock> partitions = new ConcurrentHashMap<>();
+
+    private final Timer acceptedLateness;
+    private final Timer divertedLateness;
+    private final Counter divertFailures;
+
+    public EventTimeWatermarks(AnalyticsDataRepository repository, KafkaTemplate<String, byte[]> kafkaTemplate,
+                               MeterRegistry registry,
+                               @Value("${analytics.event-time.enabled:false}") boolean enabled,
+                               @Value("${analytics.event-time.max-out-of-orderness:5s}") Duration maxOutOfOrderness,
+                               @Value("${analytics.event-time.allowed-lateness:2m}") Duration allowedLateness,
+                               @Value("${analytics.event-time.idle-timeout:1m}") Duration idleTimeout,
+                               @Value("${analytics.event-time.late-topic:user_events.late}") String lateTopic,
+                               @Value("${analytics.event-time.late-send-timeout:5s}") Duration lateSendTimeout) {
+        this.repository = repository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.enabled = enabled;
+        this.outOfOrdernessMs = maxOutOfOrderness.toMillis();
+        this.allowedLatenessMs = allowedLateness.toMillis();
+        this.idleTimeoutMs = idleTimeout.toMillis();
+        this.lateTopic = lateTopic;
+        this.lateSendTimeoutMs = lateSendTimeout.toMillis();
+
+        this.acceptedLateness = Timer.builder("analytics.event.lateness").tag("outcome", "accepted")
+                .description("How far behind its partition's watermark a late event was")
+                .publishPercentiles(0.5, 0.9, 0.99).publishPercentileHistogram().register(registry);
+        this.divertedLateness = Timer.builder("analytics.event.lateness").tag("outcome", "diverted")
+                .description("How far behind its partition's watermark a late event was")
+                .publishPercentiles(0.5, 0.9, 0.99).publishPercentileHistogram().register(registry);
+        this.divertFailures = Counter.builder("analytics.event.late.failures")
+                .description("Too-late events that could not be forwarded to the late topic").register(registry);
+        Gauge.builder("analytics.watermark.lag", this, w -> w.watermarkLagMs(System.currentTimeMillis()))
+                .description("Wall clock minus the lowest watermark of this instance's partitions")
+                .baseUnit("milliseconds").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration allowedLateness() {
+        return Duration.ofMillis(allowedLatenessMs);
+    }
+
+    /**
+     * Advances the record's partition watermark and decides whether its event may be applied.
+     * A too-late record is forwarded as-is, headers included, to the late topic and false is returned;
+     * if the forward fails an IllegalStateException is thrown so the delivery is retried.
+     */
+    public boolean admit(ConsumerRecord<String, byte[]> record, UserEventInputRequest ev) {
+        // an event without a timestamp is stamped on arrival, so it is never late
+        if (!enabled || ev.getEventTimestamp() == null) return true;
+        long tsMs = ev.getEventTimestamp().toEpochMilli();
+        PartitionClock clock = partitions.computeIfAbsent(record.partition(), p -> new PartitionClock(NONE));
+        long lateness = clock.observe(tsMs, System.currentTimeMillis()) - outOfOrdernessMs - tsMs;
+        if (lateness <= 0) return true;
+        if (lateness <= allowedLatenessMs) {
+            acceptedLateness.record(lateness, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        divertedLateness.record(lateness, TimeUnit.MILLISECONDS);
+        try {
+            // late records are rare, so waiting for the ack costs little and the caller only acks what arrived
+            kafkaTemplate.send(new ProducerRecord<>(lateTopic, null, record.key(), record.value(), record.headers()))
+                    .get(lateSendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            divertFailures.increment();
+            throw new IllegalStateException("Failed to forward late record partition=" + record.partition()
+                    + " offset=" + record.offset() + " to " + lateTopic, e);
+        }
+        return false;
+    }
+
+    /** Resumes newly assigned partitions from their published watermarks. */
+    public void assign(Collection<Integer> assigned) {
+        if (!enabled || assigned.isEmpty()) return;
+        Map<Integer, Long> published;
+        try {
+            published = repository.watermarks();
+        } catch (Exception e) {
+            log.error("Failed to load watermarks for partitions {}; they restart from their first event", assigned, e);
+            published = Map.of();
+        }
+        for (int p : assigned) {
+            Long wm = published.get(p);
+            partitions.put(p, new PartitionClock(wm == null ? NONE : wm + outOfOrdernessMs));
+        }
+    }
+
+    /** Publishes and forgets partitions this consumer is losing. */
+    public void revoke(Collection<Integer> revoked) {
+        if (!enabled || revoked.isEmpty()) return;
+        publish(revoked);
+        revoked.forEach(partitions::remove);
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.event-time.publish-interval-ms:1000}")
+    public void publish() {
+        if (!enabled) return;
+        publish(partitions.keySet());
+    }
+
+    @PreDestroy
+    public void stop() {
+        publish();
+    }
+
+    private void publish(Collection<Integer> which) {
+        long nowMs = System.currentTimeMillis();
+        Map<Integer, Long> watermarks = new HashMap<>();
+        for (int p : which) {
+            PartitionClock clock = partitions.get(p);
+            if (clock == null) continue;
+            long max = clock.advanceIfIdle(nowMs);
+            if (max != NONE) watermarks.put(p, max - outOfOrdernessMs);
+        }
+        try {
+            repository.publishWatermarks(watermarks);
+        } catch (Exception e) {
+            log.error("Failed to publish watermarks for {} partitions", watermarks.size(), e);
+        }
+    }
+
+    /**
+     * Event time up to which every window is final: the lowest published partition watermark
+     * minus allowed-lateness, or null while no partition has reported one.
+     */
+    public Long finalizedThrough() {
+        return enabled ? finalizedThrough(repository.watermarks()) : null;
+    }
+
+    public Long finalizedThrough(Map<Integer, Long> published) {
+        if (published.isEmpty()) return null;
+        long min = Long.MAX_VALUE;
+        for (long wm : published.values()) min = Math.min(min, wm);
+        return min - allowedLatenessMs;
+    }
+
+    /** Published watermark of every partition; empty when event time is off. */
+    public Map<Integer, Long> publishedWatermarks() {
+        return enabled ? repository.watermarks() : Map.of();
+    }
+
+    private double watermarkLagMs(long nowMs) {
+        long min = Long.MAX_VALUE;
+        for (PartitionClock clock : partitions.values()) {
+            long max = clock.maxTs.get();
+            if (max != NONE) min = Math.min(min, max - outOfOrdernessMs);
+        }
+        return min == Long.MAX_VALUE ? Double.NaN : nowMs - min;
+    }
+
+    private final class PartitionClock {
+        final AtomicLong maxTs;
+        volatile long lastEventMs = System.currentTimeMillis();
+
+        PartitionClock(long maxTs) {
+            this.maxTs = new AtomicLong(maxTs);
+        }
+
+        // a future-dated event advances the watermark no further than the wall clock
+        long observe(long tsMs, long nowMs) {
+            lastEventMs = nowMs;
+            return maxTs.accumulateAndGet(Math.min(tsMs, nowMs), Math::max);
+        }
+
+        // an idle partition's watermark follows the wall clock, idle-timeout behind it
+        long advanceIfIdle(long nowMs) {
+            if (nowMs - lastEventMs < idleTimeoutMs) return maxTs.get();
+            return maxTs.accumulateAndGet(nowMs - idleTimeoutMs, Math::max);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.FunnelResponse;
+import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.StripedDeltas;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordered conversion funnels over event types (analytics.funnels.enabled=true), e.g.
+ * checkout = PAGE_VIEW > ADD_TO_CART > CHECKOUT > PURCHASE. A user enters a funnel with its
+ * first step and advances one step at a time, each within {@code window} of entering; a step
+ * seen out of order is ignored, and an expired funnel can be entered again.
+ *
+ * <p>State is one long per user and funnel (entry time and steps reached), updated in O(1) per
+ * event with no Redis call. Every flush-interval-ms the users reaching each step are added to
+ * hourly Redis counters, so a funnel query reads steps x hours counters and never raw events.
+ * Counts a failed flush could not publish are kept for the next one, for at most the newest
+ * max-retained-hours hours; older ones are discarded and counted (analytics.funnel.counts.dropped).
+ * Like the session engine this relies on user_events being keyed by user, so one instance sees
+ * all of a user's events.
+ */
+@Component
+@Slf4j
+public class FunnelTracker {
+    private static final int STAGE_BITS = 4;
+    private static final long STAGE_MASK = (1L << STAGE_BITS) - 1;
+    private static final int MAX_STEPS = (int) STAGE_MASK;
+    private static final Duration COUNT_RETENTION = Duration.ofDays(8);
+    // ConcurrentHashMap node (32) + UUID (32) + long[] header (16), compressed oops; see stateBytesPerUser
+    private static final long ENTRY_OVERHEAD_BYTES = 80;
+
+    private final AnalyticsDataRepository repository;
+    private final boolean enabled;
+    private final long windowMs;
+    private final int maxUsers;
+    private final int maxRetainedHours;
+    private final String[] names;
+    private final EventType[][] steps;
+    // stepIndex[funnel][eventType.ordinal()]: position of the type in the funnel, or -1
+    private final int[][] stepIndex;
+    // by eventType.ordinal(): a step of some funnel / the first step of some funnel
+    private final boolean[] isStep;
+    private final boolean[] isFirstStep;
+    private final ConcurrentHashMap<UUID, long[]> users = new ConcurrentHashMap<>();
+    // per stripe: hour start -> funnel -> users reaching each step
+    private final StripedDeltas<Map<Long, long[][]>> stepCounts = new StripedDeltas<>(HashMap::new, Map::isEmpty);
+
+    private final Counter rejected;
+    private final Counter dropped;
+
+    public FunnelTracker(AnalyticsDataRepository repository, MeterRegistry registry,
+                         @Value("${analytics.funnels.enabled:false}") boolean enabled,
+                         @Value("${analytics.funnels.definitions:checkout=PAGE_VIEW>ADD_TO_CART>CHECKOUT>PURCHASE}") String definitions,
+                         @Value("${analytics.funnels.window:1h}") Duration window,
+                         @Value("${analytics.funnels.max-users:1000000}") int maxUsers,
+                         @Value("${analytics.funnels.max-retained-hours:24}") int maxRetainedHours) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.windowMs = window.toMillis();
+        this.maxUsers = maxUsers;
+        this.maxRetainedHours = maxRetainedHours;
+        Map<String, EventType[]> parsed = parse(definitions);
+        this.names = parsed.keySet().toArray(String[]::new);
+        this.steps = parsed.values().toArray(EventType[][]::new);
+        this.stepIndex = new int[steps.length][EventType.values().length];
+        this.isStep = new boolean[EventType.values().length];
+        this.isFirstStep = new boolean[EventType.values().length];
+        for (int f = 0; f < steps.length; f++) {
+            Arrays.fill(stepIndex[f], -1);
+            for (int i = 0; i < steps[f].length; i++) {
+                stepIndex[f][steps[f][i].ordinal()] = i;
+                isStep[steps[f][i].ordinal()] = true;
+            }
+            isFirstStep[steps[f][0].ordinal()] = true;
+        }
+
+        this.rejected = Counter.builder("analytics.funnel.users.rejected")
+                .description("Funnel entries not tracked because max-users were already tracked").register(registry);
+        this.dropped = Counter.builder("analytics.funnel.counts.dropped")
+                .description("Step counts discarded after failed flushes held more than max-retained-hours hours")
+                .register(registry);
+        Gauge.builder("analytics.funnel.tracked.users", users, Map::size)
+                .description("Users with funnel state on this instance").register(registry);
+        Gauge.builder("analytics.funnel.state.bytes", this, t -> (double) t.users.size() * t.stateBytesPerUser())
+                .description("Estimated heap held by funnel state").baseUnit("bytes").register(registry);
+    }
+
+    // name=TYPE>TYPE>...,name=...
+    static Map<String, EventType[]> parse(String definitions) {
+        Map<String, EventType[]> funnels = new LinkedHashMap<>();
+        for (String part : definitions.split(",")) {
+            if (part.isBlank()) continue;
+            String[] kv = part.split("=");
+            if (kv.length != 2 || kv[0].isBlank()) {
+                throw new IllegalArgumentException("analytics.funnels.definitions entry must be name=TYPE>TYPE...: " + part);
+            }
+            EventType[] types = Arrays.stream(kv[1].split(">")).map(EventType::fromString).toArray(EventType[]::new);
+            if (types.length < 2 || types.length > MAX_STEPS || Arrays.stream(types).distinct().count() != types.length) {
+                throw new IllegalArgumentException("funnel " + kv[0].trim() + " needs 2 to " + MAX_STEPS + " distinct steps");
+            }
+            funnels.put(kv[0].trim(), types);
+        }
+        return funnels;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Estimated bytes of state per tracked user: map entry, key, and one long per funnel. */
+    public long stateBytesPerUser() {
+        return ENTRY_OVERHEAD_BYTES + 8L * names.length;
+    }
+
+    /** Advances the user's state in every funnel that has the event type as a step. */
+    public void track(UUID userId, EventType type, long tsMs) {
+        if (!enabled || type == null || !isStep[type.ordinal()]) return;
+        int t = type.ordinal();
+        if (!users.containsKey(userId)) {
+            // only a first step creates state; a later step from an untracked user can't advance anything
+            if (!isFirstStep[t]) return;
+            if (users.size() >= maxUsers) {
+                rejected.increment();
+                return;
+            }
+        }
+        long hour = repository.funnelBuckets().bucketStart(tsMs);
+        users.compute(userId, (k, state) -> {
+            long[] s = state == null ? new long[steps.length] : state;
+            for (int f = 0; f < steps.length; f++) {
+                int step = stepIndex[f][t];
+                if (step < 0) continue;
+                int reached = (int) (s[f] & STAGE_MASK);
+                long enteredMs = s[f] >> STAGE_BITS;
+                if (reached > 0 && tsMs - enteredMs > windowMs) reached = 0;
+                if (step != reached) continue;
+                if (step == 0) enteredMs = tsMs;
+                s[f] = enteredMs << STAGE_BITS | (reached + 1);
+                count(f, hour, step);
+            }
+            return s;
+        });
+    }
+
+    private void count(int funnel, long hour, int step) {
+        stepCounts.update(c -> {
+            long[][] byFunnel = c.computeIfAbsent(hour, h -> new long[steps.length][]);
+            if (byFunnel[funnel] == null) byFunnel[funnel] = new long[steps[funnel].length];
+            byFunnel[funnel][step]++;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.funnels.flush-interval-ms:5000}")
+    public void flush() {
+        if (!enabled) return;
+        Map<String, Map<Long, long[]>> merged = new HashMap<>();
+        for (Map<Long, long[][]> drained : stepCounts.drain()) {
+            drained.forEach((hour, byFunnel) -> {
+                for (int f = 0; f < byFunnel.length; f++) {
+                    long[] c = byFunnel[f];
+                    if (c == null) continue;
+                    long[] into = merged.computeIfAbsent(names[f], n -> new HashMap<>())
+                            .computeIfAbsent(hour, h -> new long[c.length]);
+                    for (int i = 0; i < c.length; i++) into[i] += c[i];
+                }
+            });
+        }
+        if (merged.isEmpty()) return;
+        try {
+            repository.addFunnelCounts(merged, COUNT_RETENTION);
+        } catch (Exception e) {
+            retain(merged);
+            log.error("Failed to publish funnel counts for {} funnels, counts kept for the next flush", merged.size(), e);
+        }
+    }
+
+    // hands unpublished counts back to the first stripe, keeping only the newest max-retained-hours hours
+    private void retain(Map<String, Map<Long, long[]>> merged) {
+        TreeSet<Long> hours = new TreeSet<>(Comparator.reverseOrder());
+        merged.values().forEach(byHour -> hours.addAll(byHour.keySet()));
+        long oldestKept = hours.stream().limit(Math.max(1, maxRetainedHours)).reduce((a, b) -> b).orElse(Long.MIN_VALUE);
+        long discarded = 0;
+        for (Map<Long, long[]> byHour : merged.values()) {
+            for (Map.Entry<Long, long[]> hour : byHour.entrySet()) {
+                if (hour.getKey() < oldestKept) discarded += Arrays.stream(hour.getValue()).sum();
+            }
+        }
+        stepCounts.restore(first -> merged.forEach((name, byHour) -> {
+            int f = indexOf(name);
+            byHour.forEach((hour, c) -> {
+                if (hour < oldestKept) return;
+                long[][] byFunnel = first.computeIfAbsent(hour, h -> new long[steps.length][]);
+                if (byFunnel[f] == null) byFunnel[f] = new long[c.length];
+                for (int i = 0; i < c.length; i++) byFunnel[f][i] += c[i];
+            });
+        }));
+        if (discarded > 0) {
+            dropped.increment(discarded);
+            log.error("Discarded {} funnel step counts older than the newest {} unpublished hours", discarded, maxRetainedHours);
+        }
+    }
+
+    /** Drops users whose every funnel has expired. */
+    @Scheduled(fixedDelayString = "${analytics.funnels.sweep-interval-ms:60000}")
+    public void sweep() {
+        if (!enabled) return;
+        long expiredBefore = System.currentTimeMillis() - windowMs;
+        users.values().removeIf(state -> {
+            for (long packed : state) {
+                if ((packed & STAGE_MASK) != 0 && (packed >> STAGE_BITS) >= expiredBefore) return false;
+            }
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    public FunnelResponse query(String name, Duration window) {
+        int f = indexOf(name);
+        if (f < 0) throw new IllegalArgumentException("unknown_funnel");
+        long[] counts = repository.funnelCounts(name, steps[f].length, System.currentTimeMillis(), window);
+        List<FunnelResponse.Step> result = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            result.add(FunnelResponse.Step.builder()
+                    .eventType(steps[f][i])
+                    .users(counts[i])
+                    .conversionFromPrevious(i == 0 ? 1.0 : ratio(counts[i], counts[i - 1]))
+                    .conversionFromStart(ratio(counts[i], counts[0]))
+                    .build());
+        }
+        return FunnelResponse.builder()
+                .name(name)
+                .steps(result)
+                .overallConversion(ratio(counts[counts.length - 1], counts[0]))
+                .trackedUsers(users.size())
+                .stateBytesPerUser(stateBytesPerUser())
+                .build();
+    }
+
+    private static double ratio(long n, long d) {
+        return d == 0 ? 0 : (double) n / d;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,207 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.IngestMode;
+import org.example.service.AnalyticsService;
+import org.example.util.EventWireCodec;
+import org.example.util.MpmcRingBuffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what POST /events does with a validated event (analytics.ingest.mode).
+ * In RING mode the request thread only enqueues into a preallocated {@link MpmcRingBuffer};
+ * writer threads drain it in batches through {@link AnalyticsService#processBatch}. A full
+ * ring is reported back to the caller instead of growing, so the endpoint can shed load.
+ * Queued events were already answered 202, so a failed batch write is retried with exponential
+ * backoff before the batch is counted as dropped; while a writer backs off the ring fills and
+ * new requests get 503 rather than being accepted and lost.
+ * In KAFKA mode the event is published to the consumer topic and written by the listener.
+ */
+@Component
+@Slf4j
+public class IngestionDispatcher {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final AnalyticsService analyticsService;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final EventWireCodec codec;
+    private final IngestMode mode;
+    private final String topic;
+    private final int writerCount;
+    private final int batchSize;
+    private final int writeRetries;
+    private final long retryBackoffMs;
+    private final MpmcRingBuffer<UserEventInputRequest> ring;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final Counter rejected;
+    private final Counter dropped;
+    private final Timer drainLatency;
+
+    public IngestionDispatcher(AnalyticsService analyticsService, KafkaTemplate<String, byte[]> kafkaTemplate,
+                               EventWireCodec codec, MeterRegistry registry,
+                               @Value("${analytics.ingest.mode:SYNC}") IngestMode mode,
+                               @Value("${analytics.ingest.ring-capacity:65536}") int capacity,
+                               @Value("${analytics.ingest.writer-threads:2}") int writerCount,
+                               @Value("${analytics.ingest.writer-batch-size:500}") int batchSize,
+                               @Value("${spring.kafka.consumer.topic:user_events}") String topic,
+                               @Value("${analytics.ingest.writer-retries:3}") int writeRetries,
+                               @Value("${analytics.ingest.writer-retry-backoff-ms:100}") long retryBackoffMs) {
+        this.analyticsService = analyticsService;
+        this.kafkaTemplate = kafkaTemplate;
+        this.codec = codec;
+        this.mode = mode;
+        this.topic = topic;
+        this.writerCount = writerCount;
+        this.batchSize = batchSize;
+        this.writeRetries = writeRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.ring = mode == IngestMode.RING ? new MpmcRingBuffer<>(capacity) : null;
+
+        this.rejected = Counter.builder("analytics.ingest.rejected")
+                .description("Events refused because the ingest queue was full or unavailable").register(registry);
+        this.dropped = Counter.builder("analytics.ingest.dropped")
+                .description("Accepted events lost because their Redis write or Kafka publish failed").register(registry);
+        this.drainLatency = Timer.builder("analytics.ingest.drain.latency")
+                .description("Time from enqueue until the event's batch was written to Redis")
+                .publishPercentiles(0.5, 0.99).register(registry);
+        Gauge.builder("analytics.ingest.queue.depth", this, d -> d.ring == null ? 0 : d.ring.size())
+                .description("Events waiting in the ingest ring").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (ring == null) return;
+        running = true;
+        for (int i = 0; i < writerCount; i++) {
+            Thread t = new Thread(this::drainLoop, "ingest-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            writers.add(t);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (ring == null) return;
+        running = false;
+        for (Thread t : writers) t.join(5_000);
+        // everything left in the ring was already answered 202, so write all of it, a batch at a time
+        List<UserEventInputRequest> batch = new ArrayList<>(batchSize);
+        long[] oldest = new long[1];
+        int n;
+        while ((n = take(batch, oldest)) > 0) {
+            if (write(batch, oldest[0])) continue;
+            // still failing after retries: count the rest as lost rather than retry every batch on shutdown
+            long lost = n;
+            while ((n = take(batch, oldest)) > 0) lost += n;
+            dropped.increment(lost);
+            log.error("Dropped {} queued events on shutdown after Redis writes kept failing", lost);
+            return;
+        }
+    }
+
+    public IngestMode mode() {
+        return mode;
+    }
+
+    /** Hands the event on; false means it was not accepted and the caller should retry later. */
+    public boolean submit(UserEventInputRequest ev) {
+        switch (mode) {
+            case RING -> {
+                // stamp at receipt so time spent queued doesn't shift the event into a later bucket
+                if (ev.getEventTimestamp() == null) ev.setEventTimestamp(Instant.now());
+                if (ring.offer(ev, System.nanoTime())) return true;
+                rejected.increment();
+                return false;
+            }
+            case KAFKA -> {
+                if (ev.getEventTimestamp() == null) ev.setEventTimestamp(Instant.now());
+                // the consumer may see this record more than once; an id lets dedup drop the repeats
+                if (ev.getEventId() == null || ev.getEventId().isBlank()) ev.setEventId(UUID.randomUUID().toString());
+                try {
+                    // send() throws once max.block.ms passes on a full buffer; a broker failure arrives later
+                    kafkaTemplate.send(codec.toRecord(topic, ev)).whenComplete((result, ex) -> {
+                        if (ex == null) return;
+                        dropped.increment();
+                        log.warn("Failed to publish accepted event to {}: {}", topic, ex.getMessage());
+                    });
+                    return true;
+                } catch (JsonProcessingException | RuntimeException e) {
+                    log.warn("Failed to publish event to {}: {}", topic, e.getMessage());
+                    rejected.increment();
+                    return false;
+                }
+            }
+            default -> {
+                analyticsService.process(ev);
+                return true;
+            }
+        }
+    }
+
+    private void drainLoop() {
+        List<UserEventInputRequest> batch = new ArrayList<>(batchSize);
+        long[] oldest = new long[1];
+        while (running) {
+            if (drainOnce(batch, oldest) == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    int drainOnce(List<UserEventInputRequest> batch, long[] oldest) {
+        int n = take(batch, oldest);
+        if (n > 0 && !write(batch, oldest[0])) dropped.increment(n);
+        return n;
+    }
+
+    private int take(List<UserEventInputRequest> batch, long[] oldest) {
+        batch.clear();
+        return ring.drain((ev, enqueuedAt) -> {
+            // drained in ring order, so the first event is the oldest
+            if (batch.isEmpty()) oldest[0] = enqueuedAt;
+            batch.add(ev);
+        }, batchSize);
+    }
+
+    /** Writes the batch, retrying with exponential backoff; false once every attempt failed. */
+    private boolean write(List<UserEventInputRequest> batch, long oldestEnqueuedAt) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                analyticsService.processBatch(batch);
+                // the batch's oldest event bounds the drain latency of every event in it
+                drainLatency.record(System.nanoTime() - oldestEnqueuedAt, TimeUnit.NANOSECONDS);
+                return true;
+            } catch (Exception e) {
+                if (attempt >= writeRetries) {
+                    log.error("Failed to write {} queued events after {} attempts", batch.size(), attempt + 1, e);
+                    return false;
+                }
+                log.warn("Failed to write {} queued events, retrying: {}", batch.size(), e.getMessage());
+            }
+            try {
+                Thread.sleep(retryBackoffMs << Math.min(attempt, 10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
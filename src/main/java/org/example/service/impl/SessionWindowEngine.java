@@ -0,0 +1,374 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.utils.Utils;
+import org.example.dto.SessionWindow;
+import org.example.dto.UserEventInputRequest;
+import org.example.repository.AnalyticsDataRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Inactivity-gap session windows per user (analytics.sessions.enabled=true). A user's session
+ * stays open while events arrive less than inactivity-gap apart; a longer gap closes it and
+ * opens a new one. State lives in memory with one shard per user_events partition: an event
+ * consumed from Kafka goes to the shard of the partition it came from, so the shard can be closed
+ * out when that partition is revoked. Events that did not come through Kafka are placed by the
+ * murmur2 hash Kafka's default partitioner uses for the user id.
+ * <p>
+ * Gaps are measured in event time. A session closes once its shard has seen an event more than
+ * inactivity-gap past the session's last event, so replaying a backlog closes sessions where the
+ * events say they ended rather than by the wall clock. A shard that stops receiving events closes
+ * its sessions once inactivity-gap of processing time has passed since their last event arrived.
+ * <p>
+ * Events never touch Redis here. Every sweep-interval-ms the engine writes the sessions opened
+ * and closed since the last sweep in one pipeline, publishes its open-session count, and emits
+ * closed sessions to the sessions topic.
+ */
+@Component
+@Slf4j
+public class SessionWindowEngine {
+    private static final Duration STATS_RETENTION = Duration.ofHours(25);
+
+    private final AnalyticsDataRepository repository;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final ObjectMapper mapper;
+    private final boolean enabled;
+    private final long gapMs;
+    private final long sweepIntervalMs;
+    private final int maxPages;
+    private final String topic;
+    private final Shard[] shards;
+    private final String instanceId = UUID.randomUUID().toString();
+    private volatile boolean partitionWarned;
+
+    private final Counter closedCounter;
+    private final DistributionSummary durationSummary;
+
+    public SessionWindowEngine(AnalyticsDataRepository repository, KafkaTemplate<String, byte[]> kafkaTemplate,
+                               ObjectMapper mapper, MeterRegistry registry,
+                               @Value("${analytics.sessions.enabled:false}") boolean enabled,
+                               @Value("${analytics.sessions.inactivity-gap:30m}") Duration gap,
+                               @Value("${analytics.sessions.partitions:12}") int partitions,
+                               @Value("${analytics.sessions.sweep-interval-ms:10000}") long sweepIntervalMs,
+                               @Value("${analytics.sessions.max-pages:50}") int maxPages,
+                               @Value("${analytics.sessions.topic:user_sessions}") String topic) {
+        this.repository = repository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.mapper = mapper;
+        this.enabled = enabled;
+        this.gapMs = gap.toMillis();
+        this.sweepIntervalMs = sweepIntervalMs;
+        this.maxPages = maxPages;
+        this.topic = topic;
+        this.shards = new Shard[partitions];
+        for (int i = 0; i < partitions; i++) shards[i] = new Shard();
+
+        this.closedCounter = Counter.builder("analytics.sessions.closed")
+                .description("Sessions closed by this instance").register(registry);
+        this.durationSummary = DistributionSummary.builder("analytics.sessions.duration")
+                .description("Length of closed sessions").baseUnit("seconds")
+                .publishPercentiles(0.5, 0.9, 0.99).register(registry);
+        Gauge.builder("analytics.sessions.open", this, SessionWindowEngine::openSessions)
+                .description("Sessions currently open on this instance").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration inactivityGap() {
+        return Duration.ofMillis(gapMs);
+    }
+
+    /** How old a published open-session count may be before readers ignore it. */
+    public long staleAfterMs() {
+        return 3 * sweepIntervalMs;
+    }
+
+    /** The user_events partition (and engine shard) of a user, as Kafka's default partitioner picks it. */
+    public static int partitionFor(UUID userId, int partitions) {
+        return Utils.toPositive(Utils.murmur2(userId.toString().getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    /**
+     * The session ids {@link #track} would return for the events, in order, without changing any
+     * state: an event joins its user's open session, or one opened by an earlier event in the
+     * list, while within the gap, and otherwise starts a new one. This lets a caller write the
+     * events first and track them only once the write succeeded, so a retried write is not
+     * tracked twice. The events must carry a timestamp.
+     */
+    public List<String> sessionIds(List<UserEventInputRequest> events) {
+        List<String> ids = new ArrayList<>(events.size());
+        Map<UUID, long[]> lastSeen = new HashMap<>();
+        Map<UUID, String> current = new HashMap<>();
+        for (UserEventInputRequest ev : events) {
+            UUID userId = ev.getUserId();
+            long tsMs = ev.getEventTimestamp().toEpochMilli();
+            if (!current.containsKey(userId)) {
+                Shard shard = shardFor(userId, ev.getPartition());
+                shard.lock.lock();
+                try {
+                    Session s = shard.open.get(userId);
+                    if (s != null) {
+                        current.put(userId, s.id);
+                        lastSeen.put(userId, new long[]{s.lastSeenMs});
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+            long[] seen = lastSeen.get(userId);
+            if (seen == null || tsMs - seen[0] > gapMs) {
+                current.put(userId, sessionId(userId, tsMs));
+                lastSeen.put(userId, new long[]{tsMs});
+            } else if (tsMs > seen[0]) {
+                seen[0] = tsMs;
+            }
+            ids.add(current.get(userId));
+        }
+        return ids;
+    }
+
+    private static String sessionId(UUID userId, long startMs) {
+        return userId + ":" + Long.toString(startMs, 36);
+    }
+
+    /** Adds an event to its user's session, opening one if needed, and returns the session id. */
+    public String track(UUID userId, String url, long tsMs) {
+        return track(userId, url, tsMs, null);
+    }
+
+    /**
+     * As {@link #track(UUID, String, long)}, for an event consumed from the given user_events
+     * partition (null when it did not come through Kafka).
+     */
+    public String track(UUID userId, String url, long tsMs, Integer partition) {
+        Shard shard = shardFor(userId, partition);
+        long nowMs = System.currentTimeMillis();
+        shard.lock.lock();
+        try {
+            if (tsMs > shard.maxEventMs) shard.maxEventMs = tsMs;
+            Session s = shard.open.get(userId);
+            if (s != null && tsMs - s.lastSeenMs > gapMs) {
+                shard.closed.add(s.toWindow(userId));
+                s = null;
+            }
+            if (s == null) {
+                s = new Session(sessionId(userId, tsMs), tsMs, nowMs + gapMs);
+                shard.open.put(userId, s);
+                shard.opened.add(SessionWindow.builder().sessionId(s.id).userId(userId).start(Instant.ofEpochMilli(tsMs)).build());
+            }
+            s.record(url, tsMs, nowMs, gapMs, maxPages);
+            return s.id;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private Shard shardFor(UUID userId, Integer partition) {
+        return shard(partition != null ? partition : partitionFor(userId, shards.length));
+    }
+
+    private Shard shard(int partition) {
+        if (partition >= shards.length && !partitionWarned) {
+            partitionWarned = true;
+            log.warn("user_events partition {} is outside analytics.sessions.partitions={}, shards will be shared",
+                    partition, shards.length);
+        }
+        return shards[Math.floorMod(partition, shards.length)];
+    }
+
+    public long openSessions() {
+        long n = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                n += shard.open.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return n;
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.sessions.sweep-interval-ms:10000}")
+    public void sweep() {
+        if (!enabled) return;
+        try {
+            sweep(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("Session sweep failed, transitions kept for the next sweep", e);
+        }
+    }
+
+    /**
+     * Closes sessions whose shard's event time has moved more than the gap past their last event,
+     * or that have had no event for the gap at processing time nowMs, and flushes all pending
+     * transitions.
+     */
+    void sweep(long nowMs) {
+        List<SessionWindow> opened = new ArrayList<>();
+        List<UUID> refreshed = new ArrayList<>();
+        List<SessionWindow> closed = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                Iterator<Map.Entry<UUID, Session>> it = shard.open.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<UUID, Session> e = it.next();
+                    Session s = e.getValue();
+                    if (shard.maxEventMs - s.lastSeenMs > gapMs || nowMs - s.lastArrivalMs > gapMs) {
+                        shard.closed.add(s.toWindow(e.getKey()));
+                        it.remove();
+                    } else if (s.keyExpiresMs - nowMs <= 2 * sweepIntervalMs) {
+                        // keep sessions:<user> alive for long sessions, once per gap rather than per event
+                        shard.refreshed.add(e.getKey());
+                        s.keyExpiresMs = nowMs + gapMs;
+                    }
+                }
+                shard.drainTo(opened, refreshed, closed);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        flush(opened, refreshed, closed, nowMs);
+    }
+
+    /** Closes every open session of the given partitions, e.g. when they are revoked from this consumer. */
+    public void closePartitions(Collection<Integer> partitions) {
+        if (!enabled) return;
+        List<SessionWindow> opened = new ArrayList<>();
+        List<UUID> refreshed = new ArrayList<>();
+        List<SessionWindow> closed = new ArrayList<>();
+        for (int p : partitions) {
+            Shard shard = shard(p);
+            shard.lock.lock();
+            try {
+                shard.open.forEach((user, s) -> shard.closed.add(s.toWindow(user)));
+                shard.open.clear();
+                shard.drainTo(opened, refreshed, closed);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        try {
+            flush(opened, refreshed, closed, System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("Failed to flush sessions of revoked partitions {}", partitions, e);
+        }
+    }
+
+    private void flush(List<SessionWindow> opened, List<UUID> refreshed, List<SessionWindow> closed, long nowMs) {
+        try {
+            repository.applySessionTransitions(opened, refreshed, closed, Duration.ofMillis(gapMs), STATS_RETENTION);
+        } catch (RuntimeException e) {
+            // hand the transitions back so the next sweep retries them; refreshed keys already had
+            // keyExpiresMs moved on, so the sweep would not pick them up again
+            Shard shard = shards[0];
+            shard.lock.lock();
+            try {
+                shard.opened.addAll(0, opened);
+                shard.refreshed.addAll(0, refreshed);
+                shard.closed.addAll(0, closed);
+            } finally {
+                shard.lock.unlock();
+            }
+            throw e;
+        }
+        for (SessionWindow s : closed) {
+            closedCounter.increment();
+            durationSummary.record(s.durationMs() / 1000.0);
+            try {
+                kafkaTemplate.send(topic, s.getUserId().toString(), mapper.writeValueAsBytes(s));
+            } catch (Exception e) {
+                log.warn("Failed to emit closed session {}: {}", s.getSessionId(), e.getMessage());
+            }
+        }
+        repository.publishOpenSessions(instanceId, openSessions(), nowMs);
+    }
+
+    private static final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<UUID, Session> open = new HashMap<>();
+        final List<SessionWindow> opened = new ArrayList<>();
+        final List<UUID> refreshed = new ArrayList<>();
+        final List<SessionWindow> closed = new ArrayList<>();
+        // latest event time seen by this shard, the clock its sessions' gaps are measured against
+        long maxEventMs = Long.MIN_VALUE;
+
+        void drainTo(List<SessionWindow> openedOut, List<UUID> refreshedOut, List<SessionWindow> closedOut) {
+            openedOut.addAll(opened);
+            refreshedOut.addAll(refreshed);
+            closedOut.addAll(closed);
+            opened.clear();
+            refreshed.clear();
+            closed.clear();
+        }
+    }
+
+    private static final class Session {
+        final String id;
+        long startMs;
+        long lastSeenMs;
+        long events;
+        int distinctPages;
+        final LinkedHashSet<String> pages = new LinkedHashSet<>();
+        // processing time at which sessions:<user> expires unless refreshed
+        long keyExpiresMs;
+        // processing time the latest event arrived, for closing sessions on a shard that has gone quiet
+        long lastArrivalMs;
+
+        Session(String id, long startMs, long keyExpiresMs) {
+            this.id = id;
+            this.startMs = startMs;
+            this.lastSeenMs = startMs;
+            this.keyExpiresMs = keyExpiresMs;
+        }
+
+        void record(String url, long tsMs, long nowMs, long gapMs, int maxPages) {
+            events++;
+            lastArrivalMs = nowMs;
+            if (tsMs > lastSeenMs) lastSeenMs = tsMs;
+            // a slightly late event can pull the start back, but never by more than one gap
+            else if (tsMs < startMs && startMs - tsMs <= gapMs) startMs = tsMs;
+            if (pages.size() < maxPages) {
+                if (pages.add(url)) distinctPages++;
+            } else if (!pages.contains(url)) {
+                distinctPages++; // approximate once the page list is capped
+            }
+        }
+
+        SessionWindow toWindow(UUID userId) {
+            return SessionWindow.builder()
+                    .sessionId(id)
+                    .userId(userId)
+                    .start(Instant.ofEpochMilli(startMs))
+                    .end(Instant.ofEpochMilli(lastSeenMs))
+                    .eventCount(events)
+                    .distinctPages(distinctPages)
+                    .pages(List.copyOf(pages))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.service.impl;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.SpaceSavingSketch;
+import org.example.util.StripedDeltas;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds the top-pages endpoint. Each page view is offered to an in-memory Space-Saving sketch
+ * for its minute (striped, no Redis call per event). Every flush interval the stripes
+ * are merged and each minute's top {@code capacity} pages are added into a shared Redis sorted
+ * set, which is how counts from all application instances are combined. A page's reported count
+ * overestimates the truth by at most (views in that minute on one instance) / capacity per
+ * instance. Sketches a failed flush could not publish are kept for the next one until their minute
+ * falls out of max-window-minutes, after which no query can see them.
+ */
+@Component
+@Slf4j
+public class TrendingPagesTracker {
+    private final AnalyticsDataRepository repository;
+    private final int capacity;
+    private final Duration maxWindow;
+    // per stripe: bucket start -> sketch
+    private final StripedDeltas<Map<Long, SpaceSavingSketch>> sketches = new StripedDeltas<>(HashMap::new, Map::isEmpty);
+
+    public TrendingPagesTracker(AnalyticsDataRepository repository,
+                                @Value("${analytics.trending.capacity:200}") int capacity,
+                                @Value("${analytics.trending.max-window-minutes:60}") long maxWindowMinutes) {
+        this.repository = repository;
+        this.capacity = capacity;
+        this.maxWindow = Duration.ofMinutes(maxWindowMinutes);
+    }
+
+    public Duration maxWindow() {
+        return maxWindow;
+    }
+
+    public void offer(String url, long tsMs) {
+        if (tsMs < System.currentTimeMillis() - maxWindow.toMillis()) return;
+        long bucket = repository.trendingBuckets().bucketStart(tsMs);
+        sketches.update(s -> s.computeIfAbsent(bucket, b -> new SpaceSavingSketch(capacity)).offer(url));
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.trending.flush-interval-ms:5000}")
+    public void flush() {
+        Map<Long, SpaceSavingSketch> merged = new HashMap<>();
+        for (Map<Long, SpaceSavingSketch> drained : sketches.drain()) {
+            drained.forEach((bucket, sketch) -> merged.merge(bucket, sketch, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+        }
+        if (merged.isEmpty()) return;
+        Map<Long, List<SpaceSavingSketch.Item>> items = new HashMap<>(merged.size());
+        merged.forEach((bucket, sketch) -> items.put(bucket, sketch.top(capacity)));
+        try {
+            repository.addTrendingCounts(items, capacity, maxWindow);
+        } catch (Exception e) {
+            retain(merged);
+            log.error("Failed to publish trending page counts for {} buckets, counts kept for the next flush", items.size(), e);
+        }
+    }
+
+    // hands unpublished sketches back to the first stripe, except minutes already older than maxWindow
+    private void retain(Map<Long, SpaceSavingSketch> merged) {
+        long oldestKept = repository.trendingBuckets().bucketStart(System.currentTimeMillis() - maxWindow.toMillis());
+        sketches.restore(first -> merged.forEach((bucket, sketch) -> {
+            if (bucket < oldestKept) return;
+            first.merge(bucket, sketch, (a, b) -> {
+                a.merge(b);
+                return a;
+            });
+        }));
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    public List<SpaceSavingSketch.Item> topPages(Duration window, int n) {
+        if (window.isNegative() || window.isZero() || window.compareTo(maxWindow) > 0) {
+            throw new IllegalArgumentException("window must be between 1m and " + maxWindow.toMinutes() + "m");
+        }
+        return repository.topPages(System.currentTimeMillis(), window, n);
+    }
+}
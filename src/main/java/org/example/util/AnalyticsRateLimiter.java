@@ -1,16 +1,36 @@
 package org.example.util;
 
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.servlet.*;
 import jakarta.servlet.http.*;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Value;
 import java.io.IOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Component
 public class AnalyticsRateLimiter implements Filter {
+    // Ingestion routes: /apis/v1/events and everything below it (e.g. /apis/v1/events/batch)
+    private static final String INGEST_PATH = "/apis/v1/events";
+    // at the cap, a request with a new client id may run an eviction pass at most this often
+    private static final long INLINE_EVICT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    // slots taken in buckets, reserved before an insert so concurrent new clients cannot overshoot max-clients
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final AtomicLong nextInlineEvict;
+    // nanoTime source for buckets and eviction; tests advance it by hand
+    private final Ticker ticker;
 
     @Value("${analytics.rate-limiter.tokens-per-second:200}")
     private double tokensPerSecond;
@@ -18,23 +38,64 @@ public class AnalyticsRateLimiter implements Filter {
     @Value("${analytics.rate-limiter.bucket-size:400}")
     private int bucketSize;
 
+    // hard cap on tracked client ids; clients beyond it share one overflow bucket
+    @Value("${analytics.rate-limiter.max-clients:100000}")
+    private int maxClients = 100_000;
+
+    @Value("${analytics.rate-limiter.idle-evict-seconds:300}")
+    private long idleEvictSeconds = 300;
+
+    private final AtomicReference<TokenBucket> overflow = new AtomicReference<>();
+
+    // present when analytics.rate-limiter.mode=distributed; local buckets remain the fallback
+    private final RedisGcraRateLimiter distributed;
+
+    // analytics.ratelimit.rejected{client_class}: no X-Client-Id, a tracked id, or an id beyond max-clients
+    private final Counter rejectedAnonymous;
+    private final Counter rejectedIdentified;
+    private final Counter rejectedOverflow;
+
+    public AnalyticsRateLimiter() { this(null, new CompositeMeterRegistry()); }
+
+    @Autowired
+    public AnalyticsRateLimiter(ObjectProvider<RedisGcraRateLimiter> distributed, MeterRegistry registry) {
+        this(distributed.getIfAvailable(), registry);
+    }
+
+    AnalyticsRateLimiter(RedisGcraRateLimiter distributed, MeterRegistry registry) {
+        this(distributed, registry, Ticker.systemTicker());
+    }
+
+    AnalyticsRateLimiter(RedisGcraRateLimiter distributed, MeterRegistry registry, Ticker ticker) {
+        this.distributed = distributed;
+        this.ticker = ticker;
+        this.nextInlineEvict = new AtomicLong(ticker.read());
+        this.rejectedAnonymous = rejectedCounter(registry, "anonymous");
+        this.rejectedIdentified = rejectedCounter(registry, "identified");
+        this.rejectedOverflow = rejectedCounter(registry, "overflow");
+    }
+
+    private static Counter rejectedCounter(MeterRegistry registry, String clientClass) {
+        return Counter.builder("analytics.ratelimit.rejected").tag("client_class", clientClass)
+                .description("Ingestion requests answered with 429").register(registry);
+    }
+
     @PostConstruct
     public void init() {}
 
     @Override
     public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest r = (HttpServletRequest) req;
-        // Only apply limiter to ingestion endpoint
-        String path = r.getRequestURI();
-        if (!"/api/events".equals(path)) {
+        // Only apply limiter to ingestion endpoints
+        if (!isIngestionPath(r)) {
             chain.doFilter(req, resp);
             return;
         }
 
         String client = r.getHeader("X-Client-Id");
-        if (client == null || client.isBlank()) client = "anonymous";
-        TokenBucket b = buckets.computeIfAbsent(client, k -> new TokenBucket(tokensPerSecond, bucketSize));
-        if (!b.tryConsume()) {
+        boolean anonymous = client == null || client.isBlank();
+        if (anonymous) client = "anonymous";
+        if (!tryAcquire(client, anonymous)) {
             HttpServletResponse response = (HttpServletResponse) resp;
             response.setStatus(429);
             response.setContentType("application/json");
@@ -44,36 +105,107 @@ public class AnalyticsRateLimiter implements Filter {
         chain.doFilter(req, resp);
     }
 
+    private boolean tryAcquire(String client, boolean anonymous) {
+        if (distributed != null) {
+            Boolean allowed = distributed.tryAcquire(client);
+            if (allowed != null) {
+                if (!allowed) (anonymous ? rejectedAnonymous : rejectedIdentified).increment();
+                return allowed;
+            }
+        }
+        TokenBucket bucket = bucketFor(client);
+        if (bucket.tryConsume()) return true;
+        (anonymous ? rejectedAnonymous : bucket == overflow.get() ? rejectedOverflow : rejectedIdentified).increment();
+        return false;
+    }
+
+    private boolean isIngestionPath(HttpServletRequest r) {
+        String path = r.getRequestURI();
+        if (path == null) return false;
+        String ctx = r.getContextPath();
+        if (ctx != null && !ctx.isEmpty() && path.startsWith(ctx)) path = path.substring(ctx.length());
+        return path.equals(INGEST_PATH) || path.startsWith(INGEST_PATH + "/");
+    }
+
+    private TokenBucket bucketFor(String client) {
+        TokenBucket b = buckets.get(client);
+        if (b != null) return b;
+        if (!reserveSlot()) {
+            // a caller rotating client ids must not buy a full scan per request
+            long now = ticker.read();
+            long next = nextInlineEvict.get();
+            if (now - next >= 0 && nextInlineEvict.compareAndSet(next, now + INLINE_EVICT_INTERVAL_NANOS)) evictIdle();
+            if (!reserveSlot()) return overflowBucket();
+        }
+        TokenBucket created = new TokenBucket(tokensPerSecond, bucketSize, ticker);
+        TokenBucket existing = buckets.putIfAbsent(client, created);
+        if (existing == null) return created;
+        // another request added this client first
+        tracked.decrementAndGet();
+        return existing;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int n = tracked.get();
+            if (n >= maxClients) return false;
+            if (tracked.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    private TokenBucket overflowBucket() {
+        TokenBucket b = overflow.get();
+        if (b != null) return b;
+        overflow.compareAndSet(null, new TokenBucket(tokensPerSecond, bucketSize, ticker));
+        return overflow.get();
+    }
+
+    /** Drops buckets that have been full for longer than the idle timeout; they carry no state. */
+    @Scheduled(fixedDelayString = "${analytics.rate-limiter.evict-interval-ms:60000}")
+    public void evictIdle() {
+        long now = ticker.read();
+        long idleNanos = TimeUnit.SECONDS.toNanos(idleEvictSeconds);
+        buckets.forEach((client, b) -> {
+            if (b.idleNanos(now) > idleNanos && buckets.remove(client, b)) tracked.decrementAndGet();
+        });
+    }
+
+    int trackedClients() {
+        return buckets.size();
+    }
+
+    /**
+     * Lock-free token bucket in GCRA form: a single theoretical-arrival-time in nanoTime units,
+     * advanced by one emission interval per token with compareAndSet. The bucket is full when
+     * the TAT is at or before now, and a request is allowed while the TAT stays within
+     * capacity * interval of now.
+     */
     static class TokenBucket {
-        private final double refillPerMillis;
-        private final int capacity;
-        private double tokens;
-        private long lastRefill;
-
-        TokenBucket(double tokensPerSecond, int capacity) {
-            this.capacity = capacity;
-            this.tokens = capacity;
-            this.lastRefill = System.currentTimeMillis();
-            this.refillPerMillis = tokensPerSecond / 1000.0;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong tat;
+        private final Ticker ticker;
+
+        TokenBucket(double tokensPerSecond, int capacity, Ticker ticker) {
+            this.intervalNanos = Math.max(1, (long) (1_000_000_000L / tokensPerSecond));
+            this.toleranceNanos = intervalNanos * capacity;
+            this.ticker = ticker;
+            this.tat = new AtomicLong(ticker.read());
         }
 
-        synchronized boolean tryConsume() {
-            refill();
-            if (tokens >= 1.0) {
-                tokens -= 1.0;
-                return true;
+        boolean tryConsume() {
+            while (true) {
+                long now = ticker.read();
+                long current = tat.get();
+                long next = (current - now < 0 ? now : current) + intervalNanos;
+                if (next - now > toleranceNanos) return false;
+                if (tat.compareAndSet(current, next)) return true;
             }
-            return false;
         }
 
-        private void refill() {
-            long now = System.currentTimeMillis();
-            long delta = now - lastRefill;
-            if (delta <= 0) return;
-            tokens = Math.min(capacity, tokens + delta * refillPerMillis);
-            lastRefill = now;
+        /** How long the bucket has been full, or a negative value while tokens are still owed. */
+        long idleNanos(long now) {
+            return now - tat.get();
         }
     }
 }
-
-
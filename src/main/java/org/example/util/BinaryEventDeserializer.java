@@ -0,0 +1,59 @@
+package org.example.util;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.example.util.BinaryEventSerializer.*;
+
+/** Reads the layout written by {@link BinaryEventSerializer}. */
+public class BinaryEventDeserializer implements Deserializer<UserEventInputRequest> {
+    private static final EventType[] TYPES = EventType.values();
+
+    @Override
+    public UserEventInputRequest deserialize(String topic, byte[] data) {
+        return data == null ? null : decode(data);
+    }
+
+    public static UserEventInputRequest decode(byte[] data) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            byte version = buf.get();
+            if (version != VERSION && version != 1) throw new SerializationException("unsupported binary event version " + version);
+            byte flags = buf.get();
+            long msb = buf.getLong();
+            long lsb = buf.getLong();
+            int type = buf.get() & 0xFF;
+            long tsMs = buf.getLong();
+            UserEventInputRequest ev = new UserEventInputRequest();
+            if ((flags & HAS_USER) != 0) ev.setUserId(new UUID(msb, lsb));
+            if (type != 0xFF) {
+                if (type >= TYPES.length) throw new SerializationException("unknown event type ordinal " + type);
+                ev.setEventType(TYPES[type]);
+            }
+            if ((flags & HAS_TIMESTAMP) != 0) ev.setEventTimestamp(Instant.ofEpochMilli(tsMs));
+            ev.setPageUrl(getString(buf));
+            ev.setSessionId(getString(buf));
+            if (version >= 2) ev.setEventId(getString(buf));
+            return ev;
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("truncated binary event", e);
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        if (len == NULL_LENGTH) return null;
+        if (len > buf.remaining()) throw new BufferUnderflowException();
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.util;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.example.dto.UserEventInputRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-layout binary encoding of {@link UserEventInputRequest}, big-endian:
+ * <pre>
+ * version:u8 | flags:u8 | userId:2×i64 | eventType:u8 | epochMillis:i64 | urlLen:u16 url | sessionLen:u16 session
+ *   | eventIdLen:u16 eventId
+ * </pre>
+ * flags bit 0 marks a present userId and bit 1 a present timestamp; an absent eventType is
+ * 0xFF and an absent string has length 0xFFFF. eventType is the {@code EventType} ordinal, so
+ * new types must be appended to the enum. Bump {@link #VERSION} when the layout changes; version 1
+ * (no eventId) is still read.
+ */
+public class BinaryEventSerializer implements Serializer<UserEventInputRequest> {
+    public static final byte VERSION = 2;
+    static final int FIXED_SIZE = 1 + 1 + 16 + 1 + 8 + 2 + 2 + 2;
+    static final int NULL_LENGTH = 0xFFFF;
+    static final byte HAS_USER = 1;
+    static final byte HAS_TIMESTAMP = 2;
+
+    @Override
+    public byte[] serialize(String topic, UserEventInputRequest data) {
+        return data == null ? null : encode(data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, UserEventInputRequest data) {
+        if (data == null) return null;
+        headers.remove(EventWireCodec.FORMAT_HEADER);
+        headers.add(EventWireCodec.FORMAT_HEADER, EventWireCodec.BINARY_HEADER_VALUE);
+        return encode(data);
+    }
+
+    public static byte[] encode(UserEventInputRequest ev) {
+        byte[] url = utf8(ev.getPageUrl());
+        byte[] session = utf8(ev.getSessionId());
+        byte[] eventId = utf8(ev.getEventId());
+        ByteBuffer buf = ByteBuffer.allocate(FIXED_SIZE + length(url) + length(session) + length(eventId));
+        byte flags = 0;
+        if (ev.getUserId() != null) flags |= HAS_USER;
+        if (ev.getEventTimestamp() != null) flags |= HAS_TIMESTAMP;
+        buf.put(VERSION).put(flags);
+        buf.putLong(ev.getUserId() == null ? 0 : ev.getUserId().getMostSignificantBits());
+        buf.putLong(ev.getUserId() == null ? 0 : ev.getUserId().getLeastSignificantBits());
+        buf.put(ev.getEventType() == null ? (byte) 0xFF : (byte) ev.getEventType().ordinal());
+        buf.putLong(ev.getEventTimestamp() == null ? 0 : ev.getEventTimestamp().toEpochMilli());
+        putString(buf, url);
+        putString(buf, session);
+        putString(buf, eventId);
+        return buf.array();
+    }
+
+    private static byte[] utf8(String s) {
+        if (s == null) return null;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_LENGTH) throw new SerializationException("field longer than " + (NULL_LENGTH - 1) + " bytes");
+        return bytes;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        if (bytes == null) {
+            buf.putShort((short) NULL_LENGTH);
+        } else {
+            buf.putShort((short) bytes.length).put(bytes);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.util;
+
+import org.example.dto.UserEventInputRequest;
+
+/**
+ * Ingestion checks shared by the single-event and batch endpoints.
+ */
+public class EventValidator {
+    public static final long MAX_FUTURE_SKEW_MS = 120_000;
+
+    /** Error code for an event that must be rejected, or null if it can be ingested. */
+    public static String rejectReason(UserEventInputRequest ev, long nowMs) {
+        if (ev == null) return "empty_event";
+        if (ev.getUserId() == null) return "missing_user_id";
+        if (ev.getPageUrl() == null || ev.getPageUrl().isBlank()) return "missing_page_url";
+        if (ev.getEventTimestamp() != null && ev.getEventTimestamp().toEpochMilli() - nowMs > MAX_FUTURE_SKEW_MS) {
+            return "timestamp_too_future";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.WireFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes user_events records in the configured wire format (analytics.kafka.wire-format) and
+ * decodes either format based on the x-event-format header, so producers can switch to binary
+ * while JSON records are still in the topic.
+ */
+@Component
+public class EventWireCodec {
+    public static final String FORMAT_HEADER = "x-event-format";
+    public static final byte[] BINARY_HEADER_VALUE = "binary".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper;
+    private final WireFormat format;
+    private final ObjectReader reader;
+    private final JsonEventDecoder streamingDecoder;
+
+    public EventWireCodec(ObjectMapper mapper, WireFormat format) {
+        this(mapper, format, true);
+    }
+
+    @Autowired
+    public EventWireCodec(ObjectMapper mapper, @Value("${analytics.kafka.wire-format:JSON}") WireFormat format,
+                          @Value("${analytics.kafka.streaming-json-decoder:true}") boolean streamingJson) {
+        this.mapper = mapper;
+        this.format = format;
+        this.reader = mapper.readerFor(UserEventInputRequest.class);
+        this.streamingDecoder = streamingJson ? new JsonEventDecoder(mapper) : null;
+    }
+
+    public ProducerRecord<String, byte[]> toRecord(String topic, UserEventInputRequest ev) throws JsonProcessingException {
+        String key = ev.getUserId() == null ? null : ev.getUserId().toString();
+        if (format == WireFormat.BINARY) {
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, key, BinaryEventSerializer.encode(ev));
+            record.headers().add(FORMAT_HEADER, BINARY_HEADER_VALUE);
+            return record;
+        }
+        return new ProducerRecord<>(topic, key, mapper.writeValueAsBytes(ev));
+    }
+
+    public UserEventInputRequest decode(ConsumerRecord<String, byte[]> record) throws IOException {
+        if (record.value() == null) throw new IllegalArgumentException("empty record value");
+        Header header = record.headers().lastHeader(FORMAT_HEADER);
+        if (header != null && Arrays.equals(header.value(), BINARY_HEADER_VALUE)) {
+            return BinaryEventDeserializer.decode(record.value());
+        }
+        if (header == null || "json".equalsIgnoreCase(new String(header.value(), StandardCharsets.UTF_8))) {
+            return decodeJson(record.value());
+        }
+        throw new IllegalArgumentException("unknown " + FORMAT_HEADER + ": " + new String(header.value(), StandardCharsets.UTF_8));
+    }
+
+    /** Decodes JSON record bytes in place, without going through a String. */
+    public UserEventInputRequest decodeJson(byte[] value) throws IOException {
+        return streamingDecoder != null ? streamingDecoder.decode(value) : reader.readValue(value);
+    }
+}
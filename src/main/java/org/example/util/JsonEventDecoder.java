@@ -0,0 +1,117 @@
+package org.example.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Hand-written decoder for the six {@link UserEventInputRequest} fields, reading straight from
+ * the UTF-8 record bytes. UUIDs and event types are parsed from the parser's character buffer, so
+ * the only per-event allocations are the event, its strings and the Instant. Accepts the same
+ * forms producers send through the data-binding path: case-insensitive event types, ISO-8601 or
+ * epoch-second timestamps, and nulls. Unknown properties follow the mapper's
+ * FAIL_ON_UNKNOWN_PROPERTIES setting.
+ */
+public class JsonEventDecoder {
+    private static final EventType[] TYPES = EventType.values();
+    private static final char[][] TYPE_NAMES = new char[TYPES.length][];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) TYPE_NAMES[i] = TYPES[i].name().toCharArray();
+    }
+
+    private final JsonFactory factory;
+    private final boolean failOnUnknown;
+
+    public JsonEventDecoder(ObjectMapper mapper) {
+        this.factory = mapper.getFactory();
+        this.failOnUnknown = mapper.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    public UserEventInputRequest decode(byte[] json) throws IOException {
+        try (JsonParser p = factory.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IllegalArgumentException("event must be a JSON object");
+            UserEventInputRequest ev = new UserEventInputRequest();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if (value == JsonToken.VALUE_NULL) continue;
+                switch (field) {
+                    case "userId" -> ev.setUserId(uuid(p));
+                    case "eventType" -> ev.setEventType(eventType(p));
+                    case "eventTimestamp" -> ev.setEventTimestamp(instant(p, value));
+                    case "pageUrl" -> ev.setPageUrl(p.getValueAsString());
+                    case "sessionId" -> ev.setSessionId(p.getValueAsString());
+                    case "eventId" -> ev.setEventId(p.getValueAsString());
+                    default -> {
+                        if (failOnUnknown) throw new IllegalArgumentException("unknown property " + field);
+                        p.skipChildren();
+                    }
+                }
+            }
+            return ev;
+        }
+    }
+
+    private static UUID uuid(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) throw new IllegalArgumentException("userId must be a string");
+        char[] c = p.getTextCharacters();
+        int off = p.getTextOffset();
+        if (p.getTextLength() != 36 || c[off + 8] != '-' || c[off + 13] != '-' || c[off + 18] != '-' || c[off + 23] != '-') {
+            return UUID.fromString(p.getText()); // non-canonical spellings
+        }
+        long msb = hex(c, off, 8) << 32 | hex(c, off + 9, 4) << 16 | hex(c, off + 14, 4);
+        long lsb = hex(c, off + 19, 4) << 48 | hex(c, off + 24, 12);
+        return new UUID(msb, lsb);
+    }
+
+    private static long hex(char[] c, int off, int len) {
+        long v = 0;
+        for (int i = off; i < off + len; i++) {
+            int d = Character.digit(c[i], 16);
+            if (d < 0) throw new IllegalArgumentException("invalid UUID");
+            v = v << 4 | d;
+        }
+        return v;
+    }
+
+    private static EventType eventType(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) throw new IllegalArgumentException("eventType must be a string");
+        char[] c = p.getTextCharacters();
+        int start = p.getTextOffset();
+        int end = start + p.getTextLength();
+        while (start < end && c[start] <= ' ') start++;
+        while (end > start && c[end - 1] <= ' ') end--;
+        for (int t = 0; t < TYPE_NAMES.length; t++) {
+            char[] name = TYPE_NAMES[t];
+            if (name.length != end - start) continue;
+            int i = 0;
+            while (i < name.length && Character.toUpperCase(c[start + i]) == name[i]) i++;
+            if (i == name.length) return TYPES[t];
+        }
+        throw new IllegalArgumentException("unknown eventType " + p.getText());
+    }
+
+    private static Instant instant(JsonParser p, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_STRING -> Instant.parse(p.getText());
+            case VALUE_NUMBER_INT -> Instant.ofEpochSecond(p.getLongValue());
+            case VALUE_NUMBER_FLOAT -> {
+                // seconds.nanos, as JavaTimeModule reads decimal timestamps
+                BigDecimal d = p.getDecimalValue();
+                long seconds = d.longValue();
+                yield Instant.ofEpochSecond(seconds, d.subtract(BigDecimal.valueOf(seconds)).movePointRight(9).longValue());
+            }
+            default -> throw new IllegalArgumentException("eventTimestamp must be a string or number");
+        };
+    }
+}
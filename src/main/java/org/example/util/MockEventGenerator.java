@@ -1,77 +1,368 @@
 package org.example.util;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.example.dto.LoadGeneratorStats;
 import org.example.dto.UserEventInputRequest;
 import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Open-loop load generator for user_events (analytics.mock.*), controlled through the loadgen
+ * actuator endpoint. One pacer thread sends event i at start + i / qps whether or not earlier
+ * sends have completed, so a slow broker shows up as latency and schedule lag rather than as a
+ * lower send rate; produce latency is measured from the intended send time for the same reason.
+ * Gaps under 200µs are spun, so at high rates the pacer keeps one core busy.
+ *
+ * <p>Traffic comes from concurrent-sessions simulated visits. A visit belongs to a Zipf-drawn
+ * user, lasts a geometric number of events (mean mean-session-events) and walks Zipf-drawn
+ * pages; event types follow event-mix, with cart and checkout events on their own pages.
+ * Session ids are left to the server. Every probe-interval-ms a probe event on a page of its
+ * own is sent and its bucket polled in Redis, which gives produce-to-visible latency.
+ */
 @Component
 public class MockEventGenerator {
 
     private static final Logger log = LoggerFactory.getLogger(MockEventGenerator.class);
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper mapper;
-    private final Random random = new Random();
+    private static final long SPIN_THRESHOLD_NANOS = 200_000;
+    private static final long PROBE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long PROBE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
 
-    @Value("${analytics.mock.enabled}")
-    private boolean enabled;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final EventWireCodec codec;
+    private final AnalyticsDataRepository repository;
+    private final boolean enabled;
+    private final String topic;
+    private final ZipfSampler users;
+    private final ZipfSampler pages;
+    private final String[] pageUrls;
+    private final EventType[] mixTypes;
+    private final double[] mixCumulative;
+    private final double meanSessionEvents;
+    private final Visit[] visits;
+    private final long probeIntervalMs;
+    // user ids are derived from the rank, so the same Zipf rank is the same user for the whole run
+    private final long userIdPrefix;
+    private final String probeUrl;
+    private final UUID probeUser;
+    private final SplittableRandom random = new SplittableRandom();
 
-    @Value("${analytics.mock.qps:100}")
-    private int eventsPerSecond;
+    private final Recorder produceRecorder = new Recorder(3);
+    private final Recorder endToEndRecorder = new Recorder(3);
+    private final Histogram produceTotal = new Histogram(3);
+    private final Histogram endToEndTotal = new Histogram(3);
+    private Histogram produceInterval;
+    private Histogram endToEndInterval;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder probesTimedOut = new LongAdder();
 
-    @Value("${analytics.mock.topic:events}")
-    private String topic;
+    private volatile int targetQps;
+    private volatile Thread pacer;
+    private volatile long startNanos;
+    private volatile long lagNanos;
+    private volatile long lastFailureLogMs;
+    private ScheduledExecutorService prober;
 
-    private static final List<String> EVENT_TYPES = List.of(
-            "PAGE_VIEW", "CLICK", "ADD_TO_CART", "CHECKOUT", "SEARCH"
-    );
-
-    private static final List<String> PAGES = List.of(
-            "/home", "/product/123", "/checkout", "/search?q=shoes", "/category/electronics"
-    );
-
-    public MockEventGenerator(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper) {
+    public MockEventGenerator(KafkaTemplate<String, byte[]> kafkaTemplate, EventWireCodec codec,
+                              AnalyticsDataRepository repository,
+                              @Value("${analytics.mock.enabled:false}") boolean enabled,
+                              @Value("${analytics.mock.qps:100}") int qps,
+                              @Value("${analytics.mock.topic:user_events}") String topic,
+                              @Value("${analytics.mock.users:100000}") int userCount,
+                              @Value("${analytics.mock.user-skew:1.1}") double userSkew,
+                              @Value("${analytics.mock.pages:2000}") int pageCount,
+                              @Value("${analytics.mock.page-skew:1.0}") double pageSkew,
+                              @Value("${analytics.mock.concurrent-sessions:1000}") int concurrentSessions,
+                              @Value("${analytics.mock.mean-session-events:8}") double meanSessionEvents,
+                              @Value("${analytics.mock.event-mix:PAGE_VIEW=70,CLICK=15,SEARCH=8,ADD_TO_CART=5,CHECKOUT=1.5,PURCHASE=0.5}") String eventMix,
+                              @Value("${analytics.mock.probe-interval-ms:1000}") long probeIntervalMs) {
         this.kafkaTemplate = kafkaTemplate;
-        this.mapper = mapper;
+        this.codec = codec;
+        this.repository = repository;
+        this.enabled = enabled;
+        this.targetQps = qps;
+        this.topic = topic;
+        this.users = new ZipfSampler(userCount, userSkew);
+        this.pages = new ZipfSampler(pageCount, pageSkew);
+        this.pageUrls = new String[pageCount + 1];
+        for (int rank = 1; rank <= pageCount; rank++) pageUrls[rank] = pageUrl(rank);
+        this.meanSessionEvents = Math.max(1, meanSessionEvents);
+        this.visits = new Visit[Math.max(1, concurrentSessions)];
+        for (int i = 0; i < visits.length; i++) visits[i] = new Visit();
+        this.probeIntervalMs = probeIntervalMs;
+        this.userIdPrefix = random.nextLong();
+        this.probeUrl = "/_loadgen/probe/" + HexFormat.of().toHexDigits(random.nextInt());
+        this.probeUser = new UUID(userIdPrefix, 0);
+
+        List<EventType> types = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (String part : eventMix.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("analytics.mock.event-mix entry must be TYPE=weight: " + part);
+            types.add(EventType.fromString(kv[0]));
+            weights.add(Double.parseDouble(kv[1].trim()));
+        }
+        this.mixTypes = types.toArray(EventType[]::new);
+        this.mixCumulative = new double[weights.size()];
+        double total = 0;
+        for (int i = 0; i < mixCumulative.length; i++) mixCumulative[i] = total += weights.get(i);
+        if (total <= 0) throw new IllegalArgumentException("analytics.mock.event-mix weights must sum to more than 0");
     }
 
-    /**
-     * Runs every second and publishes N events based on QPS.
-     */
-    @Scheduled(fixedRate = 300000)
-    public void generateEvents() {
-        if (!enabled) return;
-        for (int i = 0; i < eventsPerSecond; i++) {
-            UserEventInputRequest ev = new UserEventInputRequest();
-            ev.setEventTimestamp(Instant.now());
-            ev.setUserId(UUID.randomUUID());
-            ev.setEventType(EventType.valueOf(EVENT_TYPES.get(random.nextInt(EVENT_TYPES.size()))));
-            ev.setPageUrl(PAGES.get(random.nextInt(PAGES.size())));
+    @PostConstruct
+    public void init() {
+        if (enabled) start(targetQps);
+    }
 
+    @PreDestroy
+    public synchronized void stop() {
+        Thread t = pacer;
+        pacer = null;
+        if (t != null) {
+            LockSupport.unpark(t);
             try {
-                String json = mapper.writeValueAsString(ev);
-                kafkaTemplate.send(topic, ev.getUserId().toString(), json);
-            } catch (JsonProcessingException e) {
-                log.error("Failed to serialize mock event", e);
-            } catch (Exception e) {
-                log.error("Failed to send mock event", e);
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+
+    /** (Re)starts the pacer at qps events/sec and resets all counters and histograms. */
+    public synchronized void start(int qps) {
+        if (qps <= 0) throw new IllegalArgumentException("qps must be positive");
+        stop();
+        resetStats();
+        targetQps = qps;
+        startNanos = System.nanoTime();
+        Thread t = new Thread(this::pace, "mock-event-pacer");
+        t.setDaemon(true);
+        pacer = t;
+        t.start();
+        if (probeIntervalMs > 0) {
+            prober = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread p = new Thread(r, "mock-event-probe");
+                p.setDaemon(true);
+                return p;
+            });
+            prober.scheduleWithFixedDelay(this::probe, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("Load generator started at {} events/sec into topic={}", qps, topic);
+    }
+
+    public int targetQps() {
+        return targetQps;
+    }
+
+    public boolean isRunning() {
+        return pacer != null;
+    }
+
+    private void pace() {
+        Thread self = Thread.currentThread();
+        long intervalNanos = 1_000_000_000L / targetQps;
+        long remainderNanos = 1_000_000_000L % targetQps;
+        long intended = startNanos;
+        long carry = 0;
+        while (pacer == self) {
+            long now = System.nanoTime();
+            long wait = intended - now;
+            if (wait > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(wait - SPIN_THRESHOLD_NANOS / 2);
+                continue;
+            }
+            if (wait > 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            lagNanos = -wait;
+            send(nextEvent(), intended);
+            // spread the integer-division remainder so long runs hit qps exactly
+            intended += intervalNanos;
+            carry += remainderNanos;
+            if (carry >= targetQps) {
+                intended++;
+                carry -= targetQps;
+            }
+        }
+    }
+
+    private void send(UserEventInputRequest ev, long intendedNanos) {
+        try {
+            kafkaTemplate.send(codec.toRecord(topic, ev)).whenComplete((result, ex) -> {
+                if (ex != null) {
+                    onFailure(ex);
+                    return;
+                }
+                produceRecorder.recordValue(Math.max(0, (System.nanoTime() - intendedNanos) / 1000));
+            });
+            sent.increment();
+        } catch (Exception e) {
+            onFailure(e);
+        }
+    }
+
+    private void onFailure(Throwable e) {
+        failed.increment();
+        long now = System.currentTimeMillis();
+        // at tens of thousands of events/sec one line per failure would drown the log
+        if (now - lastFailureLogMs > 10_000) {
+            lastFailureLogMs = now;
+            log.error("Failed to send mock event ({} failures so far)", failed.sum(), e);
+        }
+    }
+
+    /** Next event of a randomly chosen visit; only called from the pacer thread. */
+    UserEventInputRequest nextEvent() {
+        Visit visit = visits[random.nextInt(visits.length)];
+        if (visit.remaining <= 0) {
+            visit.userRank = users.sample(random);
+            visit.pageRank = pages.sample(random);
+            visit.remaining = geometric(meanSessionEvents);
+        }
+        visit.remaining--;
+        EventType type = nextType();
+        String url;
+        switch (type) {
+            case ADD_TO_CART -> url = "/cart";
+            case CHECKOUT -> url = "/checkout";
+            case PURCHASE -> url = "/checkout/complete";
+            case CLICK -> url = pageUrls[visit.pageRank];
+            default -> {
+                // page views and searches usually move on, occasionally reload
+                if (random.nextInt(10) < 8) visit.pageRank = pages.sample(random);
+                url = pageUrls[visit.pageRank];
             }
         }
+        UserEventInputRequest ev = new UserEventInputRequest();
+        // a fresh id per event, so a Kafka redelivery of it is recognised by dedup
+        ev.setEventId(new UUID(random.nextLong(), random.nextLong()).toString());
+        ev.setUserId(new UUID(userIdPrefix, visit.userRank));
+        ev.setEventType(type);
+        ev.setPageUrl(url);
+        ev.setEventTimestamp(Instant.now());
+        return ev;
+    }
+
+    private EventType nextType() {
+        double r = random.nextDouble() * mixCumulative[mixCumulative.length - 1];
+        for (int i = 0; i < mixCumulative.length; i++) {
+            if (r < mixCumulative[i]) return mixTypes[i];
+        }
+        return mixTypes[mixTypes.length - 1];
+    }
+
+    // 1 + Geometric(p = 1 / mean) failures, so the mean is `mean` events
+    private int geometric(double mean) {
+        if (mean <= 1) return 1;
+        return 1 + (int) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - 1 / mean));
+    }
+
+    static String pageUrl(int rank) {
+        if (rank == 1) return "/home";
+        return switch (rank % 10) {
+            case 2 -> "/category/" + rank;
+            case 3 -> "/search?q=term" + rank;
+            default -> "/product/" + rank;
+        };
+    }
+
+    // one probe in flight at a time: send it, then poll its page-view bucket until it moves
+    private void probe() {
+        try {
+            long tsMs = System.currentTimeMillis();
+            long before = repository.countPageViewsInBucket(probeUrl, tsMs);
+            UserEventInputRequest ev = new UserEventInputRequest();
+            ev.setEventId(UUID.randomUUID().toString());
+            ev.setUserId(probeUser);
+            ev.setEventType(EventType.PAGE_VIEW);
+            ev.setPageUrl(probeUrl);
+            ev.setEventTimestamp(Instant.ofEpochMilli(tsMs));
+            long sentAt = System.nanoTime();
+            kafkaTemplate.send(codec.toRecord(topic, ev));
+            while (System.nanoTime() - sentAt < PROBE_TIMEOUT_NANOS && !Thread.currentThread().isInterrupted()) {
+                if (repository.countPageViewsInBucket(probeUrl, tsMs) > before) {
+                    endToEndRecorder.recordValue((System.nanoTime() - sentAt) / 1000);
+                    return;
+                }
+                LockSupport.parkNanos(PROBE_POLL_NANOS);
+            }
+            probesTimedOut.increment();
+        } catch (Exception e) {
+            log.warn("Load generator probe failed: {}", e.getMessage());
+        }
+    }
+
+    public synchronized LoadGeneratorStats stats() {
+        produceInterval = produceRecorder.getIntervalHistogram(produceInterval);
+        produceTotal.add(produceInterval);
+        endToEndInterval = endToEndRecorder.getIntervalHistogram(endToEndInterval);
+        endToEndTotal.add(endToEndInterval);
+        double elapsedSec = (System.nanoTime() - startNanos) / 1e9;
+        return LoadGeneratorStats.builder()
+                .running(isRunning())
+                .targetQps(targetQps)
+                .achievedQps(elapsedSec > 0 ? sent.sum() / elapsedSec : 0)
+                .sent(sent.sum())
+                .failed(failed.sum())
+                .scheduleLagMs(lagNanos / 1e6)
+                .produceLatency(latency(produceTotal))
+                .endToEndLatency(latency(endToEndTotal))
+                .probesTimedOut(probesTimedOut.sum())
+                .build();
+    }
+
+    private synchronized void resetStats() {
+        produceRecorder.reset();
+        endToEndRecorder.reset();
+        produceTotal.reset();
+        endToEndTotal.reset();
+        sent.reset();
+        failed.reset();
+        probesTimedOut.reset();
+        lagNanos = 0;
+    }
+
+    // histograms hold microseconds
+    private static LoadGeneratorStats.Latency latency(Histogram h) {
+        return LoadGeneratorStats.Latency.builder()
+                .count(h.getTotalCount())
+                .p50Ms(h.getValueAtPercentile(50) / 1000.0)
+                .p90Ms(h.getValueAtPercentile(90) / 1000.0)
+                .p99Ms(h.getValueAtPercentile(99) / 1000.0)
+                .p999Ms(h.getValueAtPercentile(99.9) / 1000.0)
+                .maxMs(h.getMaxValue() / 1000.0)
+                .build();
+    }
 
-        log.info("Generated {} mock events into topic={}", eventsPerSecond, topic);
+    private static final class Visit {
+        int userRank;
+        int pageRank;
+        int remaining;
     }
 }
@@ -0,0 +1,96 @@
+package org.example.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue over preallocated arrays (Vyukov's
+ * sequence-per-slot design). Each slot carries a long stamp next to the element so callers can
+ * measure time in queue without allocating a wrapper per item. Capacity is rounded up to a
+ * power of two.
+ */
+public final class MpmcRingBuffer<E> {
+    @FunctionalInterface
+    public interface Sink<E> {
+        void accept(E element, long stamp);
+    }
+
+    private final int mask;
+    private final Object[] elements;
+    private final long[] stamps;
+    // slot sequence: == pos when free for the producer at pos, == pos + 1 when filled for the consumer
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    public MpmcRingBuffer(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new Object[size];
+        this.stamps = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Approximate number of queued elements. */
+    public int size() {
+        long n = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(n, capacity()));
+    }
+
+    /** Enqueues unless full; never blocks. */
+    public boolean offer(E element, long stamp) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long dif = sequences.get(i) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements[i] = element;
+                    stamps[i] = stamp;
+                    sequences.set(i, pos + 1); // publishes the plain writes above
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** Hands up to max elements to the sink, oldest first, and returns how many were taken. */
+    @SuppressWarnings("unchecked")
+    public int drain(Sink<E> sink, int max) {
+        int taken = 0;
+        long pos = head.get();
+        while (taken < max) {
+            int i = (int) pos & mask;
+            long dif = sequences.get(i) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = (E) elements[i];
+                    long stamp = stamps[i];
+                    elements[i] = null;
+                    sequences.set(i, pos + mask + 1);
+                    sink.accept(element, stamp);
+                    taken++;
+                    pos++;
+                } else {
+                    pos = head.get();
+                }
+            } else if (dif < 0) {
+                break;
+            } else {
+                pos = head.get();
+            }
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cluster-wide rate limiting (analytics.rate-limiter.mode=distributed). Per-client state is a
+ * GCRA theoretical arrival time kept in Redis (rl:{client}) and advanced by an atomic Lua script
+ * using the Redis server clock, so every instance draws from the same budget.
+ * <p>
+ * To keep Redis off the hot path each instance reserves {@code pre-allowance} tokens per call
+ * and hands them out locally for up to {@code allowance-ttl-ms}; reserved but unused tokens
+ * simply lapse. If the script fails or takes longer than {@code redis-timeout-ms}, Redis is
+ * skipped for {@code redis-backoff-ms} and {@link #tryAcquire} returns null so the caller can
+ * fall back to its local bucket. Script calls run on at most {@code redis-threads} threads; when
+ * all of them are still waiting on Redis, Redis counts as unavailable too, so a slow Redis cannot
+ * pile up one thread per request.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "analytics.rate-limiter.mode", havingValue = "distributed")
+public class RedisGcraRateLimiter {
+
+    // KEYS[1] = state key; ARGV = emission interval (us), burst tolerance (us), tokens wanted.
+    // Returns the number of tokens granted (0 when the client is over its rate).
+    private static final String GCRA_SCRIPT = """
+            local t = redis.call('TIME')
+            local now = tonumber(t[1]) * 1000000 + tonumber(t[2])
+            local interval = tonumber(ARGV[1])
+            local tolerance = tonumber(ARGV[2])
+            local wanted = tonumber(ARGV[3])
+            local tat = tonumber(redis.call('GET', KEYS[1]) or now)
+            if tat < now then tat = now end
+            local granted = math.min(wanted, math.floor((now + tolerance - tat) / interval))
+            if granted < 1 then return 0 end
+            tat = tat + granted * interval
+            redis.call('SET', KEYS[1], string.format('%.0f', tat), 'PX', math.ceil((tat - now) / 1000) + 1)
+            return granted
+            """;
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<Long> script = new DefaultRedisScript<>(GCRA_SCRIPT, Long.class);
+    private final String intervalMicros;
+    private final String toleranceMicros;
+    private final String preAllowance;
+    private final long allowanceTtlNanos;
+    private final long redisTimeoutMs;
+    private final long backoffNanos;
+    private final Cache<String, Allowance> allowances;
+    private final ThreadPoolExecutor redisCalls;
+    private volatile long redisSkippedUntil = System.nanoTime();
+
+    public RedisGcraRateLimiter(StringRedisTemplate redis,
+                                @Value("${analytics.rate-limiter.tokens-per-second:200}") double tokensPerSecond,
+                                @Value("${analytics.rate-limiter.bucket-size:400}") int bucketSize,
+                                @Value("${analytics.rate-limiter.pre-allowance:10}") int preAllowance,
+                                @Value("${analytics.rate-limiter.allowance-ttl-ms:1000}") long allowanceTtlMs,
+                                @Value("${analytics.rate-limiter.redis-timeout-ms:20}") long redisTimeoutMs,
+                                @Value("${analytics.rate-limiter.redis-backoff-ms:5000}") long redisBackoffMs,
+                                @Value("${analytics.rate-limiter.max-clients:100000}") int maxClients,
+                                @Value("${analytics.rate-limiter.redis-threads:8}") int redisThreads) {
+        this.redis = redis;
+        long interval = Math.max(1, (long) (1_000_000 / tokensPerSecond));
+        this.intervalMicros = Long.toString(interval);
+        this.toleranceMicros = Long.toString(interval * bucketSize);
+        this.preAllowance = Integer.toString(Math.max(1, preAllowance));
+        this.allowanceTtlNanos = TimeUnit.MILLISECONDS.toNanos(allowanceTtlMs);
+        this.redisTimeoutMs = redisTimeoutMs;
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(redisBackoffMs);
+        this.allowances = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofMillis(Math.max(allowanceTtlMs, 1000)))
+                .build();
+        // no queue: a call that finds every thread busy is rejected at once rather than waiting its turn
+        this.redisCalls = new ThreadPoolExecutor(redisThreads, redisThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "rate-limiter-redis");
+            t.setDaemon(true);
+            return t;
+        });
+        this.redisCalls.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void stop() {
+        redisCalls.shutdownNow();
+    }
+
+    /**
+     * TRUE or FALSE from the cluster-wide budget, or null when Redis is slow or unavailable
+     * and the caller should decide locally.
+     */
+    public Boolean tryAcquire(String client) {
+        long now = System.nanoTime();
+        Allowance allowance = allowances.get(client, k -> new Allowance());
+        if (allowance.tryTake(now)) return Boolean.TRUE;
+        if (now - redisSkippedUntil < 0) return null;
+
+        Long granted;
+        try {
+            granted = CompletableFuture
+                    .supplyAsync(() -> redis.execute(script, List.of("rl:" + client), intervalMicros, toleranceMicros, preAllowance), redisCalls)
+                    .get(redisTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            redisSkippedUntil = now + backoffNanos;
+            log.warn("Distributed rate limiter unavailable, using local buckets for {}ms: {}",
+                    TimeUnit.NANOSECONDS.toMillis(backoffNanos), e.toString());
+            return null;
+        }
+        if (granted == null || granted <= 0) return Boolean.FALSE;
+        // one token is used by this request, the rest are handed out locally
+        allowance.grant(granted.intValue() - 1, now, now + allowanceTtlNanos);
+        return Boolean.TRUE;
+    }
+
+    private static final class Allowance {
+        private final AtomicInteger tokens = new AtomicInteger();
+        private volatile long expiresAt = System.nanoTime();
+
+        boolean tryTake(long now) {
+            if (now - expiresAt > 0) return false;
+            while (true) {
+                int t = tokens.get();
+                if (t <= 0) return false;
+                if (tokens.compareAndSet(t, t - 1)) return true;
+            }
+        }
+
+        // concurrent misses for one client each reserved tokens in Redis, so their grants add up;
+        // only tokens left from an expired reservation lapse
+        synchronized void grant(int n, long now, long expiresAt) {
+            if (now - this.expiresAt > 0) tokens.set(n);
+            else tokens.addAndGet(n);
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.util;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Approximate "seen within the last window" set: {@code generations} Bloom filters, each taking
+ * the insertions of one window / generations slice of the clock. A lookup probes every live
+ * generation and an insert goes to the newest; when the clock enters a new slice the oldest
+ * generation is dropped whole, so an id is remembered for between window - slice and window.
+ *
+ * <p>Each filter is a fixed bitset probed at {@link #hashes()} positions derived from one 128-bit
+ * MurmurHash3 (double hashing), so a lookup is O(hashes x generations) whatever the number of ids.
+ * There are no false negatives within the window; a lookup's false-positive rate is at most the
+ * sum of the live generations' rates. Thread-safe: bits are set with atomic ORs.
+ */
+public class RollingBloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final int generations;
+    private final long sliceMs;
+    private final long bits;
+    private final int hashes;
+    private final AtomicReferenceArray<AtomicLongArray> filters;
+    private volatile long currentSlice = Long.MIN_VALUE;
+
+    public RollingBloomFilter(Duration window, int generations, long bitsPerGeneration, int hashes) {
+        if (generations < 2) throw new IllegalArgumentException("generations must be at least 2");
+        if (bitsPerGeneration < 64 || Math.ceilDiv(bitsPerGeneration, 64) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bitsPerGeneration out of range: " + bitsPerGeneration);
+        }
+        if (hashes <= 0) throw new IllegalArgumentException("hashes must be positive");
+        this.generations = generations;
+        this.sliceMs = Math.max(1, window.toMillis() / generations);
+        this.bits = bitsPerGeneration;
+        this.hashes = hashes;
+        this.filters = new AtomicReferenceArray<>(generations);
+        for (int i = 0; i < generations; i++) filters.set(i, newFilter());
+    }
+
+    /** Bits a filter needs to hold {@code insertions} ids at false-positive rate {@code fpp}. */
+    public static long optimalBits(long insertions, double fpp) {
+        if (fpp <= 0 || fpp >= 1) throw new IllegalArgumentException("fpp must be in (0, 1)");
+        return Math.max(64, (long) Math.ceil(-Math.max(1, insertions) * Math.log(fpp) / (LN2 * LN2)));
+    }
+
+    /** Hash count that minimises the false-positive rate of {@code bits} bits holding {@code insertions} ids. */
+    public static int optimalHashes(long bits, long insertions) {
+        return Math.max(1, (int) Math.round((double) bits / Math.max(1, insertions) * LN2));
+    }
+
+    /** False-positive rate of one filter of {@code bits} bits and {@code hashes} hashes holding {@code insertions} ids. */
+    public static double falsePositiveRate(long bits, int hashes, long insertions) {
+        return Math.pow(1 - Math.exp(-(double) hashes * insertions / bits), hashes);
+    }
+
+    public int generations() {
+        return generations;
+    }
+
+    public long bitsPerGeneration() {
+        return bits;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    public long sliceMs() {
+        return sliceMs;
+    }
+
+    /** Bytes held by all generations' bitsets. */
+    public long memoryBytes() {
+        return Math.ceilDiv(bits, 64) * 8L * generations;
+    }
+
+    /** Bit positions probed for an id, shared by every generation. */
+    public long[] positions(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        long[] h = MurmurHash3.hash128x64(bytes, 0, bytes.length, 0);
+        long[] positions = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            positions[i] = Math.floorMod(h[0] + i * h[1], bits);
+        }
+        return positions;
+    }
+
+    /** Start (epoch ms) of each live generation at nowMs, newest first. */
+    public long[] generationStarts(long nowMs) {
+        long slice = Math.floorDiv(nowMs, sliceMs);
+        long[] starts = new long[generations];
+        for (int i = 0; i < generations; i++) starts[i] = (slice - i) * sliceMs;
+        return starts;
+    }
+
+    /** True when every position is set in some live generation, i.e. the id was probably added within the window. */
+    public boolean mightContain(long[] positions, long nowMs) {
+        roll(nowMs);
+        for (int i = 0; i < generations; i++) {
+            if (containsAll(filters.get(i), positions)) return true;
+        }
+        return false;
+    }
+
+    /** Adds the id to the newest generation; returns false when it was already fully set there. */
+    public boolean put(long[] positions, long nowMs) {
+        AtomicLongArray current = filters.get(roll(nowMs));
+        boolean changed = false;
+        for (long p : positions) {
+            long mask = 1L << p;
+            changed |= (current.getAndAccumulate((int) (p >>> 6), mask, (a, b) -> a | b) & mask) == 0;
+        }
+        return changed;
+    }
+
+    private static boolean containsAll(AtomicLongArray filter, long[] positions) {
+        for (long p : positions) {
+            if ((filter.get((int) (p >>> 6)) & (1L << p)) == 0) return false;
+        }
+        return true;
+    }
+
+    // moves to nowMs's slice, replacing each generation the clock has left behind; returns the newest one's index
+    private int roll(long nowMs) {
+        long slice = Math.floorDiv(nowMs, sliceMs);
+        if (slice > currentSlice) {
+            synchronized (this) {
+                long from = currentSlice;
+                if (slice > from) {
+                    // fresh arrays rather than clearing in place, so a concurrent probe never sees a half-cleared filter
+                    long steps = from == Long.MIN_VALUE ? 0 : Math.min(slice - from, generations);
+                    for (long s = slice - steps + 1; s <= slice; s++) {
+                        filters.set(index(s), newFilter());
+                    }
+                    currentSlice = slice;
+                }
+            }
+        }
+        return index(Math.max(slice, currentSlice));
+    }
+
+    private int index(long slice) {
+        return (int) Math.floorMod(slice, (long) generations);
+    }
+
+    private AtomicLongArray newFilter() {
+        return new AtomicLongArray((int) Math.ceilDiv(bits, 64));
+    }
+}
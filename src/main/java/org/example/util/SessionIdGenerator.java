@@ -1,19 +1,23 @@
 package org.example.util;
 
+import org.apache.commons.codec.digest.MurmurHash3;
+
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.HexFormat;
 
+/**
+ * Fallback session id for events sent without one while the session engine is off: the user plus
+ * the fixed {@code window} the timestamp falls in, so all of a user's events in that window share
+ * an id whatever page they are on. Unlike the engine's inactivity-gap sessions, a visit that
+ * crosses a window boundary is split in two.
+ */
 public class SessionIdGenerator {
-    public static String generate(String userId, String pageUrl, Instant timestamp) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            String base = userId + "|" + pageUrl + "|" + (timestamp.getEpochSecond() / (1000 * 60));
-            byte[] h = md.digest(base.getBytes(StandardCharsets.UTF_8));
-            return userId + "-" + HexFormat.of().formatHex(h).substring(0, 12);
-        } catch (Exception e) {
-            return userId + "-" + timestamp;
-        }
+    public static String generate(String userId, Instant timestamp, Duration window) {
+        String base = userId + "|" + Math.floorDiv(timestamp.toEpochMilli(), window.toMillis());
+        byte[] bytes = base.getBytes(StandardCharsets.UTF_8);
+        long[] h = MurmurHash3.hash128x64(bytes, 0, bytes.length, 0);
+        return userId + "-" + HexFormat.of().toHexDigits(h[0]).substring(0, 12);
     }
 }
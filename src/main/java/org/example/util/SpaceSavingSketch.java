@@ -0,0 +1,117 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitters summary (Metwally et al.) over at most {@code capacity} keys.
+ * Every key whose true count exceeds total / capacity is guaranteed to be tracked, and a
+ * tracked key's count overestimates the truth by at most its {@link Item#error()}.
+ * Counters sit in an indexed min-heap, so each offer is O(log capacity). Summaries merge by
+ * offering one into the other. Not thread-safe.
+ */
+public class SpaceSavingSketch {
+
+    public record Item(String key, long count, long error) {}
+
+    private static final class Entry {
+        String key;
+        long count;
+        long error;
+        int heapIndex;
+    }
+
+    private final int capacity;
+    private final Map<String, Entry> index;
+    private final Entry[] heap;
+    private int size;
+
+    public SpaceSavingSketch(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.index = new HashMap<>(capacity * 2);
+        this.heap = new Entry[capacity];
+    }
+
+    public void offer(String key) {
+        offer(key, 1);
+    }
+
+    public void offer(String key, long count) {
+        Entry e = index.get(key);
+        if (e != null) {
+            e.count += count;
+            siftDown(e.heapIndex);
+            return;
+        }
+        if (size < capacity) {
+            e = new Entry();
+            e.key = key;
+            e.count = count;
+            e.heapIndex = size;
+            heap[size++] = e;
+            index.put(key, e);
+            siftUp(e.heapIndex);
+            return;
+        }
+        // evict the minimum; the newcomer inherits its count as error
+        Entry min = heap[0];
+        index.remove(min.key);
+        min.key = key;
+        min.error = min.count;
+        min.count += count;
+        index.put(key, min);
+        siftDown(0);
+    }
+
+    public void merge(SpaceSavingSketch other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.heap[i].key, other.heap[i].count);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The n highest counts, largest first. */
+    public List<Item> top(int n) {
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) items.add(new Item(heap[i].key, heap[i].count, heap[i].error));
+        items.sort(Comparator.comparingLong(Item::count).reversed());
+        return items.size() > n ? new ArrayList<>(items.subList(0, n)) : items;
+    }
+
+    private void siftUp(int i) {
+        Entry e = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= e.count) break;
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(e, i);
+    }
+
+    private void siftDown(int i) {
+        Entry e = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].count < heap[child].count) child = right;
+            if (e.count <= heap[child].count) break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(e, i);
+    }
+
+    private void place(Entry e, int i) {
+        heap[i] = e;
+        e.heapIndex = i;
+    }
+}
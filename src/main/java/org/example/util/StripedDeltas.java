@@ -0,0 +1,109 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * In-memory deltas split over 2 x cores stripes (rounded up to a power of two), each behind its
+ * own ReentrantLock, so concurrent updates rarely wait on each other and a periodic flush can
+ * drain them without stopping writers: {@link #drain()} swaps each stripe's state for a fresh one
+ * and the caller merges and writes the old states outside any stripe lock.
+ *
+ * <p>An update starts at a random stripe and moves on to the next while locks are held, blocking
+ * only when every stripe is busy. Picking by thread id instead gives no affinity once callers are
+ * short-lived virtual threads, and never moves off a stripe that is contended.
+ *
+ * @param <T> one stripe's accumulator; only touched under that stripe's lock
+ */
+public final class StripedDeltas<T> {
+    private final Supplier<T> factory;
+    private final Predicate<T> isEmpty;
+    private final ReentrantLock[] locks;
+    private final Object[] states;
+    private final int mask;
+
+    public StripedDeltas(Supplier<T> factory, Predicate<T> isEmpty) {
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.factory = factory;
+        this.isEmpty = isEmpty;
+        this.locks = new ReentrantLock[n];
+        this.states = new Object[n];
+        this.mask = n - 1;
+        for (int i = 0; i < n; i++) {
+            locks[i] = new ReentrantLock();
+            states[i] = factory.get();
+        }
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+
+    /** Runs fn on one stripe's state under its lock. */
+    public void update(Consumer<? super T> fn) {
+        int i = lock();
+        try {
+            fn.accept(state(i));
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /** Runs fn on one stripe's state under its lock and returns its result. */
+    public <R> R apply(Function<? super T, R> fn) {
+        int i = lock();
+        try {
+            return fn.apply(state(i));
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    /** Swaps every non-empty stripe's state for a fresh one and returns the old states. */
+    public List<T> drain() {
+        List<T> drained = new ArrayList<>();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i].lock();
+            try {
+                T state = state(i);
+                if (isEmpty.test(state)) continue;
+                drained.add(state);
+                states[i] = factory.get();
+            } finally {
+                locks[i].unlock();
+            }
+        }
+        return drained;
+    }
+
+    /** Runs merge on one stripe's state under its lock, e.g. to hand back deltas a failed flush could not write. */
+    public void restore(Consumer<? super T> merge) {
+        locks[0].lock();
+        try {
+            merge.accept(state(0));
+        } finally {
+            locks[0].unlock();
+        }
+    }
+
+    private int lock() {
+        int i = ThreadLocalRandom.current().nextInt() & mask;
+        for (int tries = 1; tries < locks.length; tries++) {
+            if (locks[i].tryLock()) return i;
+            i = (i + 1) & mask;
+        }
+        locks[i].lock();
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T state(int i) {
+        return (T) states[i];
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.util;
+
+import java.time.Duration;
+
+/**
+ * Fixed-width, epoch-aligned time buckets. A window of length W ending at "now" is the
+ * bucket containing now plus the ceil(W / bucket) - 1 buckets before it, so it always
+ * covers between W - bucket and W of history, and never any of the future.
+ */
+public final class TimeBuckets {
+    private final long bucketMs;
+
+    public TimeBuckets(Duration bucket) {
+        if (bucket == null || bucket.toMillis() <= 0) {
+            throw new IllegalArgumentException("bucket must be at least 1ms");
+        }
+        this.bucketMs = bucket.toMillis();
+    }
+
+    public long bucketMs() {
+        return bucketMs;
+    }
+
+    public long bucketStart(long epochMs) {
+        return Math.floorDiv(epochMs, bucketMs) * bucketMs;
+    }
+
+    public int bucketCount(Duration window) {
+        return (int) Math.max(1, Math.ceilDiv(window.toMillis(), bucketMs));
+    }
+
+    /** Start times of the buckets making up the window ending at nowMs, oldest first. */
+    public long[] windowStarts(long nowMs, Duration window) {
+        int n = bucketCount(window);
+        long newest = bucketStart(nowMs);
+        long[] starts = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = newest - (long) (n - 1 - i) * bucketMs;
+        }
+        return starts;
+    }
+}
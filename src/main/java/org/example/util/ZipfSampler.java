@@ -0,0 +1,70 @@
+package org.example.util;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Draws ranks 1..n with P(k) proportional to 1 / k^exponent, in O(1) time and memory per
+ * sample, using Hörmann and Derflinger's rejection-inversion method ("Rejection-inversion to
+ * generate variates from monotone discrete distributions", 1996). Stateless apart from the
+ * precomputed constants, so one instance can be shared; the caller supplies the random source.
+ */
+public final class ZipfSampler {
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    public ZipfSampler(int n, double exponent) {
+        if (n < 1) throw new IllegalArgumentException("n must be at least 1");
+        if (exponent <= 0) throw new IllegalArgumentException("exponent must be positive");
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    public int n() {
+        return n;
+    }
+
+    /** A rank in [1, n]; rank 1 is the most popular. */
+    public int sample(RandomGenerator rnd) {
+        while (true) {
+            double u = hIntegralN + rnd.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1) k = 1;
+            else if (k > n) k = n;
+            // accept immediately inside the squeeze, otherwise against the exact bound
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) return k;
+        }
+    }
+
+    // H(x) = integral of h from 1 to x, written to stay accurate as exponent approaches 1
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) t = -1;
+        return Math.exp(helper1(t) * x);
+    }
+
+    // log1p(x) / x, with its Taylor series near 0
+    private static double helper1(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    // expm1(x) / x, with its Taylor series near 0
+    private static double helper2(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+    }
+}
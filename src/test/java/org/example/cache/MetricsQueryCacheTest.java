@@ -0,0 +1,84 @@
+package org.example.cache;
+
+import org.example.cache.MetricsQueryCache.Metric;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsQueryCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+
+    private MetricsQueryCache cache(long maxSize) {
+        return new MetricsQueryCache(true, maxSize, 1000, 5000, 1000, nanos::get);
+    }
+
+    @Test
+    void get_shouldShareOneLoadAcrossConcurrentCallers() throws Exception {
+        MetricsQueryCache cache = cache(100);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> cache.get(Metric.ACTIVE_USERS, "", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 7L;
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Long> f : results) assertEquals(7L, f.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void get_shouldReloadOnlyAfterPerMetricTtl() {
+        MetricsQueryCache cache = cache(100);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(Metric.ACTIVE_USERS, "", loads::incrementAndGet);
+        cache.get(Metric.PAGE_VIEWS, "/home", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        // active users (1s TTL) expired, page views (5s TTL) still cached
+        assertEquals(3, cache.get(Metric.ACTIVE_USERS, "", loads::incrementAndGet));
+        assertEquals(2, cache.get(Metric.PAGE_VIEWS, "/home", loads::incrementAndGet));
+    }
+
+    @Test
+    void get_shouldNotCacheFailedLoads() {
+        MetricsQueryCache cache = cache(100);
+        assertThrows(RuntimeException.class, () -> cache.get(Metric.ACTIVE_SESSIONS, "u1", () -> {
+            throw new IllegalStateException("redis down");
+        }));
+        assertEquals(3, cache.get(Metric.ACTIVE_SESSIONS, "u1", () -> 3L));
+    }
+
+    @Test
+    void get_shouldBypassCacheWhenDisabled() {
+        MetricsQueryCache cache = new MetricsQueryCache(false, 100, 1000, 1000, 1000, nanos::get);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(Metric.ACTIVE_USERS, "", loads::incrementAndGet);
+        cache.get(Metric.ACTIVE_USERS, "", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+    }
+}
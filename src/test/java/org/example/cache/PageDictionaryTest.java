@@ -0,0 +1,53 @@
+package org.example.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageDictionaryTest {
+
+    @Test
+    void canonical_shouldDropQueryFragmentHostAndTrailingSlashByDefault() {
+        PageDictionary pages = new PageDictionary();
+        assertEquals("/search", pages.canonical("/search?q=shoes"));
+        assertEquals("/search", pages.canonical("https://Shop.example/search/?q=boots#results"));
+        assertEquals("/", pages.canonical("https://shop.example"));
+        assertEquals("/", pages.canonical("/"));
+        assertEquals("/home", pages.canonical(" home "));
+        assertEquals("/Product/123", pages.canonical("/Product/123//"));
+        assertNull(pages.canonical(null));
+    }
+
+    @Test
+    void canonical_shouldKeepAllowlistedParamsSorted() {
+        PageDictionary pages = new PageDictionary(List.of("q", "page"), true, true, true, 100);
+        assertEquals("//shop.example/search?page=2&q=shoes",
+                pages.canonical("HTTPS://Shop.Example/Search/?utm_source=x&q=shoes&page=2"));
+        assertEquals("/category/electronics", pages.canonical("/Category/Electronics?sort=asc"));
+    }
+
+    @Test
+    void canonical_shouldBeIdempotent() {
+        for (PageDictionary pages : List.of(new PageDictionary(),
+                new PageDictionary(List.of("q"), true, true, true, 100),
+                new PageDictionary(List.of("q"), false, false, false, 100))) {
+            for (String raw : List.of("/search?q=a&x=1", "https://h.example/A/b/?q=1#f", "//h.example/", "checkout")) {
+                String once = pages.canonical(raw);
+                assertEquals(once, pages.canonical(once), raw);
+            }
+        }
+    }
+
+    @Test
+    void id_shouldBeStableCompactAndSharedBySpellings() {
+        PageDictionary pages = new PageDictionary();
+        String id = pages.id("/search?q=shoes");
+        assertEquals(16, id.length());
+        assertEquals(id, pages.id("/search/"));
+        assertEquals(id, new PageDictionary().id("https://other.example/search#x"));
+        assertEquals(PageDictionary.idOf("/search"), id);
+        assertNotEquals(id, pages.id("/checkout"));
+    }
+}
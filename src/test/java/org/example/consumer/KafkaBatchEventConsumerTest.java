@@ -0,0 +1,96 @@
+package org.example.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.WireFormat;
+import org.example.service.AnalyticsService;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.util.BinaryEventSerializer;
+import org.example.util.EventWireCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+class KafkaBatchEventConsumerTest {
+    private AnalyticsService analyticsService;
+    private DeadLetterPublishingRecoverer recoverer;
+    private Acknowledgment ack;
+    private EventTimeWatermarks watermarks;
+    private KafkaBatchEventConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        analyticsService = mock(AnalyticsService.class);
+        recoverer = mock(DeadLetterPublishingRecoverer.class);
+        ack = mock(Acknowledgment.class);
+        watermarks = mock(EventTimeWatermarks.class);
+        when(watermarks.admit(any(), any())).thenReturn(true);
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        consumer = new KafkaBatchEventConsumer(analyticsService, new EventWireCodec(mapper, WireFormat.JSON), recoverer,
+                new ConsumerMetrics(new SimpleMeterRegistry(), 1000), watermarks);
+    }
+
+    private ConsumerRecord<String, byte[]> record(long offset, String value) {
+        return new ConsumerRecord<>("user_events", 0, offset, "key", value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String event(String url) {
+        return "{\"userId\":\"" + UUID.randomUUID() + "\",\"pageUrl\":\"" + url
+                + "\",\"eventType\":\"PAGE_VIEW\",\"eventTimestamp\":\"2025-11-28T12:00:00Z\"}";
+    }
+
+    @Test
+    void listen_shouldProcessWholeBatchAndAckOnce() {
+        consumer.listen(List.of(record(0, event("/home")), record(1, event("/checkout"))), ack);
+        verify(analyticsService).processBatch(argThat(events -> events.size() == 2));
+        verify(analyticsService, never()).process(any(UserEventInputRequest.class));
+        verify(ack, times(1)).acknowledge();
+        verifyNoInteractions(recoverer);
+    }
+
+    @Test
+    void listen_shouldRouteBadRecordToDltAndKeepTheRest() {
+        ConsumerRecord<String, byte[]> bad = record(1, "bad_json");
+        ConsumerRecord<String, byte[]> missingUser = record(2, "{\"pageUrl\":\"/home\"}");
+        consumer.listen(List.of(record(0, event("/home")), bad, missingUser, record(3, event("/cart"))), ack);
+        verify(recoverer).accept(eq(bad), any(Exception.class));
+        verify(recoverer).accept(eq(missingUser), any(IllegalArgumentException.class));
+        verify(analyticsService).processBatch(argThat(events -> events.size() == 2));
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    void listen_shouldDecodeJsonAndBinaryRecordsInOneBatch() {
+        byte[] bin = BinaryEventSerializer.encode(UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/product/1").build());
+        ConsumerRecord<String, byte[]> binary = new ConsumerRecord<>("user_events", 0, 1, "key", bin);
+        binary.headers().add(EventWireCodec.FORMAT_HEADER, EventWireCodec.BINARY_HEADER_VALUE);
+        consumer.listen(List.of(record(0, event("/home")), binary), ack);
+        verify(analyticsService).processBatch(argThat(events -> events.size() == 2
+                && events.get(1).getPageUrl().equals("/product/1")));
+        verifyNoInteractions(recoverer);
+    }
+
+    @Test
+    void listen_shouldLeaveOutRecordsTooLateForTheWatermark() {
+        ConsumerRecord<String, byte[]> late = record(1, event("/late"));
+        when(watermarks.admit(eq(late), any())).thenReturn(false);
+        consumer.listen(List.of(record(0, event("/home")), late), ack);
+        verify(analyticsService).processBatch(argThat(events -> events.size() == 1
+                && events.get(0).getPageUrl().equals("/home")));
+        verify(ack).acknowledge();
+        verifyNoInteractions(recoverer);
+    }
+}
@@ -1,40 +1,69 @@
 package org.example.consumer;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.example.dto.UserEventInputRequest;
 import org.example.service.AnalyticsService;
+import org.example.service.impl.EventTimeWatermarks;
+import org.example.util.EventWireCodec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class KafkaEventConsumerTest {
     private AnalyticsService analyticsService;
-    private ObjectMapper mapper;
+    private EventWireCodec codec;
     private KafkaEventConsumer consumer;
+    private Acknowledgment ack;
+    private SimpleMeterRegistry registry;
 
     @BeforeEach
     void setUp() {
         analyticsService = mock(AnalyticsService.class);
-        mapper = mock(ObjectMapper.class);
-        consumer = new KafkaEventConsumer(analyticsService, mapper);
+        codec = mock(EventWireCodec.class);
+        registry = new SimpleMeterRegistry();
+        EventTimeWatermarks watermarks = mock(EventTimeWatermarks.class);
+        when(watermarks.admit(any(), any())).thenReturn(true);
+        consumer = new KafkaEventConsumer(analyticsService, codec, new ConsumerMetrics(registry, 1000), watermarks);
+        ack = mock(Acknowledgment.class);
     }
 
     @Test
     void listen_shouldProcessValidMessage() throws Exception {
-        String msg = "{}";
+        ConsumerRecord<String, byte[]> msg = new ConsumerRecord<>("user_events", 0, 0, "key", "{}".getBytes());
         UserEventInputRequest req = mock(UserEventInputRequest.class);
-        when(mapper.readValue(msg, UserEventInputRequest.class)).thenReturn(req);
-        consumer.listen(msg);
+        when(codec.decode(msg)).thenReturn(req);
+        consumer.listen(msg, ack);
         verify(analyticsService).process(req);
+        verify(ack).acknowledge();
     }
 
     @Test
     void listen_shouldHandleException() throws Exception {
-        String msg = "bad_json";
-        when(mapper.readValue(msg, UserEventInputRequest.class)).thenThrow(new RuntimeException("fail"));
-        consumer.listen(msg);
+        ConsumerRecord<String, byte[]> msg = new ConsumerRecord<>("user_events", 0, 0, "key", "bad_json".getBytes());
+        when(codec.decode(msg)).thenThrow(new RuntimeException("fail"));
+        consumer.listen(msg, ack);
         // Should not throw
+        verify(ack).acknowledge();
+        assertEquals(1, registry.get("analytics.consumer.failures").tag("stage", "decode").counter().count());
+    }
+
+    @Test
+    void listen_shouldRecordStageTimingsAndEventAge() throws Exception {
+        ConsumerRecord<String, byte[]> msg = new ConsumerRecord<>("user_events", 0, 0, "key", "{}".getBytes());
+        UserEventInputRequest req = UserEventInputRequest.builder().eventTimestamp(Instant.now().minusSeconds(5)).build();
+        when(codec.decode(msg)).thenReturn(req);
+        consumer.listen(msg, ack);
+        assertEquals(1, registry.get("analytics.consumer.deserialize").timer().count());
+        assertEquals(1, registry.get("analytics.consumer.process").timer().count());
+        assertTrue(registry.get("analytics.event.age").timer().totalTime(TimeUnit.SECONDS) >= 5);
     }
 }
 
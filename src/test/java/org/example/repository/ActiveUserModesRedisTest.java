@@ -0,0 +1,96 @@
+package org.example.repository;
+
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.ActiveUserMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares EXACT and APPROXIMATE active-user counting on the same generated workload.
+ * Runs against a local redis-server (database 15, flushed before each test) and is skipped
+ * when none is reachable.
+ */
+class ActiveUserModesRedisTest {
+    private static final int REDIS_DB = 15;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getenv().getOrDefault("REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379")));
+        config.setDatabase(REDIS_DB);
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        boolean up;
+        try (RedisConnection c = factory.getConnection()) {
+            c.serverCommands().flushDb();
+            up = true;
+        } catch (Exception e) {
+            up = false;
+        }
+        assumeTrue(up, "redis-server not reachable");
+        redis = new StringRedisTemplate(factory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        factory.destroy();
+    }
+
+    @Test
+    void approximateMode_shouldStayWithinErrorBoundOfExactMode() {
+        AnalyticsDataRepository exact = new AnalyticsDataRepository(redis, 60, ActiveUserMode.EXACT);
+        AnalyticsDataRepository approx = new AnalyticsDataRepository(redis, 60, ActiveUserMode.APPROXIMATE);
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        int activeUsers = 20_000;
+
+        List<UserEventInputRequest> events = new ArrayList<>();
+        for (int i = 0; i < activeUsers; i++) {
+            UUID user = new UUID(random.nextLong(), random.nextLong());
+            // several events per user, all inside the last three minutes
+            for (int e = 0; e < 1 + random.nextInt(4); e++) {
+                events.add(event(user, now - random.nextInt(180_000)));
+            }
+            // users last seen 20 minutes ago must not be counted by either mode
+            if (i % 4 == 0) events.add(event(new UUID(random.nextLong(), random.nextLong()), now - 1_200_000));
+        }
+        for (int from = 0; from < events.size(); from += 1000) {
+            List<UserEventInputRequest> chunk = events.subList(from, Math.min(events.size(), from + 1000));
+            exact.recordEvents(chunk);
+            approx.recordEvents(chunk);
+        }
+
+        long exactCount = exact.countActiveUsers(now);
+        long approxCount = approx.countActiveUsers(now);
+        assertEquals(activeUsers, exactCount);
+        // HyperLogLog standard error is 0.81%; allow three standard deviations
+        assertEquals(exactCount, approxCount, exactCount * 0.0243);
+    }
+
+    private UserEventInputRequest event(UUID user, long tsMs) {
+        return UserEventInputRequest.builder()
+                .userId(user)
+                .pageUrl("/home")
+                .sessionId("s-" + user)
+                .eventTimestamp(Instant.ofEpochMilli(tsMs))
+                .build();
+    }
+}
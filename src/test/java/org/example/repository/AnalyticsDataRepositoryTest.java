@@ -2,11 +2,25 @@ package org.example.repository;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.HyperLogLogOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.SetOperations;
+import org.example.cache.PageDictionary;
+import org.example.dto.SessionWindow;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.ActiveUserMode;
+import org.example.enums.EventType;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,19 +41,87 @@ class AnalyticsDataRepositoryTest {
         repo = new AnalyticsDataRepository(redis);
     }
 
+    private StringRedisConnection runPipeline() {
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis).executePipelined(callback.capture());
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(conn);
+        return conn;
+    }
+
     @Test
     void markActiveUser_shouldAddAndRemove() {
         UUID userId = UUID.randomUUID();
-        Instant ts = Instant.now();
+        Instant ts = Instant.now().minusSeconds(3600);
         repo.markActiveUser(userId, ts);
-        verify(zsetOps).add(anyString(), eq(userId.toString()), anyDouble());
+        StringRedisConnection conn = runPipeline();
+        verify(conn).zAdd(eq("active_users"), eq((double) ts.toEpochMilli()), eq(userId.toString()));
+        // trim bound is in milliseconds, five minutes before the event
+        verify(conn).zRemRangeByScore(eq("active_users"), eq(0.0), eq((double) (ts.toEpochMilli() - 300_000)));
     }
 
     @Test
-    void addPageView_shouldAddAndExpire() {
-        repo.addPageView("/home", Instant.now());
-        verify(zsetOps).add(anyString(), anyString(), anyDouble());
-        verify(redis).expire(anyString(), any());
+    void markActiveUser_shouldWriteMinuteHyperLogLogInApproximateMode() {
+        AnalyticsDataRepository approx = new AnalyticsDataRepository(redis, 60, ActiveUserMode.APPROXIMATE);
+        UUID userId = UUID.randomUUID();
+        Instant ts = Instant.parse("2025-11-28T12:00:42Z");
+        approx.markActiveUser(userId, ts);
+        StringRedisConnection conn = runPipeline();
+        long minute = Instant.parse("2025-11-28T12:00:00Z").getEpochSecond();
+        verify(conn).pfAdd("au:" + minute, userId.toString());
+        verify(conn).expireAt("au:" + minute, minute + 300);
+        verify(conn, never()).zAdd(anyString(), anyDouble(), anyString());
+    }
+
+    @Test
+    void countActiveUsers_shouldPfCountLastFiveMinutesInApproximateMode() {
+        HyperLogLogOperations<String, String> hllOps = mock(HyperLogLogOperations.class);
+        when(redis.opsForHyperLogLog()).thenReturn(hllOps);
+        when(hllOps.size(any(String[].class))).thenReturn(42L);
+        AnalyticsDataRepository approx = new AnalyticsDataRepository(redis, 60, ActiveUserMode.APPROXIMATE);
+
+        long now = Instant.parse("2025-11-28T12:04:10Z").toEpochMilli();
+        assertEquals(42, approx.countActiveUsers(now));
+        long first = Instant.parse("2025-11-28T12:00:00Z").getEpochSecond();
+        verify(hllOps).size("au:" + first, "au:" + (first + 60), "au:" + (first + 120), "au:" + (first + 180), "au:" + (first + 240));
+        verifyNoInteractions(zsetOps);
+    }
+
+    @Test
+    void addPageView_shouldIncrementBucketAndExpire() {
+        Instant ts = Instant.parse("2025-11-28T12:00:30Z");
+        repo.addPageView("/home", ts);
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis).executePipelined(callback.capture());
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(conn);
+        long bucket = Instant.parse("2025-11-28T12:00:00Z").getEpochSecond();
+        verify(conn).incrBy(argThat((String k) -> k.startsWith("pv:") && k.endsWith(":" + bucket)), eq(1L));
+        // kept until the last 15 minute window containing the bucket has passed
+        verify(conn).expireAt(anyString(), eq(bucket + 15 * 60));
+        verifyNoInteractions(zsetOps);
+    }
+
+    @Test
+    void countPageViews_shouldSumBucketsInWindow() {
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        when(valueOps.multiGet(anyCollection())).thenReturn(Arrays.asList("3", null, "4"));
+
+        assertEquals(7, repo.countPageViews("/home", System.currentTimeMillis()));
+        verify(valueOps).multiGet(argThat(keys -> keys.size() == 15));
+    }
+
+    @Test
+    void countPageViewsInBucket_shouldReadOnlyTheEventsBucket() {
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        long bucket = Instant.parse("2025-11-28T12:00:00Z").getEpochSecond();
+        when(valueOps.get(argThat((String k) -> k.startsWith("pv:") && k.endsWith(":" + bucket)))).thenReturn("5");
+
+        assertEquals(5, repo.countPageViewsInBucket("/home", Instant.parse("2025-11-28T12:00:42Z").toEpochMilli()));
+        verify(valueOps, never()).multiGet(anyCollection());
     }
 
     @Test
@@ -87,4 +169,130 @@ class AnalyticsDataRepositoryTest {
         assertEquals(0, repo.countSessionsForUser(null));
         assertEquals(0, repo.countSessionsForUser(""));
     }
+
+    @Test
+    void recordEvent_shouldWriteAllMutationsInOnePipeline() {
+        UUID userId = UUID.randomUUID();
+        repo.recordEvent(userId, "/home", "session1", Instant.now());
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis, times(1)).executePipelined(callback.capture());
+        verifyNoInteractions(zsetOps, setOps);
+
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(conn);
+        verify(conn).zAdd(eq("active_users"), anyDouble(), eq(userId.toString()));
+        verify(conn).incrBy(startsWith("pv:"), eq(1L));
+        verify(conn).expireAt(startsWith("pv:"), anyLong());
+        verify(conn).sAdd("sessions:" + userId, "session1");
+        verify(conn).expire(eq("sessions:" + userId), anyLong());
+    }
+
+    @Test
+    void recordEvent_shouldCountEveryTypeAndPageCombinationInTheSamePipeline() {
+        String page = new PageDictionary().id("/home");
+        Instant ts = Instant.parse("2025-11-28T12:00:30Z");
+        repo.recordEvent(UUID.randomUUID(), EventType.CLICK, "/home", "s1", ts);
+        StringRedisConnection conn = runPipeline();
+        String key = "dc:" + Instant.parse("2025-11-28T12:00:00Z").getEpochSecond();
+        verify(conn).hIncrBy(key, "CLICK|" + page, 1L);
+        verify(conn).hIncrBy(key, "CLICK|*", 1L);
+        verify(conn).hIncrBy(key, "*|" + page, 1L);
+        verify(conn).hIncrBy(key, "*|*", 1L);
+        // kept for the hour-long max window after the bucket
+        verify(conn).expireAt(key, Instant.parse("2025-11-28T13:00:00Z").getEpochSecond());
+    }
+
+    @Test
+    void applyDeltas_shouldRollUpPerTypeCountsIntoOneFieldPerCombination() {
+        long minute = Instant.parse("2025-11-28T12:00:00Z").toEpochMilli();
+        long[] home = new long[DimensionalCounter.SLOTS];
+        home[DimensionalCounter.slot(EventType.PAGE_VIEW)] = 3;
+        home[DimensionalCounter.slot(null)] = 1;
+        long[] cart = new long[DimensionalCounter.SLOTS];
+        cart[DimensionalCounter.slot(EventType.PAGE_VIEW)] = 2;
+        repo.applyDeltas(Map.of("/home", Map.of(minute, home), "/cart", Map.of(minute, cart)), Map.of(), Map.of());
+        StringRedisConnection conn = runPipeline();
+        PageDictionary pages = new PageDictionary();
+        String key = "dc:" + minute / 1000;
+        verify(conn).incrBy("pv:" + pages.id("/home") + ":" + minute / 1000, 4L);
+        verify(conn).hIncrBy(key, "PAGE_VIEW|" + pages.id("/home"), 3L);
+        verify(conn).hIncrBy(key, "PAGE_VIEW|*", 5L);
+        verify(conn).hIncrBy(key, "*|" + pages.id("/home"), 4L);
+        verify(conn).hIncrBy(key, "*|*", 6L);
+        verify(conn, times(6)).hIncrBy(eq(key), anyString(), anyLong());
+    }
+
+    @Test
+    void countEvents_shouldSumOneFieldPerBucketInOneRoundTrip() {
+        long now = Instant.parse("2025-11-28T12:04:30Z").toEpochMilli();
+        when(redis.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList("3", null, "4", "1", "2"));
+
+        assertEquals(10, repo.countEvents(EventType.PURCHASE, null, now, Duration.ofMinutes(5)));
+
+        StringRedisConnection conn = runPipeline();
+        verify(conn).hGet("dc:" + Instant.parse("2025-11-28T12:00:00Z").getEpochSecond(), "PURCHASE|*");
+        verify(conn).hGet("dc:" + Instant.parse("2025-11-28T12:04:00Z").getEpochSecond(), "PURCHASE|*");
+        verify(conn, times(5)).hGet(anyString(), eq("PURCHASE|*"));
+    }
+
+    @Test
+    void recordEvent_shouldThrowOnNullOrEmptyInputs() {
+        assertThrows(IllegalArgumentException.class, () -> repo.recordEvent(null, "/home", "s1", Instant.now()));
+        assertThrows(IllegalArgumentException.class, () -> repo.recordEvent(UUID.randomUUID(), "", "s1", Instant.now()));
+        assertThrows(IllegalArgumentException.class, () -> repo.recordEvent(UUID.randomUUID(), "/home", null, Instant.now()));
+        assertThrows(IllegalArgumentException.class, () -> repo.recordEvent(UUID.randomUUID(), "/home", "s1", null));
+    }
+
+    @Test
+    void recordEvents_shouldWriteWholeBatchInOnePipeline() {
+        UserEventInputRequest a = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/home").sessionId("s1").eventTimestamp(Instant.now()).build();
+        UserEventInputRequest b = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/checkout").sessionId("s2").eventTimestamp(Instant.now()).build();
+        repo.recordEvents(List.of(a, b));
+
+        ArgumentCaptor<RedisCallback<Object>> callback = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redis, times(1)).executePipelined(callback.capture());
+        StringRedisConnection conn = mock(StringRedisConnection.class);
+        callback.getValue().doInRedis(conn);
+        verify(conn).sAdd("sessions:" + a.getUserId(), "s1");
+        verify(conn).sAdd("sessions:" + b.getUserId(), "s2");
+    }
+
+    @Test
+    void recordEvents_shouldRejectIncompleteEvents() {
+        UserEventInputRequest noSession = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/home").eventTimestamp(Instant.now()).build();
+        assertThrows(IllegalArgumentException.class, () -> repo.recordEvents(List.of(noSession)));
+        verify(redis, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void recordEvent_shouldLeaveSessionsToTheEngineWhenSessionWindowsAreOn() {
+        AnalyticsDataRepository windowed = new AnalyticsDataRepository(redis, 60, ActiveUserMode.EXACT, true);
+        windowed.recordEvent(UUID.randomUUID(), "/home", "s1", Instant.now());
+        StringRedisConnection conn = runPipeline();
+        verify(conn, never()).sAdd(anyString(), any(String[].class));
+    }
+
+    @Test
+    void applySessionTransitions_shouldTrackOpenSetAndMinuteStats() {
+        UUID user = UUID.randomUUID();
+        Instant start = Instant.parse("2025-11-28T12:00:00Z");
+        SessionWindow opened = SessionWindow.builder().sessionId("s2").userId(user).start(start).build();
+        SessionWindow closed = SessionWindow.builder().sessionId("s1").userId(user)
+                .start(start.minusSeconds(600)).end(start.minusSeconds(300).plusMillis(500))
+                .eventCount(7).distinctPages(3).build();
+        repo.applySessionTransitions(List.of(opened), List.of(), List.of(closed), Duration.ofMinutes(30), Duration.ofHours(25));
+        StringRedisConnection conn = runPipeline();
+        verify(conn).sAdd("sessions:" + user, "s2");
+        verify(conn).sRem("sessions:" + user, "s1");
+        String statsKey = "sess:" + start.minusSeconds(300).getEpochSecond();
+        verify(conn).hIncrBy(statsKey, "n", 1);
+        verify(conn).hIncrBy(statsKey, "dur_ms", 300_500);
+        verify(conn).hIncrBy(statsKey, "events", 7);
+        // 300.5s falls in the <=5m bucket
+        verify(conn).hIncrBy(statsKey, "len1", 1);
+    }
 }
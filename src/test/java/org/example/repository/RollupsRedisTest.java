@@ -0,0 +1,94 @@
+package org.example.repository;
+
+import org.example.enums.RollupResolution;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Rollup add, compaction and read scripts against a local redis-server (database 15, flushed
+ * before each test); skipped when none is reachable.
+ */
+class RollupsRedisTest {
+    private static final int REDIS_DB = 15;
+
+    private LettuceConnectionFactory factory;
+    private AnalyticsDataRepository repo;
+    private final Map<RollupResolution, Duration> retention = new EnumMap<>(RollupResolution.class);
+    private long hour;
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getenv().getOrDefault("REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379")));
+        config.setDatabase(REDIS_DB);
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        boolean up;
+        try (RedisConnection c = factory.getConnection()) {
+            c.serverCommands().flushDb();
+            up = true;
+        } catch (Exception e) {
+            up = false;
+        }
+        assumeTrue(up, "redis-server not reachable");
+        repo = new AnalyticsDataRepository(new StringRedisTemplate(factory));
+        for (RollupResolution res : RollupResolution.values()) retention.put(res, Duration.ofDays(1));
+        // an hour that is still inside the retention, so no key expires during the test
+        long hourMs = Duration.ofHours(1).toMillis();
+        hour = Math.floorDiv(Instant.now().toEpochMilli(), hourMs) * hourMs - hourMs;
+    }
+
+    @AfterEach
+    void tearDown() {
+        factory.destroy();
+    }
+
+    private long minute(int m) {
+        return hour + m * 60_000L;
+    }
+
+    @Test
+    void compaction_shouldFoldEachMinuteOnceAndRouteLateDeltas() {
+        repo.addRollupDeltas(Map.of(minute(0), Map.of("e", 3L), minute(1), Map.of("e", 4L, "t:CLICK", 1L)), retention);
+
+        assertEquals(2, repo.compactRollups(minute(0), minute(60), retention));
+        // a second pass (or another instance) finds every minute already folded
+        assertEquals(0, repo.compactRollups(minute(0), minute(60), retention));
+        assertArrayEquals(new long[]{7}, repo.readRollups("e", RollupResolution.HOUR, new long[]{hour}, new long[0]));
+        assertArrayEquals(new long[]{1}, repo.readRollups("t:CLICK", RollupResolution.HOUR, new long[]{hour}, new long[0]));
+
+        // late delta for a folded minute lands in the minute, its hour and its day
+        repo.addRollupDeltas(Map.of(minute(0), Map.of("e", 2L)), retention);
+        assertArrayEquals(new long[]{5}, repo.readRollups("e", RollupResolution.MINUTE, new long[]{minute(0)}, new long[0]));
+        assertArrayEquals(new long[]{9}, repo.readRollups("e", RollupResolution.HOUR, new long[]{hour}, new long[0]));
+        long day = Math.floorDiv(hour, Duration.ofDays(1).toMillis()) * Duration.ofDays(1).toMillis();
+        assertArrayEquals(new long[]{9}, repo.readRollups("e", RollupResolution.DAY, new long[]{day}, new long[0]));
+    }
+
+    @Test
+    void readRollups_shouldCountUnfoldedMinutesOnlyOnce() {
+        repo.addRollupDeltas(Map.of(minute(0), Map.of("e", 3L), minute(1), Map.of("e", 4L)), retention);
+        repo.compactRollups(minute(0), minute(1), retention);
+
+        // minute 0 is in the hour already, minute 1 is not
+        long[] values = repo.readRollups("e", RollupResolution.HOUR, new long[]{hour}, new long[]{minute(0), minute(1)});
+        assertArrayEquals(new long[]{3, 0, 4}, values);
+
+        repo.setRollupsCompactedThrough(minute(1));
+        assertEquals(minute(1), repo.rollupsCompactedThrough());
+    }
+}
@@ -1,23 +1,45 @@
 package org.example.service.impl;
 
+import org.example.cache.PageDictionary;
 import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
 import org.example.repository.AnalyticsDataRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 class AnalyticsServiceImplTest {
     private AnalyticsDataRepository repository;
+    private EventPreAggregator preAggregator;
+    private TrendingPagesTracker trendingPages;
+    private SessionWindowEngine sessions;
+    private EventArchiver archiver;
+    private EventRollups rollups;
+    private FunnelTracker funnels;
+    private EventDeduplicator dedup;
     private AnalyticsServiceImpl service;
 
     @BeforeEach
     void setUp() {
         repository = mock(AnalyticsDataRepository.class);
-        service = new AnalyticsServiceImpl(repository);
+        preAggregator = mock(EventPreAggregator.class);
+        trendingPages = mock(TrendingPagesTracker.class);
+        sessions = mock(SessionWindowEngine.class);
+        archiver = mock(EventArchiver.class);
+        rollups = mock(EventRollups.class);
+        funnels = mock(FunnelTracker.class);
+        dedup = mock(EventDeduplicator.class);
+        when(dedup.unseen(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        when(sessions.inactivityGap()).thenReturn(Duration.ofMinutes(30));
+        service = new AnalyticsServiceImpl(repository, preAggregator, trendingPages, sessions, new PageDictionary(),
+                archiver, rollups, funnels, dedup);
     }
 
     @Test
@@ -28,9 +50,7 @@ class AnalyticsServiceImplTest {
         when(req.getEventTimestamp()).thenReturn(null);
         when(req.getSessionId()).thenReturn(null);
         service.process(req);
-        verify(repository).markActiveUser(any(), any());
-        verify(repository).addPageView(any(), any());
-        verify(repository).addSessionForUser(anyString(), anyString());
+        verify(repository).recordEvent(any(), any(), eq("/home"), anyString(), any());
     }
 
     @Test
@@ -41,6 +61,100 @@ class AnalyticsServiceImplTest {
         when(req.getEventTimestamp()).thenReturn(Instant.now());
         when(req.getSessionId()).thenReturn("session123");
         service.process(req);
-        verify(repository).addSessionForUser(anyString(), eq("session123"));
+        verify(repository).recordEvent(any(), any(), eq("/home"), eq("session123"), any());
+        verify(trendingPages).offer(eq("/home"), anyLong());
+    }
+
+    @Test
+    void processBatch_shouldNormalizeAndWriteOnce() {
+        UserEventInputRequest withSession = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/home").eventTimestamp(Instant.now()).sessionId("s1").build();
+        UserEventInputRequest withoutSession = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/checkout").build();
+        service.processBatch(List.of(withSession, withoutSession));
+        verify(repository).recordEvents(argThat(events -> events.size() == 2
+                && events.stream().allMatch(e -> e.getEventTimestamp() != null && e.getSessionId() != null)));
+        verify(repository, never()).recordEvent(any(), any(), any(), any(), any());
+        verify(archiver, times(2)).offer(any());
+    }
+
+    @Test
+    void process_shouldHandOffToPreAggregatorWhenEnabled() {
+        when(preAggregator.isEnabled()).thenReturn(true);
+        UserEventInputRequest req = UserEventInputRequest.builder().userId(UUID.randomUUID()).pageUrl("/home").build();
+        service.process(req);
+        verify(preAggregator).add(argThat(e -> e.getEventTimestamp() != null && e.getSessionId() != null));
+        verifyNoInteractions(repository);
+        verify(archiver).offer(argThat(e -> e.getSessionId() != null));
+    }
+
+    @Test
+    void process_shouldUseSessionEngineIdWhenEnabled() {
+        UUID user = UUID.randomUUID();
+        Instant ts = Instant.now();
+        when(sessions.isEnabled()).thenReturn(true);
+        when(sessions.sessionIds(anyList())).thenReturn(List.of("engine-session"));
+        service.process(UserEventInputRequest.builder().userId(user).pageUrl("/home").eventTimestamp(ts).partition(3).build());
+        verify(repository).recordEvent(user, null, "/home", "engine-session", ts);
+        verify(sessions).track(user, "/home", ts.toEpochMilli(), 3);
+    }
+
+    @Test
+    void process_shouldCountCanonicalPage() {
+        UUID user = UUID.randomUUID();
+        Instant ts = Instant.now();
+        service.process(UserEventInputRequest.builder().userId(user).eventType(EventType.SEARCH)
+                .pageUrl("https://shop.example/search/?q=boots#top").eventTimestamp(ts).sessionId("s1").build());
+        verify(trendingPages).offer("/search", ts.toEpochMilli());
+        verify(rollups).add(argThat(e -> e.getPageUrl().equals("/search")));
+        verify(repository).recordEvent(user, EventType.SEARCH, "/search", "s1", ts);
+    }
+
+    @Test
+    void process_shouldDropDuplicateBeforeCountingAndRememberApplied() {
+        UserEventInputRequest req = UserEventInputRequest.builder().eventId("e1").userId(UUID.randomUUID())
+                .pageUrl("/home").eventTimestamp(Instant.now()).build();
+        service.process(req);
+        verify(dedup).remember(List.of(req));
+
+        when(dedup.isDuplicate(req)).thenReturn(true);
+        service.process(req);
+        verify(repository, times(1)).recordEvent(any(), any(), any(), any(), any());
+        verify(trendingPages, times(1)).offer(anyString(), anyLong());
+        verify(archiver, times(1)).offer(any());
+    }
+
+    @Test
+    void processBatch_shouldCountARetriedBatchOnceAfterAFailedWrite() {
+        when(sessions.isEnabled()).thenReturn(true);
+        when(sessions.sessionIds(anyList())).thenReturn(List.of("s1"));
+        UUID user = UUID.randomUUID();
+        Instant ts = Instant.now();
+        UserEventInputRequest ev = UserEventInputRequest.builder().userId(user).eventType(EventType.PAGE_VIEW)
+                .pageUrl("/home").eventTimestamp(ts).build();
+        doThrow(new RuntimeException("redis down")).doNothing().when(repository).recordEvents(anyList());
+
+        assertThrows(RuntimeException.class, () -> service.processBatch(List.of(ev)));
+        verifyNoInteractions(trendingPages, rollups, funnels, archiver);
+        service.processBatch(List.of(ev));
+
+        verify(trendingPages, times(1)).offer("/home", ts.toEpochMilli());
+        verify(rollups, times(1)).add(any());
+        verify(funnels, times(1)).track(user, EventType.PAGE_VIEW, ts.toEpochMilli());
+        verify(sessions, times(1)).track(eq(user), eq("/home"), eq(ts.toEpochMilli()), any());
+        verify(archiver, times(1)).offer(any());
+    }
+
+    @Test
+    void processBatch_shouldApplyOnlyUnseenEvents() {
+        UserEventInputRequest fresh = UserEventInputRequest.builder().eventId("e1").userId(UUID.randomUUID())
+                .pageUrl("/home").eventTimestamp(Instant.now()).build();
+        UserEventInputRequest redelivered = UserEventInputRequest.builder().eventId("e0").userId(UUID.randomUUID())
+                .pageUrl("/cart").eventTimestamp(Instant.now()).build();
+        when(dedup.unseen(List.of(fresh, redelivered))).thenReturn(List.of(fresh));
+        service.processBatch(List.of(fresh, redelivered));
+        verify(repository).recordEvents(argThat(events -> events.size() == 1
+                && events.iterator().next().getEventId().equals("e1")));
+        verify(dedup).remember(List.of(fresh));
     }
 }
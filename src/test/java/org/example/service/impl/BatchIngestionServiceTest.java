@@ -0,0 +1,117 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.example.dto.BatchIngestResponse;
+import org.example.dto.UserEventInputRequest;
+import org.example.service.AnalyticsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BatchIngestionServiceTest {
+    private AnalyticsService analyticsService;
+    private BatchIngestionService service;
+    private final List<List<UserEventInputRequest>> written = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        analyticsService = mock(AnalyticsService.class);
+        doAnswer(inv -> written.add(new ArrayList<>(inv.getArgument(0)))).when(analyticsService).processBatch(anyList());
+        service = new BatchIngestionService(analyticsService, new ObjectMapper().registerModule(new JavaTimeModule()), 2, 100);
+    }
+
+    private BatchIngestResponse ingest(String body) throws Exception {
+        return service.ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String event(String url) {
+        return "{\"userId\":\"" + UUID.randomUUID() + "\",\"pageUrl\":\"" + url + "\",\"eventType\":\"page_view\"}";
+    }
+
+    @Test
+    void ndjson_shouldWriteInChunks() throws Exception {
+        BatchIngestResponse res = ingest(event("/a") + "\n" + event("/b") + "\n" + event("/c") + "\n");
+        assertEquals(3, res.getAccepted());
+        assertEquals(0, res.getRejected());
+        assertFalse(res.isTruncated());
+        assertEquals(2, written.size());
+        assertEquals(2, written.get(0).size());
+        assertEquals("/c", written.get(1).get(0).getPageUrl());
+    }
+
+    @Test
+    void jsonArray_shouldBeAccepted() throws Exception {
+        BatchIngestResponse res = ingest("[" + event("/a") + "," + event("/b") + "]");
+        assertEquals(2, res.getAccepted());
+        assertEquals(1, written.size());
+    }
+
+    @Test
+    void invalidEvents_shouldBeRejectedByIndex() throws Exception {
+        String future = "{\"userId\":\"" + UUID.randomUUID() + "\",\"pageUrl\":\"/f\",\"eventTimestamp\":\""
+                + Instant.now().plusSeconds(600) + "\"}";
+        String badUuid = "{\"userId\":\"not-a-uuid\",\"pageUrl\":\"/x\"}";
+        String noUrl = "{\"userId\":\"" + UUID.randomUUID() + "\"}";
+        BatchIngestResponse res = ingest(String.join("\n", event("/a"), future, badUuid, noUrl, event("/b")));
+        assertEquals(2, res.getAccepted());
+        assertEquals(3, res.getRejected());
+        assertEquals(List.of(
+                new BatchIngestResponse.Rejection(2, "timestamp_too_future"),
+                new BatchIngestResponse.Rejection(3, "invalid_event"),
+                new BatchIngestResponse.Rejection(4, "missing_page_url")), res.getErrors());
+    }
+
+    @Test
+    void malformedJson_shouldStopAndKeepEarlierEvents() throws Exception {
+        BatchIngestResponse res = ingest(event("/a") + "\n{\"userId\": \n" + event("/b"));
+        assertEquals(1, res.getAccepted());
+        assertEquals(1, res.getRejected());
+        assertTrue(res.isTruncated());
+        assertEquals("malformed_json", res.getErrors().get(0).getError());
+    }
+
+    @Test
+    void failedChunk_shouldStopAndReportWhatWasWritten() throws Exception {
+        doAnswer(inv -> written.add(new ArrayList<>(inv.getArgument(0))))
+                .doThrow(new IllegalStateException("redis down"))
+                .when(analyticsService).processBatch(anyList());
+        String badUuid = "{\"userId\":\"not-a-uuid\",\"pageUrl\":\"/x\"}";
+        BatchIngestResponse res = ingest(String.join("\n", event("/a"), event("/b"), badUuid, event("/c"), event("/d"), event("/e")));
+        assertEquals(2, res.getAccepted());
+        assertEquals(1, res.getRejected());
+        assertTrue(res.isTruncated());
+        assertEquals(4L, res.getFailedFrom());
+        assertEquals(5L, res.getFailedTo());
+        assertEquals(1, written.size());
+        verify(analyticsService, times(2)).processBatch(anyList());
+    }
+
+    @Test
+    void failedLastChunk_shouldReportItsRange() throws Exception {
+        doThrow(new IllegalStateException("redis down")).when(analyticsService).processBatch(anyList());
+        BatchIngestResponse res = ingest(event("/a"));
+        assertEquals(0, res.getAccepted());
+        assertFalse(res.isTruncated());
+        assertEquals(1L, res.getFailedFrom());
+        assertEquals(1L, res.getFailedTo());
+    }
+
+    @Test
+    void maxEvents_shouldTruncate() throws Exception {
+        service = new BatchIngestionService(analyticsService, new ObjectMapper().registerModule(new JavaTimeModule()), 10, 2);
+        BatchIngestResponse res = ingest(event("/a") + "\n" + event("/b") + "\n" + event("/c"));
+        assertEquals(2, res.getAccepted());
+        assertTrue(res.isTruncated());
+        verify(analyticsService, times(1)).processBatch(anyList());
+    }
+}
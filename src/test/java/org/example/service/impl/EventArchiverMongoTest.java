@@ -0,0 +1,126 @@
+package org.example.service.impl;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.example.cache.PageDictionary;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.mapper.UserEventMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Bucket layout and replay handling of the archive against a local mongod (database
+ * analytics_test, collection dropped before each test); skipped when none is reachable.
+ */
+class EventArchiverMongoTest {
+    private static final String COLLECTION = "user_event_buckets";
+
+    private MongoClient client;
+    private MongoTemplate mongo;
+    private SimpleMeterRegistry registry;
+    private EventArchiver archiver;
+
+    @BeforeEach
+    void setUp() {
+        MongoClientSettings settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(System.getenv().getOrDefault("MONGODB_URI", "mongodb://localhost:27017")))
+                .applyToClusterSettings(b -> b.serverSelectionTimeout(1, TimeUnit.SECONDS))
+                .build();
+        client = MongoClients.create(settings);
+        mongo = new MongoTemplate(client, "analytics_test");
+        boolean up;
+        try {
+            mongo.dropCollection(COLLECTION);
+            up = true;
+        } catch (Exception e) {
+            up = false;
+        }
+        assumeTrue(up, "mongod not reachable");
+        registry = new SimpleMeterRegistry();
+        archiver = new EventArchiver(mongo, Mappers.getMapper(UserEventMapper.class), new PageDictionary(), registry,
+                true, COLLECTION, Duration.ofHours(1), 1024, 1000, 1000, 0, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    // the same user and timestamp stand for the same producer-assigned id, so a repeat is a replay
+    private UserEventInputRequest event(UUID user, String url, String ts) {
+        return UserEventInputRequest.builder().eventId(user + "@" + ts).userId(user).eventType(EventType.PAGE_VIEW)
+                .pageUrl(url).eventTimestamp(Instant.parse(ts)).sessionId("s1").build();
+    }
+
+    @Test
+    void flush_shouldWriteOneDocumentPerUserPageAndHour() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        archiver.offer(event(alice, "/home", "2024-01-01T10:05:00Z"));
+        archiver.offer(event(alice, "/home", "2024-01-01T10:40:00Z"));
+        archiver.offer(event(alice, "/home", "2024-01-01T11:01:00Z"));
+        archiver.offer(event(bob, "/home", "2024-01-01T10:10:00Z"));
+        archiver.flushPending();
+
+        assertEquals(3, mongo.findAll(Document.class, COLLECTION).size());
+        Document aliceTen = mongo.findById(archiver.bucketId(
+                Mappers.getMapper(UserEventMapper.class).toEntity(event(alice, "/home", "2024-01-01T10:05:00Z"))), Document.class, COLLECTION);
+        assertNotNull(aliceTen);
+        assertEquals(2, aliceTen.getInteger("count"));
+        assertEquals(2, aliceTen.getList("events", Document.class).size());
+        assertEquals(Instant.parse("2024-01-01T10:00:00Z"), aliceTen.getDate("bucketStart").toInstant());
+        assertEquals(Instant.parse("2024-01-01T10:05:00Z"), aliceTen.getDate("first").toInstant());
+        assertEquals(Instant.parse("2024-01-01T10:40:00Z"), aliceTen.getDate("last").toInstant());
+        assertEquals(4.0, registry.counter("analytics.archive.archived").count());
+    }
+
+    @Test
+    void flush_shouldNotArchiveReplayedEventTwice() {
+        UUID alice = UUID.randomUUID();
+        archiver.offer(event(alice, "/home", "2024-01-01T10:05:00Z"));
+        archiver.flushPending();
+        archiver.offer(event(alice, "/home", "2024-01-01T10:05:00Z"));
+        archiver.offer(event(alice, "/home", "2024-01-01T10:06:00Z"));
+        archiver.flushPending();
+
+        Document bucket = mongo.findAll(Document.class, COLLECTION).getFirst();
+        assertEquals(2, bucket.getInteger("count"));
+        assertEquals(1.0, registry.counter("analytics.archive.duplicates").count());
+        assertEquals(2.0, registry.counter("analytics.archive.archived").count());
+    }
+
+    @Test
+    void flush_shouldSpillFullBucketsIntoOverflowBuckets() {
+        UUID alice = UUID.randomUUID();
+        for (int i = 0; i < 5; i++) archiver.offer(event(alice, "/home", "2024-01-01T10:0" + i + ":00Z"));
+        archiver.flushPending();
+        // replays of events in the first, full bucket and in its overflow
+        archiver.offer(event(alice, "/home", "2024-01-01T10:00:00Z"));
+        archiver.offer(event(alice, "/home", "2024-01-01T10:04:00Z"));
+        archiver.flushPending();
+
+        String base = archiver.bucketId(Mappers.getMapper(UserEventMapper.class)
+                .toEntity(event(alice, "/home", "2024-01-01T10:00:00Z")));
+        assertEquals(2, mongo.findById(base, Document.class, COLLECTION).getInteger("count"));
+        assertEquals(2, mongo.findById(base + ":1", Document.class, COLLECTION).getInteger("count"));
+        assertEquals(1, mongo.findById(base + ":2", Document.class, COLLECTION).getInteger("count"));
+        assertEquals(5.0, registry.counter("analytics.archive.archived").count());
+        assertEquals(2.0, registry.counter("analytics.archive.duplicates").count());
+    }
+}
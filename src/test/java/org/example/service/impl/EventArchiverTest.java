@@ -0,0 +1,164 @@
+package org.example.service.impl;
+
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.example.cache.PageDictionary;
+import org.example.dto.UserEventInputRequest;
+import org.example.entity.UserEvent;
+import org.example.enums.EventType;
+import org.example.mapper.UserEventMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventArchiverTest {
+    private MongoTemplate mongo;
+    private BulkOperations bulk;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        mongo = mock(MongoTemplate.class);
+        bulk = mock(BulkOperations.class);
+        when(mongo.bulkOps(any(BulkOperations.BulkMode.class), anyString())).thenReturn(bulk);
+        registry = new SimpleMeterRegistry();
+    }
+
+    private EventArchiver archiver(boolean enabled, int capacity) {
+        return new EventArchiver(mongo, Mappers.getMapper(UserEventMapper.class), new PageDictionary(), registry,
+                enabled, "user_event_buckets", Duration.ofHours(1), capacity, 1000, 1000, 0, 2);
+    }
+
+    private UserEventInputRequest event(UUID user, String url, String ts) {
+        return UserEventInputRequest.builder().userId(user).eventType(EventType.PAGE_VIEW)
+                .pageUrl(url).eventTimestamp(Instant.parse(ts)).sessionId("s1").build();
+    }
+
+    @Test
+    void offer_shouldDropAndCountWhenBufferIsFull() {
+        EventArchiver archiver = archiver(true, 2);
+        UUID user = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) archiver.offer(event(user, "/home", "2024-01-01T10:00:0" + i + "Z"));
+
+        assertEquals(1.0, registry.counter("analytics.archive.dropped").count());
+        assertEquals(2.0, registry.get("analytics.archive.queue.depth").gauge().value());
+
+        archiver.flushPending();
+        verify(mongo).bulkOps(BulkOperations.BulkMode.UNORDERED, "user_event_buckets");
+        verify(bulk, times(2)).upsert(any(Query.class), any(Update.class));
+        verify(bulk).execute();
+        assertEquals(2.0, registry.counter("analytics.archive.archived").count());
+    }
+
+    @Test
+    void offer_shouldArchiveIdenticalEventsWithoutAnIdSeparately() {
+        EventArchiver archiver = archiver(true, 16);
+        UUID user = UUID.randomUUID();
+        // e.g. two clicks within one second of a client that sends second-precision timestamps
+        archiver.offer(event(user, "/home", "2024-01-01T10:00:00Z"));
+        archiver.offer(event(user, "/home", "2024-01-01T10:00:00Z"));
+
+        archiver.flushPending();
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(bulk, times(2)).upsert(queries.capture(), any(Update.class));
+        List<Object> ids = queries.getAllValues().stream()
+                .map(q -> q.getQueryObject().get("events._id", Document.class).get("$ne")).toList();
+        assertNotEquals(ids.get(0), ids.get(1));
+        assertEquals(2.0, registry.counter("analytics.archive.archived").count());
+        assertEquals(0.0, registry.counter("analytics.archive.duplicates").count());
+    }
+
+    @Test
+    void offer_shouldBeNoOpWhenDisabled() {
+        EventArchiver archiver = archiver(false, 16);
+        archiver.offer(event(UUID.randomUUID(), "/home", "2024-01-01T10:00:00Z"));
+        assertFalse(archiver.isEnabled());
+        verifyNoInteractions(mongo);
+    }
+
+    @Test
+    void write_shouldSeparateReplaysFromFailures() {
+        BulkOperationException error = mock(BulkOperationException.class);
+        when(error.getErrors()).thenReturn(List.of(
+                new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0),
+                new BulkWriteError(121, "Document failed validation", new BsonDocument(), 2)));
+        when(bulk.execute()).thenThrow(error);
+        EventArchiver archiver = archiver(true, 16);
+        UUID user = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            UserEventInputRequest ev = event(user, "/home", "2024-01-01T10:00:0" + i + "Z");
+            ev.setEventId("e" + i);
+            archiver.offer(ev);
+        }
+        // the colliding bucket already holds the first event
+        UserEventInputRequest first = event(user, "/home", "2024-01-01T10:00:00Z");
+        first.setEventId("e0");
+        UserEvent replayed = toEntity(first);
+        when(mongo.find(any(Query.class), eq(Document.class), anyString())).thenReturn(List.of(
+                new Document("_id", archiver.bucketId(replayed)).append("count", 1)
+                        .append("events", List.of(new Document("_id", replayed.getEventId())))));
+
+        archiver.flushPending();
+        assertEquals(1.0, registry.counter("analytics.archive.duplicates").count());
+        assertEquals(1.0, registry.counter("analytics.archive.failed").count());
+        assertEquals(1.0, registry.counter("analytics.archive.archived").count());
+    }
+
+    @Test
+    void write_shouldMoveOnToOverflowBucketWhenFull() {
+        BulkOperationException error = mock(BulkOperationException.class);
+        when(error.getErrors()).thenReturn(List.of(new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0)));
+        when(bulk.execute()).thenThrow(error).thenReturn(null);
+        EventArchiver archiver = archiver(true, 16);
+        UserEvent third = toEntity(event(UUID.randomUUID(), "/home", "2024-01-01T10:00:02Z"));
+        String full = archiver.bucketId(third);
+        // the bucket is at max-bucket-events and does not hold the event
+        when(mongo.find(any(Query.class), eq(Document.class), anyString()))
+                .thenReturn(List.of(new Document("_id", full).append("count", 2).append("events", List.of())));
+
+        archiver.write(List.of(third));
+        assertEquals(full + ":1", archiver.docId(third));
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(bulk, times(2)).upsert(queries.capture(), any(Update.class));
+        assertEquals(full + ":1", queries.getAllValues().get(1).getQueryObject().getString("_id"));
+        assertEquals(1.0, registry.counter("analytics.archive.archived").count());
+        assertEquals(0.0, registry.counter("analytics.archive.duplicates").count());
+    }
+
+    private static UserEvent toEntity(UserEventInputRequest ev) {
+        UserEvent e = Mappers.getMapper(UserEventMapper.class).toEntity(ev);
+        if (e.getEventId() == null) e.setEventId(UUID.randomUUID().toString());
+        return e;
+    }
+
+    @Test
+    void bucketId_shouldGroupByUserPageAndHour() {
+        EventArchiver archiver = archiver(true, 16);
+        UUID user = UUID.randomUUID();
+        UserEvent first = UserEvent.builder().userId(user).pageUrl("/home").eventTimestamp(Instant.parse("2024-01-01T10:05:00Z")).build();
+        UserEvent sameHour = UserEvent.builder().userId(user).pageUrl("/home").eventTimestamp(Instant.parse("2024-01-01T10:59:59Z")).build();
+        UserEvent nextHour = UserEvent.builder().userId(user).pageUrl("/home").eventTimestamp(Instant.parse("2024-01-01T11:00:00Z")).build();
+        UserEvent otherPage = UserEvent.builder().userId(user).pageUrl("/cart").eventTimestamp(Instant.parse("2024-01-01T10:05:00Z")).build();
+
+        assertEquals(archiver.bucketId(first), archiver.bucketId(sameHour));
+        assertNotEquals(archiver.bucketId(first), archiver.bucketId(nextHour));
+        assertNotEquals(archiver.bucketId(first), archiver.bucketId(otherPage));
+        assertTrue(archiver.bucketId(first).endsWith(":" + Instant.parse("2024-01-01T10:00:00Z").getEpochSecond()));
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventDeduplicatorTest {
+    private AnalyticsDataRepository repository;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        registry = new SimpleMeterRegistry();
+    }
+
+    private EventDeduplicator dedup(boolean redisBacked) {
+        return new EventDeduplicator(repository, registry, true, Duration.ofMinutes(10), 4, 10_000, 0.001, 0, redisBacked);
+    }
+
+    private static UserEventInputRequest event(String eventId) {
+        return UserEventInputRequest.builder().eventId(eventId).userId(UUID.randomUUID())
+                .eventType(EventType.PAGE_VIEW).pageUrl("/home").eventTimestamp(Instant.now()).build();
+    }
+
+    private double duplicates() {
+        return registry.get("analytics.dedup.duplicates").counter().count();
+    }
+
+    @Test
+    void unseen_shouldDropRememberedAndInBatchDuplicates() {
+        EventDeduplicator dedup = dedup(false);
+        UserEventInputRequest a = event("a");
+        UserEventInputRequest b = event("b");
+
+        List<UserEventInputRequest> first = dedup.unseen(List.of(a, b, event("a")));
+        assertEquals(List.of(a, b), first);
+        dedup.remember(first);
+
+        assertEquals(List.of(), dedup.unseen(List.of(event("a"), event("b"))));
+        assertTrue(dedup.isDuplicate(event("a")));
+        assertEquals(4, duplicates());
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void unseen_shouldNotDropAnEventThatWasNeverApplied() {
+        EventDeduplicator dedup = dedup(false);
+        // checked but not remembered, as when the batch write failed and is retried
+        dedup.unseen(List.of(event("a")));
+        assertFalse(dedup.isDuplicate(event("a")));
+    }
+
+    @Test
+    void unseen_shouldPassEventsWithoutAnEventId() {
+        EventDeduplicator dedup = dedup(false);
+        UUID user = UUID.randomUUID();
+        Instant ts = Instant.now();
+        UserEventInputRequest first = UserEventInputRequest.builder().userId(user).eventType(EventType.CLICK)
+                .pageUrl("/home").eventTimestamp(ts).build();
+        // a genuine second click in the same instant looks identical without a client id
+        UserEventInputRequest second = UserEventInputRequest.builder().userId(user).eventType(EventType.CLICK)
+                .pageUrl("/home").eventTimestamp(ts).build();
+
+        assertEquals(List.of(first, second), dedup.unseen(List.of(first, second)));
+        dedup.remember(List.of(first, second));
+        assertFalse(dedup.isDuplicate(second));
+        assertEquals(0, duplicates());
+    }
+
+    @Test
+    void unseen_shouldConsultRedisWhenBacked() {
+        EventDeduplicator dedup = dedup(true);
+        when(repository.bloomContains(anyList(), any())).thenReturn(new boolean[]{true, false});
+        UserEventInputRequest b = event("b");
+
+        assertEquals(List.of(b), dedup.unseen(List.of(event("a"), b)));
+        dedup.remember(List.of(b));
+        verify(repository).bloomAdd(argThat(positions -> positions.size() == 1), anyLong(), anyLong());
+        assertEquals(1, duplicates());
+    }
+
+    @Test
+    void unseen_shouldFallBackToLocalFiltersWhenRedisFails() {
+        EventDeduplicator dedup = dedup(true);
+        when(repository.bloomContains(anyList(), any())).thenThrow(new RuntimeException("down"));
+        UserEventInputRequest a = event("a");
+
+        assertEquals(List.of(a), dedup.unseen(List.of(a)));
+        assertEquals(1, registry.get("analytics.dedup.redis.failures").counter().count());
+    }
+
+    @Test
+    void disabled_shouldPassEverything() {
+        EventDeduplicator dedup = new EventDeduplicator(repository, registry, false, Duration.ofMinutes(10), 4,
+                10_000, 0.001, 0, false);
+        dedup.remember(List.of(event("a")));
+        assertFalse(dedup.isDuplicate(event("a")));
+        assertEquals(0, registry.get("analytics.dedup.memory").gauge().value());
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.repository.DimensionalCounter;
+import org.example.util.TimeBuckets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.example.enums.EventType.CLICK;
+import static org.example.enums.EventType.PAGE_VIEW;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventPreAggregatorTest {
+    private AnalyticsDataRepository repository;
+    private SimpleMeterRegistry registry;
+    private EventPreAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        when(repository.pageViewBuckets()).thenReturn(new TimeBuckets(Duration.ofMinutes(1)));
+        registry = new SimpleMeterRegistry();
+        aggregator = new EventPreAggregator(repository, registry, true, 60_000, 10_000, 3);
+    }
+
+    private UserEventInputRequest event(UUID user, String url, String ts, String session) {
+        return event(user, null, url, ts, session);
+    }
+
+    private UserEventInputRequest event(UUID user, EventType type, String url, String ts, String session) {
+        return UserEventInputRequest.builder()
+                .userId(user).eventType(type).pageUrl(url).eventTimestamp(Instant.parse(ts)).sessionId(session).build();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_shouldCoalesceRepeatedPagesUsersAndSessions() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        aggregator.add(event(alice, PAGE_VIEW, "/home", "2025-11-28T12:00:01Z", "s1"));
+        aggregator.add(event(alice, PAGE_VIEW, "/home", "2025-11-28T12:00:30Z", "s1"));
+        aggregator.add(event(bob, CLICK, "/home", "2025-11-28T12:00:10Z", "s2"));
+        aggregator.add(event(bob, "/cart", "2025-11-28T12:01:05Z", "s2"));
+
+        aggregator.flush();
+
+        long minute = Instant.parse("2025-11-28T12:00:00Z").toEpochMilli();
+        ArgumentCaptor<Map<String, Map<Long, long[]>>> events = ArgumentCaptor.forClass(Map.class);
+        verify(repository).applyDeltas(events.capture(),
+                eq(Map.of(alice, Instant.parse("2025-11-28T12:00:30Z").toEpochMilli(),
+                        bob, Instant.parse("2025-11-28T12:01:05Z").toEpochMilli())),
+                eq(Map.of(alice.toString(), Set.of("s1"), bob.toString(), Set.of("s2"))));
+        long[] home = new long[DimensionalCounter.SLOTS];
+        home[DimensionalCounter.slot(PAGE_VIEW)] = 2;
+        home[DimensionalCounter.slot(CLICK)] = 1;
+        long[] cart = new long[DimensionalCounter.SLOTS];
+        cart[DimensionalCounter.slot(null)] = 1;
+        assertArrayEquals(home, events.getValue().get("/home").get(minute));
+        assertArrayEquals(cart, events.getValue().get("/cart").get(minute + 60_000));
+        // 4 events became 2 page buckets + 2 users + 2 session sets + 8 event-count fields
+        // (PAGE_VIEW and CLICK on /home and overall, */home, */cart and */* in both minutes)
+        assertEquals(4.0 / 14, registry.get("analytics.preagg.coalescing.ratio").gauge().value(), 1e-9);
+        assertEquals(14, registry.get("analytics.preagg.writes").counter().count());
+    }
+
+    @Test
+    void flush_shouldSkipRedisWhenNothingIsPending() {
+        aggregator.flush();
+        verify(repository, never()).applyDeltas(any(), any(), any());
+    }
+
+    @Test
+    void flush_shouldKeepDeltasWhenRedisFails() {
+        UUID user = UUID.randomUUID();
+        aggregator.add(event(user, "/home", "2025-11-28T12:00:01Z", "s1"));
+        doThrow(new RuntimeException("redis down")).doNothing().when(repository).applyDeltas(any(), any(), any());
+
+        assertThrows(RuntimeException.class, aggregator::flush);
+        aggregator.flush();
+
+        verify(repository, times(2)).applyDeltas(argThat(pv -> pv.get("/home").values().iterator().next()[DimensionalCounter.slot(null)] == 1L), any(), any());
+    }
+
+    @Test
+    void flush_shouldDiscardRetainedDeltasBeyondTheCap() {
+        UUID user = UUID.randomUUID();
+        doThrow(new RuntimeException("redis down")).when(repository).applyDeltas(any(), any(), any());
+        for (int i = 0; i < 3; i++) aggregator.add(event(user, "/home", "2025-11-28T12:00:01Z", "s1"));
+        assertThrows(RuntimeException.class, aggregator::flush);
+        assertEquals(0.0, registry.get("analytics.preagg.dropped").counter().count());
+
+        aggregator.add(event(user, "/home", "2025-11-28T12:00:02Z", "s1"));
+        assertThrows(RuntimeException.class, aggregator::flush);
+        assertEquals(4.0, registry.get("analytics.preagg.dropped").counter().count());
+
+        doNothing().when(repository).applyDeltas(any(), any(), any());
+        aggregator.flush();
+        // nothing was left to retry
+        verify(repository, times(2)).applyDeltas(any(), any(), any());
+    }
+}
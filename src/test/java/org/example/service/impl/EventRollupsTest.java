@@ -0,0 +1,110 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.cache.PageDictionary;
+import org.example.dto.TimeSeriesResponse;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.enums.RollupResolution;
+import org.example.repository.AnalyticsDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventRollupsTest {
+    private static final long DAY_MS = Duration.ofDays(1).toMillis();
+
+    private AnalyticsDataRepository repository;
+    private PageDictionary pages;
+    private EventRollups rollups;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        pages = new PageDictionary();
+        rollups = new EventRollups(repository, pages, new SimpleMeterRegistry(), true, Duration.ofHours(48),
+                Duration.ofDays(90), Duration.ofDays(1825), Duration.ofMinutes(2), 500);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_shouldCountTotalTypeAndPagePerMinute() {
+        UUID user = UUID.randomUUID();
+        rollups.add(UserEventInputRequest.builder().userId(user).eventType(EventType.CLICK).pageUrl("/home")
+                .eventTimestamp(Instant.parse("2024-01-01T10:00:10Z")).build());
+        rollups.add(UserEventInputRequest.builder().userId(user).eventType(EventType.PAGE_VIEW).pageUrl("/home")
+                .eventTimestamp(Instant.parse("2024-01-01T10:00:50Z")).build());
+        rollups.add(UserEventInputRequest.builder().userId(user).eventType(EventType.CLICK).pageUrl("/cart")
+                .eventTimestamp(Instant.parse("2024-01-01T10:01:00Z")).build());
+        rollups.flush();
+
+        ArgumentCaptor<Map<Long, Map<String, Long>>> deltas = ArgumentCaptor.forClass(Map.class);
+        verify(repository).addRollupDeltas(deltas.capture(), any());
+        Map<String, Long> ten = deltas.getValue().get(Instant.parse("2024-01-01T10:00:00Z").toEpochMilli());
+        assertEquals(2L, ten.get(EventRollups.EVENTS_FIELD));
+        assertEquals(1L, ten.get(EventRollups.eventTypeField(EventType.CLICK)));
+        assertEquals(2L, ten.get(EventRollups.pageField(pages.id("/home"))));
+        assertEquals(1L, deltas.getValue().get(Instant.parse("2024-01-01T10:01:00Z").toEpochMilli()).get(EventRollups.EVENTS_FIELD));
+
+        rollups.flush();
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    void resolve_shouldPickFinestLevelWithinMaxPointsWithoutStep() {
+        long now = System.currentTimeMillis();
+        assertEquals(RollupResolution.MINUTE, rollups.resolve(now - Duration.ofHours(6).toMillis(), now, null, now));
+        assertEquals(RollupResolution.HOUR, rollups.resolve(now - Duration.ofDays(7).toMillis(), now, null, now));
+        assertEquals(RollupResolution.DAY, rollups.resolve(now - Duration.ofDays(365).toMillis(), now, null, now));
+    }
+
+    @Test
+    void resolve_shouldPickCoarsestLevelDividingStep() {
+        long now = System.currentTimeMillis();
+        long weekAgo = now - Duration.ofDays(7).toMillis();
+        assertEquals(RollupResolution.HOUR, rollups.resolve(weekAgo, now, Duration.ofHours(6), now));
+        assertEquals(RollupResolution.DAY, rollups.resolve(weekAgo, now, Duration.ofDays(1), now));
+        // minutes have expired this far back; 90 minutes is not a whole number of hours
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> rollups.resolve(weekAgo, now, Duration.ofMinutes(90), now));
+        assertEquals("step_finer_than_retained_resolution", e.getMessage());
+        assertEquals("too_many_points", assertThrows(IllegalArgumentException.class,
+                () -> rollups.resolve(now - 60 * DAY_MS, now, Duration.ofHours(1), now)).getMessage());
+        assertEquals("invalid_step", assertThrows(IllegalArgumentException.class,
+                () -> rollups.resolve(weekAgo, now, Duration.ofSeconds(90), now)).getMessage());
+    }
+
+    @Test
+    void series_shouldSumBucketsAndUnfoldedMinutesIntoSteps() {
+        long now = System.currentTimeMillis();
+        long today = Math.floorDiv(now, DAY_MS) * DAY_MS;
+        long from = today - 2 * DAY_MS;
+        // days before today are compacted; today's minutes so far are not
+        when(repository.rollupsCompactedThrough()).thenReturn(today);
+        when(repository.readRollups(eq("e"), eq(RollupResolution.DAY), any(), any())).thenAnswer(inv -> {
+            long[] buckets = inv.getArgument(2);
+            long[] minutes = inv.getArgument(3);
+            long[] values = new long[buckets.length + minutes.length];
+            for (int i = 0; i < buckets.length; i++) values[i] = 100;
+            for (int i = 0; i < minutes.length; i++) values[buckets.length + i] = 1;
+            return values;
+        });
+
+        TimeSeriesResponse series = rollups.series("e", from, now, Duration.ofDays(1));
+
+        assertEquals(RollupResolution.DAY, series.getResolution());
+        assertEquals(3, series.getPoints().size());
+        assertEquals(Instant.ofEpochMilli(from), series.getPoints().get(0).getTs());
+        assertEquals(100, series.getPoints().get(0).getValue());
+        long minutesToday = Math.ceilDiv(now - today, 60_000L);
+        assertEquals(100 + minutesToday, series.getPoints().get(2).getValue());
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.example.dto.UserEventInputRequest;
+import org.example.repository.AnalyticsDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EventTimeWatermarksTest {
+    private AnalyticsDataRepository repository;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    private SimpleMeterRegistry registry;
+    private EventTimeWatermarks watermarks;
+    // well in the past, so no event is capped at the wall clock
+    private final long base = System.currentTimeMillis() - Duration.ofMinutes(30).toMillis();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        kafkaTemplate = mock(KafkaTemplate.class);
+        registry = new SimpleMeterRegistry();
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        watermarks = watermarks(Duration.ofMinutes(10));
+    }
+
+    private EventTimeWatermarks watermarks(Duration idleTimeout) {
+        return new EventTimeWatermarks(repository, kafkaTemplate, registry, true, Duration.ofSeconds(5),
+                Duration.ofMinutes(2), idleTimeout, "user_events.late", Duration.ofSeconds(1));
+    }
+
+    private boolean admit(int partition, long tsMs) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("user_events", partition, 0, "key", new byte[0]);
+        return watermarks.admit(record, UserEventInputRequest.builder()
+                .userId(UUID.randomUUID()).pageUrl("/home").eventTimestamp(Instant.ofEpochMilli(tsMs)).build());
+    }
+
+    private double lateness(String outcome) {
+        return registry.get("analytics.event.lateness").tag("outcome", outcome).timer().count();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void admit_shouldApplyBoundedLatenessAndDivertTheRest() {
+        assertTrue(admit(0, base));
+        assertTrue(admit(0, base + 60_000));       // watermark is now base + 55s
+        assertTrue(admit(0, base + 56_000));       // out of order, but not behind the watermark
+        assertTrue(admit(0, base + 5_000));        // 50s late, within allowed lateness
+        assertFalse(admit(0, base - 70_000));      // 125s late
+        assertTrue(admit(1, base - 70_000));       // partition 1 has its own watermark
+
+        assertEquals(1, lateness("accepted"));
+        assertEquals(1, lateness("diverted"));
+        ArgumentCaptor<ProducerRecord<String, byte[]>> late = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(late.capture());
+        assertEquals("user_events.late", late.getValue().topic());
+        assertEquals("key", late.getValue().key());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void admit_shouldFailTheDeliveryWhenTheLateTopicDoesNotGetIt() {
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker down")));
+        assertTrue(admit(0, base + 60_000));
+        assertThrows(IllegalStateException.class, () -> admit(0, base - 70_000));
+        assertEquals(1, registry.get("analytics.event.late.failures").counter().count());
+    }
+
+    @Test
+    void assign_shouldResumeFromPublishedWatermark() {
+        when(repository.watermarks()).thenReturn(Map.of(3, base));
+        watermarks.assign(List.of(3));
+
+        assertTrue(admit(3, base - 60_000));
+        assertFalse(admit(3, base - 180_000));
+
+        watermarks.revoke(List.of(3));
+        verify(repository).publishWatermarks(Map.of(3, base));
+    }
+
+    @Test
+    void publish_shouldReportWatermarksAndAdvanceIdlePartitions() {
+        admit(0, base + 60_000);
+        watermarks.publish();
+        verify(repository).publishWatermarks(Map.of(0, base + 55_000));
+
+        EventTimeWatermarks idle = watermarks(Duration.ZERO);
+        idle.assign(List.of(1));
+        long before = System.currentTimeMillis();
+        idle.publish();
+        verify(repository).publishWatermarks(argThat(m -> m.containsKey(1) && m.get(1) >= before - 5_000));
+    }
+
+    @Test
+    void finalizedThrough_shouldFollowTheSlowestPartition() {
+        assertNull(watermarks.finalizedThrough(Map.of()));
+        assertEquals(base - 120_000, watermarks.finalizedThrough(Map.of(0, base, 1, base + 30_000)));
+    }
+}
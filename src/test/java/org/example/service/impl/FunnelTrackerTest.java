@@ -0,0 +1,131 @@
+package org.example.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.dto.FunnelResponse;
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.TimeBuckets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.example.enums.EventType.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FunnelTrackerTest {
+    private static final long T0 = Instant.parse("2024-01-01T10:00:00Z").toEpochMilli();
+    private static final long MIN = 60_000;
+
+    private AnalyticsDataRepository repository;
+    private SimpleMeterRegistry registry;
+    private FunnelTracker funnels;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        when(repository.funnelBuckets()).thenReturn(new TimeBuckets(Duration.ofHours(1)));
+        registry = new SimpleMeterRegistry();
+        funnels = new FunnelTracker(repository, registry, true,
+                "checkout=PAGE_VIEW>ADD_TO_CART>CHECKOUT>PURCHASE,discovery=SEARCH>CLICK", Duration.ofHours(1), 100, 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<Long, long[]>> flushed() {
+        ArgumentCaptor<Map<String, Map<Long, long[]>>> counts = ArgumentCaptor.forClass(Map.class);
+        funnels.flush();
+        verify(repository).addFunnelCounts(counts.capture(), any());
+        return counts.getValue();
+    }
+
+    @Test
+    void track_shouldAdvanceOneStepAtATimeInOrder() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        funnels.track(alice, PAGE_VIEW, T0);
+        funnels.track(alice, PAGE_VIEW, T0 + MIN);      // already in the funnel
+        funnels.track(alice, CHECKOUT, T0 + 2 * MIN);   // skips ADD_TO_CART, ignored
+        funnels.track(alice, ADD_TO_CART, T0 + 3 * MIN);
+        funnels.track(alice, CHECKOUT, T0 + 4 * MIN);
+        funnels.track(bob, ADD_TO_CART, T0);            // never entered
+        funnels.track(bob, PAGE_VIEW, T0 + MIN);
+
+        long[] checkout = flushed().get("checkout").get(T0);
+        assertArrayEquals(new long[]{2, 1, 1, 0}, checkout);
+    }
+
+    @Test
+    void track_shouldRestartFunnelOnceWindowHasPassed() {
+        UUID alice = UUID.randomUUID();
+        funnels.track(alice, PAGE_VIEW, T0);
+        funnels.track(alice, ADD_TO_CART, T0 + 61 * MIN);  // too late for this entry
+        funnels.track(alice, PAGE_VIEW, T0 + 62 * MIN);
+        funnels.track(alice, ADD_TO_CART, T0 + 63 * MIN);
+
+        Map<Long, long[]> checkout = flushed().get("checkout");
+        assertArrayEquals(new long[]{1, 0, 0, 0}, checkout.get(T0));
+        assertArrayEquals(new long[]{1, 1, 0, 0}, checkout.get(T0 + 60 * MIN));
+    }
+
+    @Test
+    void track_shouldKeepFunnelsIndependentAndBoundUsers() {
+        UUID alice = UUID.randomUUID();
+        funnels.track(alice, SEARCH, T0);
+        funnels.track(alice, CLICK, T0 + MIN);
+        for (int i = 0; i < 150; i++) funnels.track(UUID.randomUUID(), PAGE_VIEW, T0);
+
+        Map<String, Map<Long, long[]>> counts = flushed();
+        assertArrayEquals(new long[]{1, 1}, counts.get("discovery").get(T0));
+        assertEquals(99, counts.get("checkout").get(T0)[0]);
+        assertEquals(51.0, registry.counter("analytics.funnel.users.rejected").count());
+        assertEquals(100.0, registry.get("analytics.funnel.tracked.users").gauge().value());
+        assertEquals(100.0 * (80 + 16), registry.get("analytics.funnel.state.bytes").gauge().value());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_shouldKeepCountsAfterRedisFailureForTheNewestHours() {
+        funnels.track(UUID.randomUUID(), PAGE_VIEW, T0);
+        funnels.track(UUID.randomUUID(), PAGE_VIEW, T0 + 60 * MIN);
+        funnels.track(UUID.randomUUID(), PAGE_VIEW, T0 + 120 * MIN);
+        doThrow(new RuntimeException("redis down")).when(repository).addFunnelCounts(any(), any());
+        funnels.flush();
+        doNothing().when(repository).addFunnelCounts(any(), any());
+
+        ArgumentCaptor<Map<String, Map<Long, long[]>>> counts = ArgumentCaptor.forClass(Map.class);
+        funnels.flush();
+        verify(repository, times(2)).addFunnelCounts(counts.capture(), any());
+        Map<Long, long[]> checkout = counts.getValue().get("checkout");
+        // max-retained-hours=2: the oldest hour is dropped
+        assertEquals(Set.of(T0 + 60 * MIN, T0 + 120 * MIN), checkout.keySet());
+        assertArrayEquals(new long[]{1, 0, 0, 0}, checkout.get(T0 + 120 * MIN));
+        assertEquals(1.0, registry.counter("analytics.funnel.counts.dropped").count());
+    }
+
+    @Test
+    void query_shouldComputeStepConversionFromCounters() {
+        when(repository.funnelCounts(eq("checkout"), eq(4), anyLong(), eq(Duration.ofHours(24))))
+                .thenReturn(new long[]{1000, 250, 100, 50});
+
+        FunnelResponse funnel = funnels.query("checkout", Duration.ofHours(24));
+
+        assertEquals(ADD_TO_CART, funnel.getSteps().get(1).getEventType());
+        assertEquals(0.25, funnel.getSteps().get(1).getConversionFromPrevious(), 1e-9);
+        assertEquals(0.5, funnel.getSteps().get(3).getConversionFromPrevious(), 1e-9);
+        assertEquals(0.1, funnel.getSteps().get(2).getConversionFromStart(), 1e-9);
+        assertEquals(0.05, funnel.getOverallConversion(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> funnels.query("unknown", Duration.ofHours(24)));
+    }
+
+    @Test
+    void parse_shouldRejectRepeatedOrSingleSteps() {
+        assertThrows(IllegalArgumentException.class, () -> FunnelTracker.parse("a=PAGE_VIEW>CLICK>PAGE_VIEW"));
+        assertThrows(IllegalArgumentException.class, () -> FunnelTracker.parse("a=PAGE_VIEW"));
+        assertEquals(2, FunnelTracker.parse("a=PAGE_VIEW>CLICK, b=SEARCH>CLICK").size());
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.IngestMode;
+import org.example.enums.WireFormat;
+import org.example.service.AnalyticsService;
+import org.example.util.EventWireCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class IngestionDispatcherTest {
+    private AnalyticsService analyticsService;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        analyticsService = mock(AnalyticsService.class);
+        kafkaTemplate = mock(KafkaTemplate.class);
+        registry = new SimpleMeterRegistry();
+    }
+
+    private IngestionDispatcher dispatcher(IngestMode mode, int capacity) {
+        return new IngestionDispatcher(analyticsService, kafkaTemplate,
+                new EventWireCodec(new ObjectMapper().findAndRegisterModules(), WireFormat.JSON),
+                registry, mode, capacity, 1, 100, "user_events", 2, 0);
+    }
+
+    private UserEventInputRequest event() {
+        return UserEventInputRequest.builder().userId(UUID.randomUUID()).pageUrl("/home").build();
+    }
+
+    @Test
+    void sync_shouldProcessOnCallerThread() {
+        assertTrue(dispatcher(IngestMode.SYNC, 2).submit(event()));
+        verify(analyticsService).process(any());
+    }
+
+    @Test
+    void ring_shouldRejectWhenFullAndDrainInBatches() {
+        IngestionDispatcher d = dispatcher(IngestMode.RING, 2); // writers not started
+        assertTrue(d.submit(event()));
+        assertTrue(d.submit(event()));
+        assertFalse(d.submit(event()));
+        assertEquals(1.0, registry.get("analytics.ingest.rejected").counter().count());
+        assertEquals(2.0, registry.get("analytics.ingest.queue.depth").gauge().value());
+
+        List<UserEventInputRequest> batch = new ArrayList<>();
+        assertEquals(2, d.drainOnce(batch, new long[1]));
+        verify(analyticsService).processBatch(argThat(b -> b.size() == 2
+                && b.stream().allMatch(e -> e.getEventTimestamp() != null)));
+        verify(analyticsService, never()).process(any());
+        assertEquals(1, registry.get("analytics.ingest.drain.latency").timer().count());
+        assertTrue(d.submit(event()));
+    }
+
+    @Test
+    void ring_shouldCountDroppedEventsWhenEveryRetryFails() {
+        IngestionDispatcher d = dispatcher(IngestMode.RING, 4);
+        d.submit(event());
+        doThrow(new RuntimeException("redis down")).when(analyticsService).processBatch(anyList());
+        assertEquals(1, d.drainOnce(new ArrayList<>(), new long[1]));
+        verify(analyticsService, times(3)).processBatch(anyList());
+        assertEquals(1.0, registry.get("analytics.ingest.dropped").counter().count());
+    }
+
+    @Test
+    void ring_shouldRetryAFailedWriteBeforeDropping() {
+        IngestionDispatcher d = dispatcher(IngestMode.RING, 4);
+        d.submit(event());
+        doThrow(new RuntimeException("redis blip")).doNothing().when(analyticsService).processBatch(anyList());
+        assertEquals(1, d.drainOnce(new ArrayList<>(), new long[1]));
+        verify(analyticsService, times(2)).processBatch(anyList());
+        assertEquals(0.0, registry.get("analytics.ingest.dropped").counter().count());
+        assertEquals(1, registry.get("analytics.ingest.drain.latency").timer().count());
+    }
+
+    @Test
+    void stop_shouldDrainTheWholeRing() throws InterruptedException {
+        IngestionDispatcher d = dispatcher(IngestMode.RING, 512); // batches of 100, writers not started
+        for (int i = 0; i < 250; i++) assertTrue(d.submit(event()));
+        d.stop();
+        verify(analyticsService, times(3)).processBatch(anyList());
+        assertEquals(0.0, registry.get("analytics.ingest.queue.depth").gauge().value());
+    }
+
+    @Test
+    void stop_shouldRetryThenCountTheRestAsDroppedWhenRedisStaysDown() throws InterruptedException {
+        IngestionDispatcher d = dispatcher(IngestMode.RING, 512);
+        for (int i = 0; i < 250; i++) assertTrue(d.submit(event()));
+        doThrow(new RuntimeException("redis down")).when(analyticsService).processBatch(anyList());
+        d.stop();
+        verify(analyticsService, times(3)).processBatch(anyList()); // first batch, with 2 retries
+        assertEquals(250.0, registry.get("analytics.ingest.dropped").counter().count());
+        assertEquals(0.0, registry.get("analytics.ingest.queue.depth").gauge().value());
+    }
+
+    @Test
+    void kafka_shouldCountFailedPublishAsDropped() {
+        when(kafkaTemplate.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker down")));
+        assertTrue(dispatcher(IngestMode.KAFKA, 2).submit(event()));
+        assertEquals(1.0, registry.get("analytics.ingest.dropped").counter().count());
+    }
+
+    @Test
+    void kafka_shouldRejectWhenSendBlocksTooLong() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenThrow(new RuntimeException("max.block.ms elapsed"));
+        assertFalse(dispatcher(IngestMode.KAFKA, 2).submit(event()));
+        assertEquals(1.0, registry.get("analytics.ingest.rejected").counter().count());
+    }
+
+    @Test
+    void kafka_shouldPublishKeyedByUser() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(new CompletableFuture<>());
+        UserEventInputRequest ev = event();
+        assertTrue(dispatcher(IngestMode.KAFKA, 2).submit(ev));
+        verify(kafkaTemplate).send(argThat((ProducerRecord<String, byte[]> r) -> r.topic().equals("user_events")
+                && r.key().equals(ev.getUserId().toString()) && new String(r.value()).contains("/home")
+                && new String(r.value()).contains(ev.getEventId())));
+        assertNotNull(ev.getEventId());
+        verifyNoInteractions(analyticsService);
+    }
+}
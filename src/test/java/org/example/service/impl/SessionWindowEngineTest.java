@@ -0,0 +1,202 @@
+package org.example.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.internals.BuiltInPartitioner;
+import org.example.dto.SessionWindow;
+import org.example.dto.UserEventInputRequest;
+import org.example.repository.AnalyticsDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionWindowEngineTest {
+    private static final long GAP = Duration.ofMinutes(30).toMillis();
+
+    private AnalyticsDataRepository repository;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    private SessionWindowEngine engine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        kafkaTemplate = mock(KafkaTemplate.class);
+        engine = new SessionWindowEngine(repository, kafkaTemplate, new ObjectMapper().findAndRegisterModules(),
+                new SimpleMeterRegistry(), true, Duration.ofMillis(GAP), 4, 10_000, 2, "user_sessions");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SessionWindow> closedOnSweep(long nowMs) {
+        ArgumentCaptor<Collection<SessionWindow>> closed = ArgumentCaptor.forClass(Collection.class);
+        clearInvocations(repository);
+        engine.sweep(nowMs);
+        verify(repository).applySessionTransitions(any(), any(), closed.capture(), eq(Duration.ofMillis(GAP)), any());
+        return List.copyOf(closed.getValue());
+    }
+
+    @Test
+    void partitionFor_shouldMatchKafkaDefaultPartitioner() {
+        for (int i = 0; i < 100; i++) {
+            UUID user = UUID.randomUUID();
+            assertEquals(BuiltInPartitioner.partitionForKey(user.toString().getBytes(StandardCharsets.UTF_8), 12),
+                    SessionWindowEngine.partitionFor(user, 12));
+        }
+    }
+
+    @Test
+    void track_shouldKeepSessionWithinGapAndRollOverAfterIt() {
+        UUID user = UUID.randomUUID();
+        long t0 = 1_764_331_200_000L;
+        String first = engine.track(user, "/home", t0);
+        assertEquals(first, engine.track(user, "/product/1", t0 + GAP - 1));
+        String second = engine.track(user, "/home", t0 + GAP - 1 + GAP + 1);
+        assertNotEquals(first, second);
+        assertEquals(1, engine.openSessions());
+
+        List<SessionWindow> closed = closedOnSweep(t0 + GAP);
+        assertEquals(1, closed.size());
+        SessionWindow s = closed.get(0);
+        assertEquals(first, s.getSessionId());
+        assertEquals(2, s.getEventCount());
+        assertEquals(GAP - 1, s.durationMs());
+        assertEquals(List.of("/home", "/product/1"), s.getPages());
+        verify(kafkaTemplate).send(eq("user_sessions"), eq(user.toString()), any(byte[].class));
+    }
+
+    @Test
+    void sweep_shouldCloseIdleSessionsAndPublishOpenCount() {
+        long now = System.currentTimeMillis();
+        UUID idle = UUID.randomUUID();
+        UUID active = UUID.randomUUID();
+        engine.track(idle, "/a", now - GAP - 1, 0);
+        engine.track(active, "/a", now, 0);
+
+        List<SessionWindow> closed = closedOnSweep(now);
+        assertEquals(List.of(idle), closed.stream().map(SessionWindow::getUserId).toList());
+        verify(repository).publishOpenSessions(anyString(), eq(1L), eq(now));
+    }
+
+    @Test
+    void sessionIds_shouldPredictTrackWithoutChangingState() {
+        UUID user = UUID.randomUUID();
+        long t0 = System.currentTimeMillis() - 3 * GAP;
+        String open = engine.track(user, "/a", t0);
+        List<UserEventInputRequest> events = List.of(
+                UserEventInputRequest.builder().userId(user).eventTimestamp(Instant.ofEpochMilli(t0 + GAP - 1)).build(),
+                UserEventInputRequest.builder().userId(user).eventTimestamp(Instant.ofEpochMilli(t0 + 2 * GAP)).build(),
+                UserEventInputRequest.builder().userId(user).eventTimestamp(Instant.ofEpochMilli(t0 + 2 * GAP + 1)).build());
+
+        List<String> ids = engine.sessionIds(events);
+        assertEquals(1, engine.openSessions());
+        assertEquals(open, ids.get(0));
+        assertNotEquals(open, ids.get(1));
+        assertEquals(ids.get(1), ids.get(2));
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(ids.get(i), engine.track(user, "/a", events.get(i).getEventTimestamp().toEpochMilli()));
+        }
+    }
+
+    @Test
+    void track_shouldCapPageListButCountDistinctPages() {
+        UUID user = UUID.randomUUID();
+        long t0 = System.currentTimeMillis() - 2 * GAP;
+        engine.track(user, "/a", t0);
+        engine.track(user, "/b", t0 + 1);
+        engine.track(user, "/a", t0 + 2);
+        engine.track(user, "/c", t0 + 3);
+        // no later event on the shard, so it closes once the gap passes in processing time
+        assertEquals(List.of(), closedOnSweep(System.currentTimeMillis()));
+        SessionWindow s = closedOnSweep(System.currentTimeMillis() + GAP + 1).get(0);
+        assertEquals(List.of("/a", "/b"), s.getPages());
+        assertEquals(3, s.getDistinctPages());
+        assertEquals(4, s.getEventCount());
+    }
+
+    @Test
+    void sweep_shouldMeasureGapsInEventTimeWhileReplaying() {
+        // a backlog from a day ago: the wall clock says every session is idle, the events say otherwise
+        long t0 = System.currentTimeMillis() - Duration.ofDays(1).toMillis();
+        UUID early = UUID.randomUUID();
+        UUID late = UUID.randomUUID();
+        engine.track(early, "/a", t0, 1);
+        engine.track(late, "/a", t0 + GAP / 2, 1);
+        assertEquals(List.of(), closedOnSweep(System.currentTimeMillis()));
+
+        engine.track(late, "/b", t0 + GAP + 1, 1);
+        List<SessionWindow> closed = closedOnSweep(System.currentTimeMillis());
+        assertEquals(List.of(early), closed.stream().map(SessionWindow::getUserId).toList());
+        assertEquals(1, engine.openSessions());
+    }
+
+    @Test
+    void track_shouldUseTheConsumedPartitionsShard() {
+        long now = System.currentTimeMillis();
+        UUID user = UUID.randomUUID();
+        int hashed = SessionWindowEngine.partitionFor(user, 4);
+        engine.track(user, "/a", now, (hashed + 1) % 4);
+        engine.closePartitions(List.of(hashed));
+        assertEquals(1, engine.openSessions());
+        engine.closePartitions(List.of((hashed + 1) % 4));
+        assertEquals(0, engine.openSessions());
+    }
+
+    @Test
+    void closePartitions_shouldCloseOnlyThoseShards() {
+        long now = System.currentTimeMillis();
+        UUID user = UUID.randomUUID();
+        engine.track(user, "/a", now);
+        int partition = SessionWindowEngine.partitionFor(user, 4);
+        engine.closePartitions(List.of((partition + 1) % 4));
+        assertEquals(1, engine.openSessions());
+        engine.closePartitions(List.of(partition));
+        assertEquals(0, engine.openSessions());
+    }
+
+    @Test
+    void sweep_shouldRetryTransitionsAfterRedisFailure() {
+        engine.track(UUID.randomUUID(), "/a", System.currentTimeMillis());
+        doThrow(new RuntimeException("redis down")).when(repository)
+                .applySessionTransitions(any(), any(), any(), any(), any());
+        assertThrows(RuntimeException.class, () -> engine.sweep(System.currentTimeMillis()));
+        doNothing().when(repository).applySessionTransitions(any(), any(), any(), any(), any());
+        engine.sweep(System.currentTimeMillis());
+        verify(repository, times(2)).applySessionTransitions(argThat(opened -> opened.size() == 1), any(), any(), any(), any());
+    }
+
+    @Test
+    void sweep_shouldRetryKeyRefreshesAfterRedisFailure() {
+        UUID user = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        engine.track(user, "/a", now);
+        engine.sweep(now);
+        // within two sweep intervals of sessions:<user> expiring
+        long refreshAt = now + GAP - 10_000;
+        doThrow(new RuntimeException("redis down")).when(repository)
+                .applySessionTransitions(any(), any(), any(), any(), any());
+        assertThrows(RuntimeException.class, () -> engine.sweep(refreshAt));
+        doNothing().when(repository).applySessionTransitions(any(), any(), any(), any(), any());
+        clearInvocations(repository);
+        engine.sweep(refreshAt);
+        verify(repository).applySessionTransitions(any(), eq(List.of(user)), any(), any(), any());
+    }
+
+    @Test
+    void closePartitions_shouldMapPartitionsToShardsLikeTrack() {
+        UUID user = UUID.randomUUID();
+        engine.track(user, "/a", System.currentTimeMillis(), 6);
+        engine.closePartitions(List.of(6 + 4));
+        assertEquals(0, engine.openSessions());
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.service.impl;
+
+import org.example.repository.AnalyticsDataRepository;
+import org.example.util.SpaceSavingSketch;
+import org.example.util.TimeBuckets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TrendingPagesTrackerTest {
+    private AnalyticsDataRepository repository;
+    private TrendingPagesTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(AnalyticsDataRepository.class);
+        when(repository.trendingBuckets()).thenReturn(new TimeBuckets(Duration.ofMinutes(1)));
+        tracker = new TrendingPagesTracker(repository, 10, 60);
+    }
+
+    @Test
+    void flush_shouldPublishPerMinuteCountsOnce() {
+        long now = System.currentTimeMillis();
+        long minute = now - Math.floorMod(now, 60_000);
+        tracker.offer("/home", now);
+        tracker.offer("/home", now);
+        tracker.offer("/cart", now);
+        tracker.offer("/ancient", now - Duration.ofHours(2).toMillis());
+
+        tracker.flush();
+        verify(repository).addTrendingCounts(
+                eq(Map.of(minute, List.of(new SpaceSavingSketch.Item("/home", 2, 0), new SpaceSavingSketch.Item("/cart", 1, 0)))),
+                eq(10), eq(Duration.ofMinutes(60)));
+
+        tracker.flush();
+        verifyNoMoreInteractions(ignoreStubs(repository));
+    }
+
+    @Test
+    void flush_shouldKeepCountsAFailedPublishCouldNotWrite() {
+        long now = System.currentTimeMillis();
+        long minute = now - Math.floorMod(now, 60_000);
+        doThrow(new IllegalStateException("redis down")).doNothing()
+                .when(repository).addTrendingCounts(anyMap(), anyInt(), any());
+        tracker.offer("/home", now);
+        tracker.flush();
+        tracker.offer("/home", now);
+
+        tracker.flush();
+        verify(repository).addTrendingCounts(
+                eq(Map.of(minute, List.of(new SpaceSavingSketch.Item("/home", 1, 0)))),
+                eq(10), eq(Duration.ofMinutes(60)));
+        // the retried flush carries the failed count plus the new one
+        verify(repository).addTrendingCounts(
+                eq(Map.of(minute, List.of(new SpaceSavingSketch.Item("/home", 2, 0)))),
+                eq(10), eq(Duration.ofMinutes(60)));
+    }
+
+    @Test
+    void topPages_shouldRejectWindowsBeyondRetention() {
+        assertThrows(IllegalArgumentException.class, () -> tracker.topPages(Duration.ofHours(2), 10));
+        tracker.topPages(Duration.ofMinutes(15), 5);
+        verify(repository).topPages(anyLong(), eq(Duration.ofMinutes(15)), eq(5));
+    }
+}
@@ -1,5 +1,7 @@
 package org.example.util;
 
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
@@ -9,10 +11,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class AnalyticsRateLimiterTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
     private AnalyticsRateLimiter limiter;
     private HttpServletRequest request;
     private HttpServletResponse response;
@@ -21,7 +33,7 @@ class AnalyticsRateLimiterTest {
 
     @BeforeEach
     void setUp() throws Exception {
-        limiter = new AnalyticsRateLimiter();
+        limiter = new AnalyticsRateLimiter(null, new SimpleMeterRegistry(), ticker);
         // Use reflection to set private fields
         java.lang.reflect.Field tokensField = AnalyticsRateLimiter.class.getDeclaredField("tokensPerSecond");
         tokensField.setAccessible(true);
@@ -46,7 +58,7 @@ class AnalyticsRateLimiterTest {
 
     @Test
     void doFilter_shouldRateLimit() throws Exception {
-        when(request.getRequestURI()).thenReturn("/api/events");
+        when(request.getRequestURI()).thenReturn("/apis/v1/events");
         when(request.getHeader("X-Client-Id")).thenReturn("test-client");
         // Exhaust tokens
         for (int i = 0; i < 5; i++) {
@@ -55,4 +67,114 @@ class AnalyticsRateLimiterTest {
         verify(response, atLeastOnce()).setStatus(429);
         verify(writer, atLeastOnce()).write(contains("rate_limit_exceeded"));
     }
+
+    @Test
+    void doFilter_shouldLimitIngestionRoutesUnderContextPath() throws Exception {
+        when(request.getContextPath()).thenReturn("/ecommerce-analytics");
+        when(request.getRequestURI()).thenReturn("/ecommerce-analytics/apis/v1/events/batch");
+        when(request.getHeader("X-Client-Id")).thenReturn("batch-client");
+        for (int i = 0; i < 5; i++) {
+            limiter.doFilter(request, response, chain);
+        }
+        verify(chain, times(4)).doFilter(request, response);
+        verify(response).setStatus(429);
+    }
+
+    @Test
+    void doFilter_shouldNotLimitMetricsRoutes() throws Exception {
+        when(request.getRequestURI()).thenReturn("/apis/v1/metrics/active-users");
+        for (int i = 0; i < 10; i++) {
+            limiter.doFilter(request, response, chain);
+        }
+        verify(response, never()).setStatus(429);
+    }
+
+    @Test
+    void doFilter_shouldCapTrackedClients() throws Exception {
+        java.lang.reflect.Field maxField = AnalyticsRateLimiter.class.getDeclaredField("maxClients");
+        maxField.setAccessible(true);
+        maxField.set(limiter, 3);
+        when(request.getRequestURI()).thenReturn("/apis/v1/events");
+        for (int i = 0; i < 50; i++) {
+            when(request.getHeader("X-Client-Id")).thenReturn("rotating-" + i);
+            limiter.doFilter(request, response, chain);
+        }
+        assertEquals(3, limiter.trackedClients());
+    }
+
+    @Test
+    void doFilter_shouldNotOvershootCapUnderConcurrentNewClients() throws Exception {
+        java.lang.reflect.Field maxField = AnalyticsRateLimiter.class.getDeclaredField("maxClients");
+        maxField.setAccessible(true);
+        maxField.set(limiter, 10);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                String client = "client-" + i;
+                HttpServletRequest r = mock(HttpServletRequest.class);
+                when(r.getRequestURI()).thenReturn("/apis/v1/events");
+                when(r.getHeader("X-Client-Id")).thenReturn(client);
+                calls.add(pool.submit(() -> {
+                    limiter.doFilter(r, response, chain);
+                    return null;
+                }));
+            }
+            for (Future<?> call : calls) call.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(10, limiter.trackedClients());
+    }
+
+    @Test
+    void evictIdle_shouldDropOnlyFullBuckets() throws Exception {
+        java.lang.reflect.Field idleField = AnalyticsRateLimiter.class.getDeclaredField("idleEvictSeconds");
+        idleField.setAccessible(true);
+        idleField.set(limiter, 0L);
+        when(request.getRequestURI()).thenReturn("/apis/v1/events");
+        when(request.getHeader("X-Client-Id")).thenReturn("busy");
+        for (int i = 0; i < 4; i++) limiter.doFilter(request, response, chain);
+        when(request.getHeader("X-Client-Id")).thenReturn("quiet");
+        limiter.doFilter(request, response, chain);
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(499));
+        limiter.evictIdle();
+        assertEquals(2, limiter.trackedClients());
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+        limiter.evictIdle();
+        // "quiet" refilled its single token after 500ms, "busy" still owes tokens at 2/s
+        assertEquals(1, limiter.trackedClients());
+    }
+
+    @Test
+    void doFilter_shouldCountRejectionsByClientClass() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AnalyticsRateLimiter metered = new AnalyticsRateLimiter(null, registry, ticker);
+        java.lang.reflect.Field tokensField = AnalyticsRateLimiter.class.getDeclaredField("tokensPerSecond");
+        tokensField.setAccessible(true);
+        tokensField.set(metered, 2);
+        java.lang.reflect.Field bucketField = AnalyticsRateLimiter.class.getDeclaredField("bucketSize");
+        bucketField.setAccessible(true);
+        bucketField.set(metered, 1);
+        when(request.getRequestURI()).thenReturn("/apis/v1/events");
+        for (int i = 0; i < 3; i++) metered.doFilter(request, response, chain);
+        when(request.getHeader("X-Client-Id")).thenReturn("known");
+        for (int i = 0; i < 2; i++) metered.doFilter(request, response, chain);
+        assertEquals(2, registry.get("analytics.ratelimit.rejected").tag("client_class", "anonymous").counter().count());
+        assertEquals(1, registry.get("analytics.ratelimit.rejected").tag("client_class", "identified").counter().count());
+        assertEquals(0, registry.get("analytics.ratelimit.rejected").tag("client_class", "overflow").counter().count());
+    }
+
+    @Test
+    void tokenBucket_shouldAllowBurstThenRefill() throws Exception {
+        AnalyticsRateLimiter.TokenBucket bucket = new AnalyticsRateLimiter.TokenBucket(100, 3, ticker);
+        assertTrue(bucket.tryConsume());
+        assertTrue(bucket.tryConsume());
+        assertTrue(bucket.tryConsume());
+        assertFalse(bucket.tryConsume());
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(bucket.tryConsume());
+        assertFalse(bucket.tryConsume());
+    }
 }
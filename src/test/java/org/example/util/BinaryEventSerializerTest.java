@@ -0,0 +1,73 @@
+package org.example.util;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEventSerializerTest {
+
+    @Test
+    void roundTrip_shouldPreserveAllFields() {
+        UserEventInputRequest ev = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID())
+                .eventType(EventType.ADD_TO_CART)
+                .eventTimestamp(Instant.ofEpochMilli(1_764_331_200_123L))
+                .pageUrl("/search?q=größe")
+                .sessionId("s-1")
+                .build();
+        byte[] bytes = BinaryEventSerializer.encode(ev);
+        assertEquals(ev, BinaryEventDeserializer.decode(bytes));
+        assertEquals(BinaryEventSerializer.FIXED_SIZE + "/search?q=größe".getBytes().length + 3, bytes.length);
+    }
+
+    @Test
+    void roundTrip_shouldKeepNullsDistinctFromDefaults() {
+        UserEventInputRequest ev = UserEventInputRequest.builder().pageUrl("").build();
+        UserEventInputRequest decoded = BinaryEventDeserializer.decode(BinaryEventSerializer.encode(ev));
+        assertNull(decoded.getUserId());
+        assertNull(decoded.getEventType());
+        assertNull(decoded.getEventTimestamp());
+        assertNull(decoded.getSessionId());
+        assertEquals("", decoded.getPageUrl());
+    }
+
+    @Test
+    void serialize_shouldTagRecordHeader() {
+        RecordHeaders headers = new RecordHeaders();
+        new BinaryEventSerializer().serialize("t", headers, UserEventInputRequest.builder().pageUrl("/").build());
+        assertArrayEquals(EventWireCodec.BINARY_HEADER_VALUE, headers.lastHeader(EventWireCodec.FORMAT_HEADER).value());
+    }
+
+    @Test
+    void roundTrip_shouldCarryEventIdAndStillReadVersionOne() {
+        UserEventInputRequest ev = UserEventInputRequest.builder().eventId("e-42").pageUrl("/home").sessionId("s").build();
+        assertEquals("e-42", BinaryEventDeserializer.decode(BinaryEventSerializer.encode(ev)).getEventId());
+
+        ev.setEventId(null);
+        byte[] v2 = BinaryEventSerializer.encode(ev);
+        // a version 1 record is the same layout without the trailing eventId
+        byte[] v1 = Arrays.copyOf(v2, v2.length - 2);
+        v1[0] = 1;
+        UserEventInputRequest decoded = BinaryEventDeserializer.decode(v1);
+        assertEquals("/home", decoded.getPageUrl());
+        assertEquals("s", decoded.getSessionId());
+        assertNull(decoded.getEventId());
+    }
+
+    @Test
+    void decode_shouldRejectUnknownVersionAndTruncatedInput() {
+        byte[] bytes = BinaryEventSerializer.encode(UserEventInputRequest.builder().pageUrl("/home").build());
+        assertThrows(SerializationException.class,
+                () -> BinaryEventDeserializer.decode(Arrays.copyOf(bytes, bytes.length - 2)));
+        bytes[0] = 9;
+        assertThrows(SerializationException.class, () -> BinaryEventDeserializer.decode(bytes));
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonEventDecoderTest {
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final JsonEventDecoder decoder = new JsonEventDecoder(mapper);
+
+    private void assertSameAsDatabind(String json) throws Exception {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        assertEquals(mapper.readValue(bytes, UserEventInputRequest.class), decoder.decode(bytes), json);
+    }
+
+    @Test
+    void decode_shouldMatchDatabindForProducedEvents() throws Exception {
+        UserEventInputRequest ev = UserEventInputRequest.builder()
+                .userId(UUID.randomUUID())
+                .eventType(EventType.CHECKOUT)
+                .eventTimestamp(Instant.parse("2025-11-28T12:00:00.123Z"))
+                .pageUrl("/search?q=\"shoes\"&lang=ü")
+                .sessionId("abc")
+                .eventId("evt-1")
+                .build();
+        byte[] bytes = mapper.writeValueAsBytes(ev);
+        assertEquals(ev, decoder.decode(bytes));
+        assertSameAsDatabind(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decode_shouldMatchDatabindForLooseInput() throws Exception {
+        assertSameAsDatabind("{\"userId\":\"B3B1C2D4-1234-5678-9ABC-DEF012345678\",\"eventType\":\" page_view \"}");
+        assertSameAsDatabind("{\"pageUrl\":\"/home\",\"eventTimestamp\":1764331200,\"sessionId\":null}");
+        assertSameAsDatabind("{\"eventTimestamp\":1764331200.5,\"eventType\":null,\"userId\":null}");
+        assertSameAsDatabind("{}");
+    }
+
+    @Test
+    void decode_shouldRejectWhatDatabindRejects() {
+        byte[] unknownType = "{\"eventType\":\"REFUND\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] unknownField = "{\"pageUrl\":\"/\",\"extra\":1}".getBytes(StandardCharsets.UTF_8);
+        byte[] badUuid = "{\"userId\":\"b3b1c2d4-1234-5678-9abc-def01234567z\"}".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(unknownType));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(unknownField));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(badUuid));
+        assertThrows(Exception.class, () -> decoder.decode("not json".getBytes(StandardCharsets.UTF_8)));
+    }
+}
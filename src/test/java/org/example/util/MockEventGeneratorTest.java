@@ -0,0 +1,79 @@
+package org.example.util;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.example.dto.LoadGeneratorStats;
+import org.example.dto.UserEventInputRequest;
+import org.example.enums.EventType;
+import org.example.repository.AnalyticsDataRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MockEventGeneratorTest {
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+    private EventWireCodec codec;
+    private MockEventGenerator generator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        kafkaTemplate = mock(KafkaTemplate.class);
+        codec = mock(EventWireCodec.class);
+        when(codec.toRecord(anyString(), any())).thenReturn(new ProducerRecord<>("user_events", new byte[0]));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        generator = new MockEventGenerator(kafkaTemplate, codec, mock(AnalyticsDataRepository.class), false, 100,
+                "user_events", 1000, 1.1, 100, 1.0, 50, 8, "PAGE_VIEW=80,CHECKOUT=20", 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        generator.stop();
+    }
+
+    @Test
+    void nextEvent_shouldSkewUsersAndFollowTheEventMix() {
+        Map<UUID, Integer> perUser = new HashMap<>();
+        Map<EventType, Integer> perType = new EnumMap<>(EventType.class);
+        for (int i = 0; i < 20_000; i++) {
+            UserEventInputRequest ev = generator.nextEvent();
+            assertNotNull(ev.getEventTimestamp());
+            assertNull(ev.getSessionId());
+            assertNotNull(ev.getEventId());
+            if (ev.getEventType() == EventType.CHECKOUT) assertEquals("/checkout", ev.getPageUrl());
+            perUser.merge(ev.getUserId(), 1, Integer::sum);
+            perType.merge(ev.getEventType(), 1, Integer::sum);
+        }
+        assertEquals(2, perType.size());
+        assertEquals(0.2, perType.get(EventType.CHECKOUT) / 20_000.0, 0.02);
+        // Zipf(1.1) over 1000 users: the hottest user alone carries a large share of the traffic
+        assertTrue(perUser.size() <= 1000);
+        assertTrue(perUser.values().stream().mapToInt(Integer::intValue).max().orElse(0) > 1000);
+    }
+
+    @Test
+    void constructor_shouldRejectMalformedEventMix() {
+        assertThrows(IllegalArgumentException.class, () -> new MockEventGenerator(kafkaTemplate, codec,
+                mock(AnalyticsDataRepository.class), false, 100, "t", 10, 1.0, 10, 1.0, 1, 1, "PAGE_VIEW", 0));
+    }
+
+    @Test
+    void start_shouldPaceSendsOpenLoop() throws Exception {
+        generator.start(1000);
+        Thread.sleep(500);
+        generator.stop();
+        LoadGeneratorStats stats = generator.stats();
+        assertFalse(stats.isRunning());
+        assertTrue(stats.getSent() > 200 && stats.getSent() <= 1000, "sent=" + stats.getSent());
+        assertEquals(stats.getSent(), stats.getProduceLatency().getCount());
+        assertEquals(0, stats.getFailed());
+    }
+}
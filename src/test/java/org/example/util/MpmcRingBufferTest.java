@@ -0,0 +1,79 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpmcRingBufferTest {
+
+    @Test
+    void capacity_shouldRoundUpToPowerOfTwo() {
+        assertEquals(8, new MpmcRingBuffer<String>(5).capacity());
+        assertEquals(8, new MpmcRingBuffer<String>(8).capacity());
+    }
+
+    @Test
+    void offer_shouldFailWhenFull() {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i, i));
+        assertFalse(ring.offer(4, 4));
+        assertEquals(4, ring.size());
+    }
+
+    @Test
+    void drain_shouldReturnElementsAndStampsInOrder() {
+        MpmcRingBuffer<String> ring = new MpmcRingBuffer<>(4);
+        ring.offer("a", 10);
+        ring.offer("b", 20);
+        ring.offer("c", 30);
+        List<String> out = new ArrayList<>();
+        List<Long> stamps = new ArrayList<>();
+        assertEquals(2, ring.drain((e, s) -> { out.add(e); stamps.add(s); }, 2));
+        assertEquals(List.of("a", "b"), out);
+        assertEquals(List.of(10L, 20L), stamps);
+        // slots are reusable after draining, including across the wrap
+        assertTrue(ring.offer("d", 40));
+        assertTrue(ring.offer("e", 50));
+        assertTrue(ring.offer("f", 60));
+        out.clear();
+        assertEquals(4, ring.drain((e, s) -> out.add(e), 10));
+        assertEquals(List.of("c", "d", "e", "f"), out);
+        assertEquals(0, ring.drain((e, s) -> out.add(e), 10));
+    }
+
+    @Test
+    void concurrentProducersAndConsumers_shouldDeliverEachElementOnce() throws Exception {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(64);
+        int producers = 4, perProducer = 20_000, total = producers * perProducer;
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers + 2);
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(base + i, 0)) Thread.onSpinWait();
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int c = 0; c < 2; c++) {
+            new Thread(() -> {
+                while (consumed.get() < total) {
+                    consumed.addAndGet(ring.drain((e, s) -> assertTrue(seen.add(e)), 16));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertEquals(total, seen.size());
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.*;
+
+class RedisGcraRateLimiterTest {
+    private final List<RedisGcraRateLimiter> limiters = new ArrayList<>();
+    private LettuceConnectionFactory factory;
+
+    private RedisGcraRateLimiter limiter(StringRedisTemplate redis, int preAllowance) {
+        RedisGcraRateLimiter l = new RedisGcraRateLimiter(redis, 1, 20, preAllowance, 60_000, 500, 5000, 1000, 4);
+        limiters.add(l);
+        return l;
+    }
+
+    @AfterEach
+    void tearDown() {
+        limiters.forEach(RedisGcraRateLimiter::stop);
+        if (factory != null) factory.destroy();
+    }
+
+    @Test
+    void tryAcquire_shouldServePreAllowanceLocally() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(5L);
+        RedisGcraRateLimiter limiter = limiter(redis, 5);
+        for (int i = 0; i < 5; i++) assertEquals(Boolean.TRUE, limiter.tryAcquire("client"));
+        verify(redis, times(1)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void tryAcquire_shouldReturnFalseWhenClusterBudgetIsSpent() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenReturn(0L);
+        assertEquals(Boolean.FALSE, limiter(redis, 5).tryAcquire("client"));
+    }
+
+    @Test
+    void tryAcquire_shouldSignalFallbackAndBackOffWhenRedisFails() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        RedisGcraRateLimiter limiter = limiter(redis, 5);
+        assertNull(limiter.tryAcquire("client"));
+        assertNull(limiter.tryAcquire("client"));
+        // second call skipped Redis during the backoff
+        verify(redis, times(1)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void tryAcquire_shouldKeepTokensFromConcurrentReservations() throws Exception {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        CountDownLatch bothInRedis = new CountDownLatch(2);
+        when(redis.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenAnswer(inv -> {
+            bothInRedis.countDown();
+            bothInRedis.await(400, TimeUnit.MILLISECONDS);
+            return 5L;
+        });
+        RedisGcraRateLimiter limiter = limiter(redis, 5);
+        Thread other = new Thread(() -> limiter.tryAcquire("client"));
+        other.start();
+        assertEquals(Boolean.TRUE, limiter.tryAcquire("client"));
+        other.join();
+        // each reservation kept 4 tokens for later requests
+        for (int i = 0; i < 8; i++) assertEquals(Boolean.TRUE, limiter.tryAcquire("client"));
+        verify(redis, times(2)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+    }
+
+    @Test
+    void tryAcquire_shouldFallBackWhenEveryRedisThreadIsBusy() throws Exception {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        CountDownLatch release = new CountDownLatch(1);
+        when(redis.execute(any(RedisScript.class), anyList(), any(), any(), any())).thenAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return 5L;
+        });
+        // one Redis thread, no backoff, so only the busy pool can turn the second call away
+        RedisGcraRateLimiter limiter = new RedisGcraRateLimiter(redis, 1, 20, 5, 60_000, 50, 0, 1000, 1);
+        limiters.add(limiter);
+        assertNull(limiter.tryAcquire("a"));
+        assertNull(limiter.tryAcquire("b"));
+        verify(redis, times(1)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+        release.countDown();
+    }
+
+    /** Three "instances" share one local redis-server; together they must stay within one budget. */
+    @Test
+    void tryAcquire_shouldEnforceOneBudgetAcrossInstances() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getenv().getOrDefault("REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379")));
+        config.setDatabase(15);
+        factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        boolean up;
+        try (RedisConnection c = factory.getConnection()) {
+            c.serverCommands().flushDb();
+            up = true;
+        } catch (Exception e) {
+            up = false;
+        }
+        assumeTrue(up, "redis-server not reachable");
+        StringRedisTemplate redis = new StringRedisTemplate(factory);
+
+        List<RedisGcraRateLimiter> instances = List.of(limiter(redis, 4), limiter(redis, 4), limiter(redis, 4));
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (Boolean.TRUE.equals(instances.get(i % 3).tryAcquire("shared-client"))) allowed++;
+        }
+        // burst of 20 at 1 token/s: a per-JVM limiter would have allowed 60
+        assertTrue(allowed >= 20 && allowed <= 22, "allowed=" + allowed);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingBloomFilterTest {
+
+    @Test
+    void put_shouldBeSeenUntilItsGenerationRollsOff() {
+        // 4 slices of 1s
+        RollingBloomFilter filter = new RollingBloomFilter(Duration.ofSeconds(4), 4, 1 << 16, 7);
+        long t0 = 10_000;
+        long[] p = filter.positions("event-1");
+        assertFalse(filter.mightContain(p, t0));
+        assertTrue(filter.put(p, t0));
+        assertFalse(filter.put(p, t0));
+
+        assertTrue(filter.mightContain(p, t0 + 3_999));
+        // the slice it was added in has left the window
+        assertFalse(filter.mightContain(p, t0 + 4_000));
+    }
+
+    @Test
+    void roll_shouldDropEverythingAfterAQuietWindow() {
+        RollingBloomFilter filter = new RollingBloomFilter(Duration.ofSeconds(4), 4, 1 << 16, 7);
+        long[] p = filter.positions("event-1");
+        filter.put(p, 0);
+        assertFalse(filter.mightContain(p, 60_000));
+        assertTrue(filter.put(p, 60_000));
+    }
+
+    @Test
+    void mightContain_shouldStayNearTheSizedFalsePositiveRate() {
+        int n = 20_000;
+        double fpp = 0.01;
+        long bits = RollingBloomFilter.optimalBits(n, fpp);
+        RollingBloomFilter filter = new RollingBloomFilter(Duration.ofMinutes(1), 2, bits,
+                RollingBloomFilter.optimalHashes(bits, n));
+        for (int i = 0; i < n; i++) filter.put(filter.positions("in-" + i), 0);
+        for (int i = 0; i < n; i++) assertTrue(filter.mightContain(filter.positions("in-" + i), 0));
+
+        int falsePositives = 0;
+        for (int i = 0; i < n; i++) {
+            if (filter.mightContain(filter.positions("out-" + i), 0)) falsePositives++;
+        }
+        assertTrue(falsePositives < n * fpp * 2, "false positives: " + falsePositives);
+        assertEquals(2 * Math.ceilDiv(bits, 64) * 8, filter.memoryBytes());
+    }
+
+    @Test
+    void generationStarts_shouldListLiveSlicesNewestFirst() {
+        RollingBloomFilter filter = new RollingBloomFilter(Duration.ofMinutes(4), 4, 64, 1);
+        assertArrayEquals(new long[]{180_000, 120_000, 60_000, 0}, filter.generationStarts(200_000));
+    }
+}
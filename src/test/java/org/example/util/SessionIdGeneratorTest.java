@@ -1,21 +1,29 @@
 package org.example.util;
 
 import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
 import java.time.Instant;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SessionIdGeneratorTest {
+    private static final Duration GAP = Duration.ofMinutes(30);
+
     @Test
     void generate_shouldReturnConsistentId() {
-        String id1 = SessionIdGenerator.generate("user1", "/home", Instant.ofEpochSecond(1000000));
-        String id2 = SessionIdGenerator.generate("user1", "/home", Instant.ofEpochSecond(1000000));
+        String id1 = SessionIdGenerator.generate("user1", Instant.ofEpochSecond(1000000), GAP);
+        String id2 = SessionIdGenerator.generate("user1", Instant.ofEpochSecond(1000000), GAP);
         assertEquals(id1, id2);
+        assertTrue(id1.startsWith("user1-"));
     }
 
     @Test
-    void generate_shouldHandleException() {
-        String id = SessionIdGenerator.generate("user1", null, Instant.now());
-        assertTrue(id.startsWith("user1-"));
+    void generate_shouldShareIdWithinWindowAndChangeAcrossIt() {
+        Instant windowStart = Instant.parse("2024-01-01T10:00:00Z");
+        String id = SessionIdGenerator.generate("user1", windowStart, GAP);
+        assertEquals(id, SessionIdGenerator.generate("user1", windowStart.plus(Duration.ofMinutes(29)), GAP));
+        assertNotEquals(id, SessionIdGenerator.generate("user1", windowStart.plus(GAP), GAP));
+        assertNotEquals(id, SessionIdGenerator.generate("user2", windowStart, GAP));
     }
 }
-
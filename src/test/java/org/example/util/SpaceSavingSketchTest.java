@@ -0,0 +1,54 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingSketchTest {
+
+    @Test
+    void top_shouldReturnExactCountsBelowCapacity() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+        for (int i = 0; i < 5; i++) sketch.offer("/home");
+        for (int i = 0; i < 3; i++) sketch.offer("/cart");
+        sketch.offer("/checkout");
+
+        List<SpaceSavingSketch.Item> top = sketch.top(2);
+        assertEquals(List.of(new SpaceSavingSketch.Item("/home", 5, 0), new SpaceSavingSketch.Item("/cart", 3, 0)), top);
+    }
+
+    @Test
+    void offer_shouldKeepHeavyHittersUnderLongTail() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(20);
+        Random random = new Random(7);
+        long total = 0;
+        for (int i = 0; i < 50_000; i++) {
+            int r = random.nextInt(100);
+            // three hot pages take 60% of traffic, the rest is spread over 10k pages
+            String page = r < 30 ? "/hot1" : r < 50 ? "/hot2" : r < 60 ? "/hot3" : "/tail/" + random.nextInt(10_000);
+            sketch.offer(page);
+            total++;
+        }
+        List<SpaceSavingSketch.Item> top = sketch.top(3);
+        assertEquals(List.of("/hot1", "/hot2", "/hot3"), top.stream().map(SpaceSavingSketch.Item::key).toList());
+        for (SpaceSavingSketch.Item item : top) {
+            assertTrue(item.error() <= total / 20);
+        }
+        assertEquals(20, sketch.size());
+    }
+
+    @Test
+    void merge_shouldSumCountsOfSharedKeys() {
+        SpaceSavingSketch a = new SpaceSavingSketch(10);
+        SpaceSavingSketch b = new SpaceSavingSketch(10);
+        a.offer("/home", 4);
+        b.offer("/home", 6);
+        b.offer("/cart", 2);
+        a.merge(b);
+        assertEquals(new SpaceSavingSketch.Item("/home", 10, 0), a.top(1).get(0));
+        assertEquals(2, a.size());
+    }
+}
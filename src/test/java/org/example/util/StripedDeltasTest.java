@@ -0,0 +1,56 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedDeltasTest {
+
+    private static long sum(List<long[]> drained) {
+        long n = 0;
+        for (long[] d : drained) n += d[0];
+        return n;
+    }
+
+    @Test
+    void drain_shouldSeeEveryUpdateExactlyOnceWhileVirtualThreadsWrite() throws Exception {
+        StripedDeltas<long[]> deltas = new StripedDeltas<>(() -> new long[1], d -> d[0] == 0);
+        long drained = 0;
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 1_000; t++) {
+                writers.add(pool.submit(() -> {
+                    for (int i = 0; i < 100; i++) deltas.update(d -> d[0]++);
+                }));
+            }
+            // flush concurrently with the writers
+            while (!writers.stream().allMatch(Future::isDone)) drained += sum(deltas.drain());
+            for (Future<?> w : writers) w.get();
+        }
+        drained += sum(deltas.drain());
+        assertEquals(100_000, drained);
+        assertEquals(List.of(), deltas.drain());
+    }
+
+    @Test
+    void restore_shouldHandDeltasBackForTheNextDrain() {
+        StripedDeltas<long[]> deltas = new StripedDeltas<>(() -> new long[1], d -> d[0] == 0);
+        assertEquals(3L, (long) deltas.apply(d -> d[0] += 3));
+        long pending = sum(deltas.drain());
+        deltas.restore(d -> d[0] += pending);
+        assertEquals(3, sum(deltas.drain()));
+    }
+
+    @Test
+    void stripes_shouldBeAPowerOfTwo() {
+        int n = new StripedDeltas<>(Object::new, o -> true).stripes();
+        assertEquals(0, n & (n - 1));
+        assertTrue(n >= 2);
+    }
+}
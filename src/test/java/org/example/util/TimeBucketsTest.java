@@ -0,0 +1,59 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeBucketsTest {
+    private final TimeBuckets minutes = new TimeBuckets(Duration.ofMinutes(1));
+
+    private static long ms(String iso) {
+        return Instant.parse(iso).toEpochMilli();
+    }
+
+    @Test
+    void bucketStart_shouldAlignToBucketBoundaries() {
+        assertEquals(ms("2025-11-28T12:00:00Z"), minutes.bucketStart(ms("2025-11-28T12:00:00Z")));
+        assertEquals(ms("2025-11-28T12:00:00Z"), minutes.bucketStart(ms("2025-11-28T12:00:59.999Z")));
+        assertEquals(ms("2025-11-28T12:01:00Z"), minutes.bucketStart(ms("2025-11-28T12:01:00Z")));
+        assertEquals(-60_000, minutes.bucketStart(-1));
+    }
+
+    @Test
+    void windowStarts_shouldCoverCurrentBucketAndPrecedingOnes() {
+        long now = ms("2025-11-28T12:15:30Z");
+        long[] starts = minutes.windowStarts(now, Duration.ofMinutes(15));
+        assertEquals(15, starts.length);
+        assertEquals(ms("2025-11-28T12:01:00Z"), starts[0]);
+        assertEquals(ms("2025-11-28T12:15:00Z"), starts[14]);
+    }
+
+    @Test
+    void windowStarts_shouldIncludeOnlyEventsInsideWindowBoundaries() {
+        long now = ms("2025-11-28T12:15:30Z");
+        long[] starts = minutes.windowStarts(now, Duration.ofMinutes(15));
+        long oldest = starts[0];
+        long newestEnd = starts[starts.length - 1] + minutes.bucketMs();
+        // 12:00:59 is more than 15 minutes old, 12:01:00 is within the window
+        assertTrue(minutes.bucketStart(ms("2025-11-28T12:00:59Z")) < oldest);
+        assertEquals(oldest, minutes.bucketStart(ms("2025-11-28T12:01:00Z")));
+        // the current bucket is included, the next one (future) is not
+        assertTrue(minutes.bucketStart(now) < newestEnd);
+        assertEquals(newestEnd, minutes.bucketStart(ms("2025-11-28T12:16:00Z")));
+    }
+
+    @Test
+    void bucketCount_shouldRoundUpPartialBuckets() {
+        TimeBuckets seconds = new TimeBuckets(Duration.ofSeconds(7));
+        assertEquals(129, seconds.bucketCount(Duration.ofMinutes(15)));
+        assertEquals(1, minutes.bucketCount(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void constructor_shouldRejectEmptyBucket() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeBuckets(Duration.ZERO));
+    }
+}
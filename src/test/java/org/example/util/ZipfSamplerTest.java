@@ -0,0 +1,48 @@
+package org.example.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipfSamplerTest {
+
+    private static double expected(int n, double exponent, int k) {
+        double norm = 0;
+        for (int i = 1; i <= n; i++) norm += 1 / Math.pow(i, exponent);
+        return 1 / Math.pow(k, exponent) / norm;
+    }
+
+    @Test
+    void sample_shouldFollowZipfFrequencies() {
+        ZipfSampler sampler = new ZipfSampler(10, 1.0);
+        SplittableRandom rnd = new SplittableRandom(42);
+        int draws = 200_000;
+        int[] counts = new int[11];
+        for (int i = 0; i < draws; i++) counts[sampler.sample(rnd)]++;
+        assertEquals(0, counts[0]);
+        for (int k : new int[]{1, 2, 3, 10}) {
+            assertEquals(expected(10, 1.0, k), (double) counts[k] / draws, 0.01, "rank " + k);
+        }
+    }
+
+    @Test
+    void sample_shouldStayInRangeForLargeSkewedPopulations() {
+        ZipfSampler sampler = new ZipfSampler(1_000_000, 1.2);
+        SplittableRandom rnd = new SplittableRandom(7);
+        int top = 0;
+        for (int i = 0; i < 100_000; i++) {
+            int k = sampler.sample(rnd);
+            assertTrue(k >= 1 && k <= 1_000_000);
+            if (k == 1) top++;
+        }
+        assertEquals(expected(1_000_000, 1.2, 1), top / 100_000.0, 0.01);
+    }
+
+    @Test
+    void constructor_shouldRejectInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new ZipfSampler(0, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new ZipfSampler(10, 0));
+    }
+}